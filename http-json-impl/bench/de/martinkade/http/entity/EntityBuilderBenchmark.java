@@ -0,0 +1,144 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Martin Kade.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.martinkade.http.entity;
+
+import de.martinkade.http.ApiService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares encode and decode through the shared {@link EntityRegistry}
+ * binding with building the binding on every call, which is what
+ * {@link EntityBuilder} did before bindings were cached.
+ * <p/>
+ *
+ * @author Martin Kade
+ * @version Tue, 5 January 2016
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EntityBuilderBenchmark {
+
+    private EntityBuilder<Order> builder;
+
+    private Order order;
+
+    private String json;
+
+    @Setup
+    public void setUp() throws Exception {
+        builder = new EntityBuilder<>();
+        order = new Order();
+        order.id = 42L;
+        order.status = "shipped";
+        order.quantity = 3;
+        order.price = 9.99f;
+        order.items = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            final Item item = new Item();
+            item.sku = "sku-" + i;
+            item.amount = i;
+            order.items.add(item);
+        }
+        json = builder.encode(order);
+    }
+
+    @Benchmark
+    public Order decodeCachedBinding() throws Exception {
+        return builder.decode(json, Order.class);
+    }
+
+    @Benchmark
+    public Order decodeUncachedBinding() throws Exception {
+        EntityRegistry.clear();
+        return builder.decode(json, new EntityBinding<>(Order.class));
+    }
+
+    @Benchmark
+    public String encodeCachedBinding() throws Exception {
+        return builder.encode(order);
+    }
+
+    @Benchmark
+    public String encodeUncachedBinding() throws Exception {
+        EntityRegistry.clear();
+        return builder.encode(order, new EntityBinding<>(Order.class));
+    }
+
+    /**
+     *
+     */
+    public static class Order implements ApiService.Entity {
+
+        @JsonAttribute(name = "id")
+        long id;
+
+        @JsonAttribute(name = "status")
+        String status;
+
+        @JsonAttribute(name = "quantity")
+        int quantity;
+
+        @JsonAttribute(name = "price")
+        float price;
+
+        @JsonAttribute(name = "items")
+        List<Item> items;
+
+        public Order() {
+        }
+    }
+
+    /**
+     *
+     */
+    public static class Item implements ApiService.Entity {
+
+        @JsonAttribute(name = "sku")
+        String sku;
+
+        @JsonAttribute(name = "amount")
+        int amount;
+
+        public Item() {
+        }
+    }
+}
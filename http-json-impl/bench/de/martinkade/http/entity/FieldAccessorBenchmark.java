@@ -0,0 +1,124 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Martin Kade.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.martinkade.http.entity;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the reflective {@link FieldAccessor} of bindings with the
+ * <code>static final</code> method handles generated codecs access fields
+ * through, writing the primitive fields of a single entity.
+ * <p/>
+ *
+ * @author Martin Kade
+ * @version Tue, 5 January 2016
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FieldAccessorBenchmark {
+
+    private static final MethodHandle SET_COUNT = CodecSupport.setter(Sample.class, Sample.class, "count");
+
+    private static final MethodHandle SET_TOTAL = CodecSupport.setter(Sample.class, Sample.class, "total");
+
+    private static final MethodHandle SET_RATIO = CodecSupport.setter(Sample.class, Sample.class, "ratio");
+
+    private static final MethodHandle GET_TOTAL = CodecSupport.getter(Sample.class, Sample.class, "total");
+
+    private FieldAccessor count, total, ratio;
+
+    private final Sample sample = new Sample();
+
+    private int i;
+
+    @Setup
+    public void setUp() throws Exception {
+        count = FieldAccessor.create(accessible("count"));
+        total = FieldAccessor.create(accessible("total"));
+        ratio = FieldAccessor.create(accessible("ratio"));
+    }
+
+    @Benchmark
+    public Sample setPrimitives() throws Exception {
+        i++;
+        count.setInt(sample, i);
+        total.setLong(sample, i * 31L);
+        ratio.setDouble(sample, i * 0.5d);
+        return sample;
+    }
+
+    @Benchmark
+    public Sample setPrimitivesConstant() throws Throwable {
+        i++;
+        SET_COUNT.invokeExact(sample, i);
+        SET_TOTAL.invokeExact(sample, i * 31L);
+        SET_RATIO.invokeExact(sample, i * 0.5d);
+        return sample;
+    }
+
+    @Benchmark
+    public Object getBoxed() throws Exception {
+        return total.get(sample);
+    }
+
+    @Benchmark
+    public long getConstant() throws Throwable {
+        return (long) GET_TOTAL.invokeExact(sample);
+    }
+
+    private static Field accessible(String name) throws Exception {
+        final Field f = Sample.class.getDeclaredField(name);
+        f.setAccessible(true);
+        return f;
+    }
+
+    /**
+     *
+     */
+    public static class Sample {
+
+        private int count;
+
+        private long total;
+
+        private double ratio;
+    }
+}
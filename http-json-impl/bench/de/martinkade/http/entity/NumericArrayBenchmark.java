@@ -0,0 +1,111 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Martin Kade.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.martinkade.http.entity;
+
+import de.martinkade.http.ApiService;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decodes a large array of numbers into a <code>double[]</code> field and
+ * into a <code>List&lt;Double&gt;</code> field, streaming and through the
+ * json tree. Run with <code>-prof gc</code> to compare allocation rates.
+ * <p/>
+ *
+ * @author Martin Kade
+ * @version Tue, 5 January 2016
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NumericArrayBenchmark {
+
+    private byte[] json;
+
+    @Setup
+    public void setUp() {
+        final StringBuilder s = new StringBuilder("{\"values\":[");
+        for (int i = 0; i < 10000; i++) {
+            s.append(i == 0 ? "" : ",").append(i * 0.25d);
+        }
+        json = s.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public Telemetry streamPrimitiveArray() throws Exception {
+        return EntityBuilder.<Telemetry>getInstance().decode(new ByteArrayInputStream(json), Telemetry.class);
+    }
+
+    @Benchmark
+    public BoxedTelemetry streamBoxedList() throws Exception {
+        return EntityBuilder.<BoxedTelemetry>getInstance().decode(new ByteArrayInputStream(json), BoxedTelemetry.class);
+    }
+
+    @Benchmark
+    public BoxedTelemetry treeBoxedList() throws Exception {
+        return EntityBuilder.<BoxedTelemetry>getInstance().decode(
+                new String(json, StandardCharsets.UTF_8), BoxedTelemetry.class);
+    }
+
+    /**
+     *
+     */
+    public static class Telemetry implements ApiService.Entity {
+
+        @JsonAttribute(name = "values")
+        double[] values;
+
+        public Telemetry() {
+        }
+    }
+
+    /**
+     *
+     */
+    public static class BoxedTelemetry implements ApiService.Entity {
+
+        @JsonAttribute(name = "values")
+        List<Double> values;
+
+        public BoxedTelemetry() {
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Martin Kade.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.martinkade.http.entity;
+
+import de.martinkade.http.ApiService;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decodes arrays of entities of growing size sequentially and across the
+ * common pool, streaming and through the json tree. The crossover of the
+ * two modes is the array size to pass as threshold to
+ * {@link EntityRegistry#setParallelDecoding}.
+ * <p/>
+ *
+ * @author Martin Kade
+ * @version Tue, 5 January 2016
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParallelDecodeBenchmark {
+
+    @Param({"256", "1024", "4096", "16384", "65536"})
+    int size;
+
+    @Param({"false", "true"})
+    boolean parallel;
+
+    private byte[] json;
+
+    private String text;
+
+    @Setup
+    public void setUp() {
+        final StringBuilder s = new StringBuilder("{\"records\":[");
+        for (int i = 0; i < size; i++) {
+            s.append(i == 0 ? "" : ",").append("{\"id\":").append(i)
+                    .append(",\"name\":\"record ").append(i)
+                    .append("\",\"amount\":").append(i * 0.01d)
+                    .append(",\"tags\":[\"a\",\"b\"]}");
+        }
+        text = s.append("]}").toString();
+        json = text.getBytes(StandardCharsets.UTF_8);
+        EntityRegistry.setParallelDecoding(parallel ? ForkJoinPool.commonPool() : null, 0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        EntityRegistry.setParallelDecoding(null, EntityRegistry.DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+    @Benchmark
+    public Export stream() throws Exception {
+        return EntityBuilder.<Export>getInstance().decode(new ByteArrayInputStream(json), Export.class);
+    }
+
+    @Benchmark
+    public Export tree() throws Exception {
+        return EntityBuilder.<Export>getInstance().decode(text, Export.class);
+    }
+
+    /**
+     *
+     */
+    public static class Export implements ApiService.Entity {
+
+        @JsonAttribute(name = "records")
+        List<Record> records;
+
+        public Export() {
+        }
+    }
+
+    /**
+     *
+     */
+    public static class Record implements ApiService.Entity {
+
+        @JsonAttribute(name = "id")
+        long id;
+
+        @JsonAttribute(name = "name")
+        String name;
+
+        @JsonAttribute(name = "amount")
+        double amount;
+
+        @JsonAttribute(name = "tags")
+        List<String> tags;
+
+        public Record() {
+        }
+    }
+}
@@ -23,6 +23,7 @@
  */
 package de.martinkade.http;
 
+import de.martinkade.http.entity.EntityBuilder;
 import de.martinkade.http.request.ApiRequest;
 
 import java.util.concurrent.ExecutionException;
@@ -66,7 +67,8 @@ public class ApiService<E extends ApiService.Entity, T extends ApiService.Entity
         /**
          *
          * @param obj
-         * @param jsonString
+         * @param jsonString The raw response, <code>null</code> unless
+         * retained via {@link ApiRequest#setRetainRawResponse(boolean)}
          * @param execTimeMillis
          * @param id
          * @param httpStatusCode
@@ -159,6 +161,18 @@ public class ApiService<E extends ApiService.Entity, T extends ApiService.Entity
         delegate.apiServiceWillSendResponse(notificationHandler);
     }
 
+    /**
+     * Hand a response entity back once it is consumed, e.g. at the end of
+     * {@link Delegate#apiServiceDidReceiveResponse}, to be reused by later
+     * responses. See {@link EntityBuilder#recycle(Entity)}.
+     *
+     * @param response The consumed response entity
+     * @throws ApiException
+     */
+    public void recycle(T response) throws ApiException {
+        EntityBuilder.<T>getInstance().recycle(response);
+    }
+
     @Override
     public void apiTaskIsDone() {
     }
@@ -168,7 +182,18 @@ public class ApiService<E extends ApiService.Entity, T extends ApiService.Entity
     }
 
     public void prepare() {
-        executor = Executors.newCachedThreadPool();
+        prepare(Executors.newCachedThreadPool());
+    }
+
+    /**
+     * Execute the requests by the given executor, e.g. a bounded one if the
+     * requests are sent by a {@link de.martinkade.http.request.NioTransport}
+     * and their threads only wait for the response.
+     *
+     * @param executor The executor, shut down on {@link #release()}
+     */
+    public void prepare(ExecutorService executor) {
+        this.executor = executor;
     }
 
     public void release() {
@@ -0,0 +1,631 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Martin Kade.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.martinkade.http.entity;
+
+import de.martinkade.http.ApiException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Pull parser reading CBOR (RFC 8949) data items from an
+ * {@link InputStream}, mapped onto the json token model: maps with string
+ * keys are objects, byte and text strings are strings, integers and floats
+ * are numbers and tags are ignored. Definite and indefinite lengths are
+ * both supported.
+ * <p/>
+ *
+ * @author Martin Kade
+ * @version Tue, 5 January 2016
+ */
+final class CborReader extends TokenReader {
+
+    /**
+     * Major types.
+     */
+    private static final int UNSIGNED = 0, NEGATIVE = 1, BYTES = 2, TEXT = 3, ARRAY = 4, MAP = 5, TAG = 6,
+            SIMPLE = 7;
+
+    /**
+     * The break stop code ending an indefinite length item.
+     */
+    private static final int BREAK = 0xff;
+
+    private final InputStream in;
+
+    private final byte[] buf;
+
+    /**
+     * Read position and end of valid data in {@link #buf}.
+     */
+    private int pos, limit;
+
+    /**
+     * Number of bytes read from the stream before the current buffer.
+     */
+    private long offset;
+
+    /**
+     * Per open container the number of items left, <code>-1</code> if its
+     * length is indefinite.
+     */
+    private long[] remaining = new long[32];
+
+    /**
+     * Per open container whether it is a map and whether a key is next.
+     */
+    private boolean[] map = new boolean[32], key = new boolean[32];
+
+    private int depth;
+
+    /**
+     * <code>true</code> once the top level item has been started.
+     */
+    private boolean started;
+
+    /**
+     * The current token, <code>null</code> if not yet peeked.
+     */
+    private Token peeked;
+
+    /**
+     * Position of the head of the current token.
+     */
+    private long tokenStart;
+
+    /**
+     * Initial byte of the current data item.
+     */
+    private int initial;
+
+    /**
+     * Bytes of a value read by {@link #nextRaw()} so far and the start of
+     * the rest of it in {@link #buf}, <code>null</code> if not capturing.
+     */
+    private ByteArrayOutputStream capture;
+
+    private int captureFrom;
+
+    /**
+     * Length argument of the current string or container,
+     * <code>-1</code> if indefinite.
+     */
+    private long length;
+
+    /**
+     * Value of the current number or boolean.
+     */
+    private long integer;
+
+    private double fraction;
+
+    private boolean integral;
+
+    /**
+     * Scratch buffer for strings and number texts.
+     */
+    private final StringBuilder chars;
+
+    /**
+     * Constructor.
+     *
+     * @param in The CBOR encoded input
+     * @param buf The read buffer
+     * @param chars The scratch buffer for strings and number texts
+     */
+    CborReader(InputStream in, byte[] buf, StringBuilder chars) {
+        this.in = in;
+        this.buf = buf;
+        this.chars = chars;
+    }
+
+    @Override
+    public Token peek() throws IOException, ApiException {
+        if (peeked != null) {
+            return peeked;
+        }
+        if (depth == 0) {
+            if (started) {
+                if (fill()) {
+                    throw syntaxError("expected end of document");
+                }
+                return peeked = Token.END_DOCUMENT;
+            }
+            started = true;
+            if (!fill()) {
+                return peeked = Token.END_DOCUMENT;
+            }
+            return peeked = item(false);
+        }
+
+        final int scope = depth - 1;
+        if (remaining[scope] == 0) {
+            return peeked = map[scope] ? Token.END_OBJECT : Token.END_ARRAY;
+        } else if (remaining[scope] < 0) {
+            if (!fill()) {
+                throw syntaxError("unexpected end of document");
+            }
+            if ((buf[pos] & 0xff) == BREAK) {
+                pos++;
+                return peeked = map[scope] ? Token.END_OBJECT : Token.END_ARRAY;
+            }
+        } else {
+            remaining[scope]--;
+        }
+        final boolean name = map[scope] && key[scope];
+        key[scope] = map[scope] && !key[scope];
+        return peeked = item(name);
+    }
+
+    @Override
+    public void beginObject() throws IOException, ApiException {
+        expect(Token.BEGIN_OBJECT);
+        push(true, length < 0 ? -1 : length * 2);
+    }
+
+    @Override
+    public void endObject() throws IOException, ApiException {
+        expect(Token.END_OBJECT);
+        depth--;
+    }
+
+    @Override
+    public void beginArray() throws IOException, ApiException {
+        expect(Token.BEGIN_ARRAY);
+        push(false, length);
+    }
+
+    @Override
+    public void endArray() throws IOException, ApiException {
+        expect(Token.END_ARRAY);
+        depth--;
+    }
+
+    @Override
+    public String nextName() throws IOException, ApiException {
+        expect(Token.NAME);
+        readText();
+        return StringCache.SHARED.intern(chars);
+    }
+
+    /**
+     * Read a name and look it up without creating a string, unless it has
+     * an indefinite length or spans the end of the read buffer.
+     *
+     * @param names The names to look up
+     * @return The index of the name or <code>-1</code> if it is not in the
+     * table
+     * @throws IOException
+     * @throws ApiException
+     */
+    @Override
+    public int nextName(NameTable names) throws IOException, ApiException {
+        expect(Token.NAME);
+        if (length >= 0 && length <= limit - pos) {
+            final int end = pos + (int) length;
+            final int index = names.get(buf, pos, end, NameTable.hash(buf, pos, end));
+            pos = end;
+            return index;
+        }
+        readText();
+        return names.get(chars);
+    }
+
+    @Override
+    public String nextString() throws IOException, ApiException {
+        expect(Token.STRING);
+        readText();
+        return chars.toString();
+    }
+
+    @Override
+    public CharSequence nextText() throws IOException, ApiException {
+        if (peek() == Token.NUMBER) {
+            peeked = null;
+            chars.setLength(0);
+            if (integral) {
+                chars.append(integer);
+            } else {
+                chars.append(fraction);
+            }
+            return chars;
+        }
+        expect(Token.STRING);
+        readText();
+        return chars;
+    }
+
+    @Override
+    public boolean nextBoolean() throws IOException, ApiException {
+        expect(Token.BOOLEAN);
+        return integer != 0;
+    }
+
+    @Override
+    public void nextNull() throws IOException, ApiException {
+        expect(Token.NULL);
+    }
+
+    @Override
+    public long nextLong() throws IOException, ApiException {
+        expect(Token.NUMBER);
+        return integral ? integer : (long) fraction;
+    }
+
+    @Override
+    public double nextDouble() throws IOException, ApiException {
+        expect(Token.NUMBER);
+        return integral ? integer : fraction;
+    }
+
+    @Override
+    Number nextNumber() throws IOException, ApiException {
+        expect(Token.NUMBER);
+        return integral ? (Number) integer : (Number) fraction;
+    }
+
+    @Override
+    public void skipValue() throws IOException, ApiException {
+        peek();
+        final long start = tokenStart;
+        skip();
+        skippedBytes += position() - start;
+        skippedValues++;
+    }
+
+    /**
+     * Read the next value as its encoded bytes. Tags of the value are
+     * dropped.
+     *
+     * @param out
+     * @throws IOException
+     * @throws ApiException
+     */
+    @Override
+    void nextRaw(ByteArrayOutputStream out) throws IOException, ApiException {
+        peek();
+        capture = out;
+        capture.write(initial);
+        final int n = (initial & 0x1f) < 24 || (initial & 0x1f) == 31 ? 0 : 1 << ((initial & 0x1f) - 24);
+        for (int shift = (n - 1) * 8; shift >= 0; shift -= 8) {
+            capture.write((int) (length >>> shift));
+        }
+        captureFrom = pos;
+        try {
+            skip();
+            capture.write(buf, captureFrom, pos - captureFrom);
+        } finally {
+            capture = null;
+        }
+    }
+
+    @Override
+    WireFormat format() {
+        return WireFormat.CBOR;
+    }
+
+    /**
+     * Read over the next value including all nested values.
+     */
+    private void skip() throws IOException, ApiException {
+        int count = 0;
+        do {
+            switch (peek()) {
+                case BEGIN_OBJECT:
+                    beginObject();
+                    count++;
+                    break;
+                case BEGIN_ARRAY:
+                    beginArray();
+                    count++;
+                    break;
+                case END_OBJECT:
+                    endObject();
+                    count--;
+                    break;
+                case END_ARRAY:
+                    endArray();
+                    count--;
+                    break;
+                case NAME:
+                case STRING:
+                    peeked = null;
+                    skipText();
+                    break;
+                case NUMBER:
+                case BOOLEAN:
+                case NULL:
+                    peeked = null;
+                    break;
+                default:
+                    throw syntaxError("expected value");
+            }
+        } while (count > 0);
+    }
+
+    @Override
+    long position() {
+        return offset + pos;
+    }
+
+    /**
+     * Read the next data item head, skipping tags.
+     *
+     * @param name <code>true</code> if the item is a map key
+     * @return The token of the item
+     */
+    private Token item(boolean name) throws IOException, ApiException {
+        int major;
+        int info;
+        do {
+            tokenStart = position();
+            initial = read();
+            major = initial >>> 5;
+            info = initial & 0x1f;
+            length = argument(info);
+        } while (major == TAG);
+
+        if (name && major != TEXT && major != BYTES) {
+            throw syntaxError("expected string key");
+        }
+        switch (major) {
+            case UNSIGNED:
+            case NEGATIVE:
+                integral = length >= 0;
+                if (integral) {
+                    integer = major == UNSIGNED ? length : -1 - length;
+                } else {
+                    final double unsigned = (length >>> 1) * 2.0d + (length & 1);
+                    fraction = major == UNSIGNED ? unsigned : -1.0d - unsigned;
+                }
+                return Token.NUMBER;
+            case BYTES:
+            case TEXT:
+                return name ? Token.NAME : Token.STRING;
+            case ARRAY:
+                return Token.BEGIN_ARRAY;
+            case MAP:
+                return Token.BEGIN_OBJECT;
+            default:
+                switch (info) {
+                    case 20:
+                    case 21:
+                        integer = info - 20;
+                        return Token.BOOLEAN;
+                    case 22:
+                    case 23:
+                        return Token.NULL;
+                    case 25:
+                        integral = false;
+                        fraction = halfToDouble((int) length);
+                        return Token.NUMBER;
+                    case 26:
+                        integral = false;
+                        fraction = Float.intBitsToFloat((int) length);
+                        return Token.NUMBER;
+                    case 27:
+                        integral = false;
+                        fraction = Double.longBitsToDouble(length);
+                        return Token.NUMBER;
+                    default:
+                        throw syntaxError(info == 31 ? "unexpected break" : "unsupported simple value");
+                }
+        }
+    }
+
+    /**
+     * Read the argument following the initial byte.
+     *
+     * @param info The additional information of the initial byte
+     * @return The argument, <code>-1</code> for indefinite lengths
+     */
+    private long argument(int info) throws IOException, ApiException {
+        if (info < 24) {
+            return info;
+        }
+        final int n;
+        switch (info) {
+            case 24:
+                n = 1;
+                break;
+            case 25:
+                n = 2;
+                break;
+            case 26:
+                n = 4;
+                break;
+            case 27:
+                n = 8;
+                break;
+            case 31:
+                return -1;
+            default:
+                throw syntaxError("malformed head");
+        }
+        long v = 0;
+        for (int i = 0; i < n; i++) {
+            v = (v << 8) | read();
+        }
+        return v;
+    }
+
+    /**
+     * Decode the current string into {@link #chars}, chunk by chunk if its
+     * length is indefinite.
+     */
+    private void readText() throws IOException, ApiException {
+        chars.setLength(0);
+        if (length >= 0) {
+            decode(length);
+            return;
+        }
+        int c;
+        while ((c = read()) != BREAK) {
+            final long n = argument(c & 0x1f);
+            if (n < 0) {
+                throw syntaxError("nested indefinite string");
+            }
+            decode(n);
+        }
+    }
+
+    private void skipText() throws IOException, ApiException {
+        if (length >= 0) {
+            skip(length);
+            return;
+        }
+        int c;
+        while ((c = read()) != BREAK) {
+            skip(argument(c & 0x1f));
+        }
+    }
+
+    /**
+     * Decode the given number of UTF-8 bytes into {@link #chars}.
+     */
+    private void decode(long n) throws IOException, ApiException {
+        final long end = position() + n;
+        while (position() < end) {
+            if (!fill()) {
+                throw syntaxError("unexpected end of document");
+            }
+            // ascii fast path
+            int p = pos;
+            final int l = (int) Math.min(limit, pos + (end - position()));
+            while (p < l && buf[p] >= 0) {
+                chars.append((char) buf[p++]);
+            }
+            pos = p;
+            if (p == l) {
+                continue;
+            }
+            final int c = read();
+            if ((c & 0xe0) == 0xc0) {
+                chars.append((char) (((c & 0x1f) << 6) | continuation()));
+            } else if ((c & 0xf0) == 0xe0) {
+                chars.append((char) (((c & 0x0f) << 12) | (continuation() << 6) | continuation()));
+            } else if ((c & 0xf8) == 0xf0) {
+                chars.appendCodePoint(((c & 0x07) << 18) | (continuation() << 12)
+                        | (continuation() << 6) | continuation());
+            } else {
+                throw syntaxError("malformed UTF-8");
+            }
+        }
+    }
+
+    private int continuation() throws IOException, ApiException {
+        final int c = read();
+        if ((c & 0xc0) != 0x80) {
+            throw syntaxError("malformed UTF-8");
+        }
+        return c & 0x3f;
+    }
+
+    private void skip(long n) throws IOException, ApiException {
+        while (n > 0) {
+            if (!fill()) {
+                throw syntaxError("unexpected end of document");
+            }
+            final int step = (int) Math.min(n, limit - pos);
+            pos += step;
+            n -= step;
+        }
+    }
+
+    private void expect(Token token) throws IOException, ApiException {
+        if (peek() != token) {
+            throw syntaxError(String.format("expected %s but was %s", token, peeked));
+        }
+        peeked = null;
+    }
+
+    private void push(boolean isMap, long count) {
+        if (depth == remaining.length) {
+            final int n = depth * 2;
+            final long[] r = new long[n];
+            final boolean[] m = new boolean[n];
+            final boolean[] k = new boolean[n];
+            System.arraycopy(remaining, 0, r, 0, depth);
+            System.arraycopy(map, 0, m, 0, depth);
+            System.arraycopy(key, 0, k, 0, depth);
+            remaining = r;
+            map = m;
+            key = k;
+        }
+        remaining[depth] = count;
+        map[depth] = isMap;
+        key[depth] = isMap;
+        depth++;
+    }
+
+    /**
+     * Make sure there is at least one byte to read.
+     *
+     * @return <code>false</code> at the end of the input
+     * @throws IOException
+     */
+    private boolean fill() throws IOException {
+        if (pos < limit) {
+            return true;
+        }
+        if (capture != null) {
+            capture.write(buf, captureFrom, limit - captureFrom);
+            captureFrom = 0;
+        }
+        offset += limit;
+        pos = 0;
+        limit = 0;
+        final int n = in.read(buf, 0, buf.length);
+        if (n > 0) {
+            limit = n;
+            return true;
+        }
+        return false;
+    }
+
+    private int read() throws IOException, ApiException {
+        if (!fill()) {
+            throw syntaxError("unexpected end of document");
+        }
+        return buf[pos++] & 0xff;
+    }
+
+    /**
+     * Widen an IEEE 754 half precision value.
+     */
+    private static double halfToDouble(int bits) {
+        final int exponent = (bits >>> 10) & 0x1f;
+        final int mantissa = bits & 0x3ff;
+        final double v;
+        if (exponent == 0) {
+            v = Math.scalb((double) mantissa, -24);
+        } else if (exponent != 31) {
+            v = Math.scalb((double) (mantissa | 0x400), exponent - 25);
+        } else {
+            v = mantissa == 0 ? Double.POSITIVE_INFINITY : Double.NaN;
+        }
+        return (bits & 0x8000) != 0 ? -v : v;
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Martin Kade.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.martinkade.http.entity;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writer emitting CBOR (RFC 8949) straight into an {@link OutputStream}.
+ * Objects and arrays are written with indefinite length so that nothing
+ * has to be counted up front. Numbers given by their decimal text are
+ * written as integers if they fit a long and as text strings otherwise,
+ * keeping their precision.
+ * <p/>
+ *
+ * @author Martin Kade
+ * @version Tue, 5 January 2016
+ */
+final class CborWriter extends TokenWriter {
+
+    /**
+     * Initial bytes.
+     */
+    private static final int TEXT = 3 << 5, INDEFINITE_ARRAY = 0x9f, INDEFINITE_MAP = 0xbf, FALSE = 0xf4,
+            TRUE = 0xf5, NULL = 0xf6, FLOAT = 0xfa, DOUBLE = 0xfb, BREAK = 0xff;
+
+    private final OutputStream out;
+
+    private final byte[] buf;
+
+    /**
+     * Write position in {@link #buf}.
+     */
+    private int pos;
+
+    /**
+     * Constructor.
+     *
+     * @param out The target stream
+     * @param buf The write buffer, at least 9 bytes
+     * @param chars The scratch buffer for converted values
+     */
+    CborWriter(OutputStream out, byte[] buf, StringBuilder chars) {
+        super(chars);
+        this.out = out;
+        this.buf = buf;
+    }
+
+    @Override
+    public CborWriter beginObject() throws IOException {
+        return put(INDEFINITE_MAP);
+    }
+
+    @Override
+    public CborWriter endObject() throws IOException {
+        return put(BREAK);
+    }
+
+    @Override
+    public CborWriter beginArray() throws IOException {
+        return put(INDEFINITE_ARRAY);
+    }
+
+    @Override
+    public CborWriter endArray() throws IOException {
+        return put(BREAK);
+    }
+
+    @Override
+    public CborWriter name(String name) throws IOException {
+        return text(name);
+    }
+
+    @Override
+    public CborWriter nullValue() throws IOException {
+        return put(NULL);
+    }
+
+    @Override
+    public CborWriter value(String value) throws IOException {
+        return value == null ? nullValue() : text(value);
+    }
+
+    @Override
+    public CborWriter value(boolean value) throws IOException {
+        return put(value ? TRUE : FALSE);
+    }
+
+    @Override
+    public CborWriter value(long value) throws IOException {
+        return value < 0 ? head(1 << 5, -1 - value) : head(0, value);
+    }
+
+    /**
+     * Write a floating point number in single precision if that is exact,
+     * <code>null</code> if it is not finite.
+     *
+     * @param value
+     * @return This writer
+     * @throws IOException
+     */
+    @Override
+    public CborWriter value(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return nullValue();
+        } else if ((float) value == value) {
+            return value((float) value);
+        }
+        ensure(9);
+        buf[pos++] = (byte) DOUBLE;
+        bigEndian(Double.doubleToLongBits(value), 8);
+        return this;
+    }
+
+    @Override
+    public CborWriter value(float value) throws IOException {
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+            return nullValue();
+        }
+        ensure(5);
+        buf[pos++] = (byte) FLOAT;
+        bigEndian(Float.floatToIntBits(value), 4);
+        return this;
+    }
+
+    /**
+     * Write a text string. Unpaired surrogates are replaced by U+FFFD.
+     *
+     * @param text
+     * @return This writer
+     * @throws IOException
+     */
+    @Override
+    CborWriter text(CharSequence text) throws IOException {
+        final int n = text.length();
+        long length = 0;
+        for (int i = 0; i < n; i++) {
+            final char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        head(TEXT, length);
+        for (int i = 0; i < n; i++) {
+            ensure(4);
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                buf[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                buf[pos++] = (byte) (0xc0 | c >> 6);
+                buf[pos++] = (byte) (0x80 | c & 0x3f);
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(text.charAt(i + 1))) {
+                final int cp = Character.toCodePoint(c, text.charAt(++i));
+                buf[pos++] = (byte) (0xf0 | cp >> 18);
+                buf[pos++] = (byte) (0x80 | cp >> 12 & 0x3f);
+                buf[pos++] = (byte) (0x80 | cp >> 6 & 0x3f);
+                buf[pos++] = (byte) (0x80 | cp & 0x3f);
+            } else {
+                if (Character.isSurrogate(c)) {
+                    c = '\ufffd';
+                }
+                buf[pos++] = (byte) (0xe0 | c >> 12);
+                buf[pos++] = (byte) (0x80 | c >> 6 & 0x3f);
+                buf[pos++] = (byte) (0x80 | c & 0x3f);
+            }
+        }
+        return this;
+    }
+
+    @Override
+    CborWriter number(CharSequence literal) throws IOException {
+        final int n = literal.length();
+        final int start = n > 0 && literal.charAt(0) == '-' ? 1 : 0;
+        if (n > start && n - start <= 18) {
+            long v = 0;
+            int i = start;
+            for (; i < n; i++) {
+                final char c = literal.charAt(i);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                v = v * 10 + (c - '0');
+            }
+            if (i == n) {
+                return value(start == 0 ? v : -v);
+            }
+        }
+        return text(literal);
+    }
+
+    @Override
+    CborWriter raw(byte[] bytes, int off, int len) throws IOException {
+        flushBuffer();
+        out.write(bytes, off, len);
+        return this;
+    }
+
+    @Override
+    WireFormat format() {
+        return WireFormat.CBOR;
+    }
+
+    @Override
+    void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    /**
+     * Write the head of a data item with the shortest argument encoding.
+     *
+     * @param major The major type, shifted
+     * @param argument The unsigned argument
+     * @return This writer
+     * @throws IOException
+     */
+    private CborWriter head(int major, long argument) throws IOException {
+        ensure(9);
+        if (argument >= 0 && argument < 24) {
+            buf[pos++] = (byte) (major | (int) argument);
+        } else if (argument >= 0 && argument < 0x100) {
+            buf[pos++] = (byte) (major | 24);
+            buf[pos++] = (byte) argument;
+        } else if (argument >= 0 && argument < 0x10000) {
+            buf[pos++] = (byte) (major | 25);
+            bigEndian(argument, 2);
+        } else if (argument >= 0 && argument < 0x100000000L) {
+            buf[pos++] = (byte) (major | 26);
+            bigEndian(argument, 4);
+        } else {
+            buf[pos++] = (byte) (major | 27);
+            bigEndian(argument, 8);
+        }
+        return this;
+    }
+
+    private void bigEndian(long value, int bytes) {
+        for (int shift = (bytes - 1) * 8; shift >= 0; shift -= 8) {
+            buf[pos++] = (byte) (value >>> shift);
+        }
+    }
+
+    private CborWriter put(int b) throws IOException {
+        ensure(1);
+        buf[pos++] = (byte) b;
+        return this;
+    }
+
+    private void ensure(int n) throws IOException {
+        if (pos + n > buf.length) {
+            flushBuffer();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (pos > 0) {
+            out.write(buf, 0, pos);
+            pos = 0;
+        }
+    }
+}
@@ -0,0 +1,552 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Martin Kade.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.martinkade.http.entity;
+
+import de.martinkade.http.ApiException;
+import de.martinkade.http.ApiService;
+
+import java.io.IOException;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+
+import java.math.BigDecimal;
+
+import java.util.Collection;
+import java.util.function.Supplier;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * Runtime helpers called by generated {@link EntityCodec} implementations.
+ * Not meant to be used by application code.
+ * <p/>
+ *
+ * @author Martin Kade
+ * @version Tue, 5 January 2016
+ */
+public final class CodecSupport {
+
+    private CodecSupport() {
+    }
+
+    /**
+     * Getter handle of a field not accessible from the codec, typed
+     * <code>(owner)fieldType</code>.
+     *
+     * @param owner The entity class the codec is generated for
+     * @param declaringClass The class declaring the field
+     * @param name The field name
+     * @return The getter
+     */
+    public static MethodHandle getter(Class<?> owner, Class<?> declaringClass, String name) {
+        final Field field = accessibleField(declaringClass, name);
+        try {
+            return MethodHandles.lookup().unreflectGetter(field)
+                    .asType(MethodType.methodType(field.getType(), owner));
+        } catch (IllegalAccessException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Setter handle of a field not accessible from the codec, typed
+     * <code>(owner,fieldType)void</code>.
+     *
+     * @param owner The entity class the codec is generated for
+     * @param declaringClass The class declaring the field
+     * @param name The field name
+     * @return The setter
+     */
+    public static MethodHandle setter(Class<?> owner, Class<?> declaringClass, String name) {
+        final Field field = accessibleField(declaringClass, name);
+        try {
+            return MethodHandles.lookup().unreflectSetter(field)
+                    .asType(MethodType.methodType(void.class, owner, field.getType()));
+        } catch (IllegalAccessException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * @param names The attribute names in the order of their indexes
+     * @return The table resolving names read by
+     * {@link TokenReader#nextName(NameTable)}
+     */
+    public static NameTable names(String... names) {
+        return new NameTable(names);
+    }
+
+    /**
+     * @param <E>
+     * @param entityClass
+     * @return An entity from the pool of the class or <code>null</code> if
+     * there is none
+     */
+    public static <E extends ApiService.Entity> E recycled(Class<E> entityClass) {
+        final EntityPool<E> pool = EntityRegistry.pool(entityClass);
+        return pool == null ? null : pool.poll();
+    }
+
+    /**
+     * Write a nested entity, <code>null</code> included.
+     *
+     * @param writer
+     * @param entity
+     * @throws ApiException
+     * @throws IOException
+     */
+    public static void write(TokenWriter writer, ApiService.Entity entity) throws ApiException, IOException {
+        EntityBuilder.writeObject(writer, entity);
+    }
+
+    /**
+     * Write a collection of entities.
+     *
+     * @param writer
+     * @param entities
+     * @throws ApiException
+     * @throws IOException
+     */
+    public static void writeAll(TokenWriter writer, Collection<? extends ApiService.Entity> entities)
+            throws ApiException, IOException {
+
+        if (entities == null || entities.isEmpty()) {
+            writer.nullValue();
+            return;
+        }
+        writer.beginArray();
+        for (ApiService.Entity e : entities) {
+            EntityBuilder.writeObject(writer, e);
+        }
+        writer.endArray();
+    }
+
+    /**
+     * Write a collection of primitive wrappers.
+     *
+     * @param writer
+     * @param values
+     * @throws IOException
+     */
+    public static void writeValues(TokenWriter writer, Collection<?> values) throws IOException {
+        if (values == null || values.isEmpty()) {
+            writer.nullValue();
+            return;
+        }
+        writer.beginArray();
+        for (Object v : values) {
+            writer.value(v);
+        }
+        writer.endArray();
+    }
+
+    /**
+     * Write any of the supported primitive arrays.
+     *
+     * @param writer
+     * @param values
+     * @throws IOException
+     */
+    public static void writeArray(TokenWriter writer, Object values) throws IOException {
+        if (values == null) {
+            writer.nullValue();
+        } else {
+            EntityBuilder.writeArray(writer, values);
+        }
+    }
+
+    /**
+     * Write a field value through its converter.
+     *
+     * @param writer
+     * @param converter The converter or <code>null</code> to write the value
+     * as is
+     * @param value
+     * @throws IOException
+     */
+    public static void writeConverted(TokenWriter writer, ValueConverter<?> converter, Object value)
+            throws IOException {
+
+        if (converter == null) {
+            writer.value(value);
+        } else {
+            writer.value(converter, value);
+        }
+    }
+
+    /**
+     * Read a nested entity.
+     *
+     * @param <E>
+     * @param reader
+     * @param entityClass
+     * @return The entity or <code>null</code>
+     * @throws ApiException
+     * @throws IOException
+     */
+    public static <E extends ApiService.Entity> E read(TokenReader reader, Class<E> entityClass)
+            throws ApiException, IOException {
+
+        return EntityBuilder.readObject(reader, EntityRegistry.binding(entityClass));
+    }
+
+    /**
+     * Read an array of entities into the given collection.
+     *
+     * @param <E>
+     * @param <C>
+     * @param reader
+     * @param entityClass
+     * @param target
+     * @return The target collection
+     * @throws ApiException
+     * @throws IOException
+     */
+    public static <E extends ApiService.Entity, C extends Collection<? super E>> C readAll(TokenReader reader,
+            Class<E> entityClass, C target) throws ApiException, IOException {
+
+        reader.beginArray();
+        ParallelDecoder.readAll(reader, EntityRegistry.binding(entityClass), target);
+        reader.endArray();
+        return target;
+    }
+
+    /**
+     * Read an array of primitive values into the given collection.
+     *
+     * @param <C>
+     * @param reader
+     * @param target
+     * @return The target collection
+     * @throws ApiException
+     * @throws IOException
+     */
+    public static <C extends Collection<Object>> C readValues(TokenReader reader, C target)
+            throws ApiException, IOException {
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            target.add(reader.nextValue());
+        }
+        reader.endArray();
+        return target;
+    }
+
+    /**
+     * Collection to read array elements into, keeping the empty collection
+     * of a recycled entity.
+     *
+     * @param <C>
+     * @param previous The current field value
+     * @param type The collection class created by the codec
+     * @param factory
+     * @return The previous value if it is an empty collection of the given
+     * class, a new collection otherwise
+     */
+    public static <C extends Collection<?>> C reuse(Object previous, Class<C> type, Supplier<C> factory) {
+        if (previous != null && previous.getClass() == type && ((Collection<?>) previous).isEmpty()) {
+            return type.cast(previous);
+        }
+        return factory.get();
+    }
+
+    /**
+     * Skip an array of elements that are not supported.
+     *
+     * @param <C>
+     * @param reader
+     * @param target
+     * @return The target collection, left empty
+     * @throws ApiException
+     * @throws IOException
+     */
+    public static <C extends Collection<?>> C skipValues(TokenReader reader, C target)
+            throws ApiException, IOException {
+
+        reader.skipValue();
+        return target;
+    }
+
+    /**
+     * Read a field value through its converter.
+     *
+     * @param reader
+     * @param converter The converter or <code>null</code> to read the value
+     * as is
+     * @param intern Flag if a string value is deduplicated, see
+     * {@link JsonAttribute#intern()}
+     * @param name The attribute name
+     * @return The field value
+     * @throws ApiException
+     * @throws IOException
+     */
+    public static Object readConverted(TokenReader reader, ValueConverter<?> converter, boolean intern,
+            String name) throws ApiException, IOException {
+
+        if (converter != null) {
+            try {
+                return converter.parse(reader.nextText());
+            } catch (ApiException ex) {
+                throw ex;
+            } catch (RuntimeException ex) {
+                throw new ApiException(String.format("%s: %s", name, ex.getMessage()),
+                        ApiException.APIError.JSON_DECODE_ERROR);
+            }
+        } else if (intern && reader.peek() == TokenReader.Token.STRING) {
+            return StringCache.SHARED.intern(reader.nextText());
+        }
+        final Object value = reader.nextValue();
+        return (value instanceof JSONObject) ? null : value;
+    }
+
+    /**
+     * Copy a primitive array.
+     *
+     * @param values
+     * @return The array or <code>null</code> if there are no elements
+     */
+    @SuppressWarnings("unchecked")
+    private static JSONArray copyAll(int[] values) {
+        if (values == null || values.length == 0) {
+            return null;
+        }
+        final JSONArray json = new JSONArray();
+        for (int v : values) {
+            json.add((long) v);
+        }
+        return json;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static JSONArray copyAll(long[] values) {
+        if (values == null || values.length == 0) {
+            return null;
+        }
+        final JSONArray json = new JSONArray();
+        for (long v : values) {
+            json.add(v);
+        }
+        return json;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static JSONArray copyAll(float[] values) {
+        if (values == null || values.length == 0) {
+            return null;
+        }
+        final JSONArray json = new JSONArray();
+        for (float v : values) {
+            json.add(v);
+        }
+        return json;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static JSONArray copyAll(double[] values) {
+        if (values == null || values.length == 0) {
+            return null;
+        }
+        final JSONArray json = new JSONArray();
+        for (double v : values) {
+            json.add(v);
+        }
+        return json;
+    }
+
+    /**
+     * Copy any of the supported primitive arrays.
+     *
+     * @param values
+     * @return The array or <code>null</code> if there are no elements
+     */
+    static JSONArray copyArray(Object values) {
+        if (values instanceof int[]) {
+            return copyAll((int[]) values);
+        } else if (values instanceof long[]) {
+            return copyAll((long[]) values);
+        } else if (values instanceof float[]) {
+            return copyAll((float[]) values);
+        }
+        return copyAll((double[]) values);
+    }
+
+    /**
+     * Convert a json array of numbers to a primitive array.
+     *
+     * @param value
+     * @return The array or <code>null</code> if the value is no array
+     */
+    private static int[] toIntArray(Object value) {
+        if (!(value instanceof JSONArray)) {
+            return null;
+        }
+        final JSONArray json = (JSONArray) value;
+        final int[] values = new int[json.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = ((Number) json.get(i)).intValue();
+        }
+        return values;
+    }
+
+    private static long[] toLongArray(Object value) {
+        if (!(value instanceof JSONArray)) {
+            return null;
+        }
+        final JSONArray json = (JSONArray) value;
+        final long[] values = new long[json.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = ((Number) json.get(i)).longValue();
+        }
+        return values;
+    }
+
+    private static float[] toFloatArray(Object value) {
+        if (!(value instanceof JSONArray)) {
+            return null;
+        }
+        final JSONArray json = (JSONArray) value;
+        final float[] values = new float[json.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = ((Number) json.get(i)).floatValue();
+        }
+        return values;
+    }
+
+    private static double[] toDoubleArray(Object value) {
+        if (!(value instanceof JSONArray)) {
+            return null;
+        }
+        final JSONArray json = (JSONArray) value;
+        final double[] values = new double[json.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = ((Number) json.get(i)).doubleValue();
+        }
+        return values;
+    }
+
+    /**
+     * Convert a json array of numbers to a primitive array of the given
+     * component type.
+     *
+     * @param value
+     * @param componentType
+     * @return The array or <code>null</code> if the value is no array
+     */
+    static Object toArray(Object value, Class<?> componentType) {
+        if (componentType == int.class) {
+            return toIntArray(value);
+        } else if (componentType == long.class) {
+            return toLongArray(value);
+        } else if (componentType == float.class) {
+            return toFloatArray(value);
+        }
+        return toDoubleArray(value);
+    }
+
+    /**
+     * Converter of a field, resolved like the reflective binding does.
+     *
+     * @param declaringClass The class declaring the field
+     * @param name The field name
+     * @return The converter or <code>null</code> if the value is passed
+     * through as is
+     */
+    public static ValueConverter<?> converter(Class<?> declaringClass, String name) {
+        final Field field = accessibleField(declaringClass, name);
+        return EntityRegistry.converter(field, field.getAnnotation(JsonAttribute.class));
+    }
+
+    /**
+     * Convert a field value to its json value.
+     *
+     * @param converter The converter or <code>null</code>
+     * @param value
+     * @return A string, a number for numeric converters or the value itself
+     * if there is no converter
+     */
+    @SuppressWarnings("unchecked")
+    static Object format(ValueConverter<?> converter, Object value) {
+        if (value == null || converter == null) {
+            return value;
+        }
+        final StringBuilder text = new StringBuilder();
+        ((ValueConverter<Object>) converter).format(value, text);
+        return converter.isNumeric() ? new BigDecimal(text.toString()) : text.toString();
+    }
+
+    /**
+     * Add an attribute to the names of missing required attributes.
+     *
+     * @param missing The names so far or <code>null</code>
+     * @param name
+     * @return The names
+     */
+    public static String missing(String missing, String name) {
+        return missing == null ? name : missing + ", " + name;
+    }
+
+    /**
+     * @param entityClass
+     * @param missing The names of the missing required attributes
+     * @return The decode error
+     */
+    public static ApiException missingError(Class<?> entityClass, String missing) {
+        return new ApiException(String.format("%s: missing required attributes %s",
+                entityClass.getSimpleName(), missing), ApiException.APIError.JSON_DECODE_ERROR);
+    }
+
+    /**
+     * Wrap a failure of generated code.
+     *
+     * @param ex
+     * @param error
+     * @return
+     */
+    public static ApiException error(Throwable ex, ApiException.APIError error) {
+        if (ex instanceof Error) {
+            throw (Error) ex;
+        }
+        return ex instanceof ApiException ? (ApiException) ex : new ApiException(ex.getMessage(), error);
+    }
+
+    /**
+     *
+     * @param declaringClass
+     * @param name
+     * @return
+     */
+    private static Field accessibleField(Class<?> declaringClass, String name) {
+        try {
+            final Field field = declaringClass.getDeclaredField(name);
+            field.setAccessible(true);
+            return field;
+        } catch (NoSuchFieldException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Martin Kade.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.martinkade.http.entity;
+
+import java.math.BigDecimal;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAccessor;
+import java.time.temporal.TemporalQuery;
+
+import java.util.Locale;
+
+/**
+ * Built-in {@link ValueConverter} implementations. Formatters are compiled
+ * once per converter and enum constants are looked up in a table built once
+ * per enum class.
+ * <p/>
+ *
+ * @author Martin Kade
+ * @version Tue, 5 January 2016
+ */
+public final class Converters {
+
+    /**
+     * Default patterns of the date and time converters.
+     */
+    public static final String DATE_PATTERN = "yyyy-MM-dd", TIME_PATTERN = "HH:mm:ss",
+            DATE_TIME_PATTERN = "yyyy-MM-dd HH:mm:ss";
+
+    /**
+     * {@link LocalDate} formatted as <code>yyyy-MM-dd</code>.
+     */
+    public static final ValueConverter<LocalDate> LOCAL_DATE = localDate(DATE_PATTERN);
+
+    /**
+     * {@link LocalTime} formatted as <code>HH:mm:ss</code>.
+     */
+    public static final ValueConverter<LocalTime> LOCAL_TIME = localTime(TIME_PATTERN);
+
+    /**
+     * {@link LocalDateTime} formatted as <code>yyyy-MM-dd HH:mm:ss</code>.
+     */
+    public static final ValueConverter<LocalDateTime> LOCAL_DATE_TIME = localDateTime(DATE_TIME_PATTERN);
+
+    /**
+     * {@link Instant} in ISO-8601 format, e.g.
+     * <code>2016-01-05T10:15:30Z</code>.
+     */
+    public static final ValueConverter<Instant> INSTANT
+            = new TemporalConverter<>(DateTimeFormatter.ISO_INSTANT, Instant::from);
+
+    /**
+     * {@link java.util.UUID} in its canonical string form.
+     */
+    public static final ValueConverter<java.util.UUID> UUID = new ValueConverter<java.util.UUID>() {
+
+        @Override
+        public void format(java.util.UUID value, StringBuilder out) {
+            out.append(value.toString());
+        }
+
+        @Override
+        public java.util.UUID parse(CharSequence text) {
+            return java.util.UUID.fromString(text.toString());
+        }
+    };
+
+    /**
+     * {@link BigDecimal} written as json number without loss of precision.
+     */
+    public static final ValueConverter<BigDecimal> BIG_DECIMAL = new ValueConverter<BigDecimal>() {
+
+        @Override
+        public void format(BigDecimal value, StringBuilder out) {
+            out.append(value.toString());
+        }
+
+        @Override
+        public BigDecimal parse(CharSequence text) {
+            return new BigDecimal(text.toString());
+        }
+
+        @Override
+        public boolean isNumeric() {
+            return true;
+        }
+    };
+
+    private Converters() {
+    }
+
+    public static ValueConverter<LocalDate> localDate(String pattern) {
+        return new TemporalConverter<>(DateTimeFormatter.ofPattern(pattern), LocalDate::from);
+    }
+
+    public static ValueConverter<LocalTime> localTime(String pattern) {
+        return new TemporalConverter<>(DateTimeFormatter.ofPattern(pattern), LocalTime::from);
+    }
+
+    public static ValueConverter<LocalDateTime> localDateTime(String pattern) {
+        return new TemporalConverter<>(DateTimeFormatter.ofPattern(pattern), LocalDateTime::from);
+    }
+
+    /**
+     * Converter of the given type using a custom pattern.
+     *
+     * @param type The field type
+     * @param pattern The {@link DateTimeFormatter} pattern
+     * @return The converter or <code>null</code> if the type has no pattern
+     */
+    static ValueConverter<?> forPattern(Class<?> type, String pattern) {
+        if (type == LocalDate.class) {
+            return localDate(pattern);
+        } else if (type == LocalTime.class) {
+            return localTime(pattern);
+        } else if (type == LocalDateTime.class) {
+            return localDateTime(pattern);
+        }
+        return null;
+    }
+
+    /**
+     * Date and time values formatted by a precompiled formatter.
+     *
+     * @param <V>
+     */
+    private static final class TemporalConverter<V extends TemporalAccessor> implements ValueConverter<V> {
+
+        private final DateTimeFormatter formatter;
+
+        private final TemporalQuery<V> query;
+
+        TemporalConverter(DateTimeFormatter formatter, TemporalQuery<V> query) {
+            this.formatter = formatter;
+            this.query = query;
+        }
+
+        @Override
+        public void format(V value, StringBuilder out) {
+            formatter.formatTo(value, out);
+        }
+
+        @Override
+        public V parse(CharSequence text) {
+            return formatter.parse(text, query);
+        }
+    }
+
+    /**
+     * Enum constants encoded by their lower case name. Names are matched
+     * ignoring case through an open addressing table over the lower case
+     * names, so parsing neither allocates nor calls
+     * {@link Enum#valueOf(Class, String)}.
+     *
+     * @param <E>
+     */
+    public static final class EnumConverter<E extends Enum<E>> implements ValueConverter<E> {
+
+        private final Class<E> enumClass;
+
+        private final E[] constants;
+
+        /**
+         * Lower case names by ordinal.
+         */
+        private final String[] names;
+
+        /**
+         * Hash table of ordinals plus one, 0 marks an empty slot.
+         */
+        private final int[] table;
+
+        public EnumConverter(Class<E> enumClass) {
+            this.enumClass = enumClass;
+            constants = enumClass.getEnumConstants();
+            names = new String[constants.length];
+            int size = 2;
+            while (size < constants.length * 2) {
+                size <<= 1;
+            }
+            table = new int[size];
+            for (E e : constants) {
+                names[e.ordinal()] = e.name().toLowerCase(Locale.ROOT);
+                int i = hash(names[e.ordinal()]) & (size - 1);
+                while (table[i] != 0) {
+                    i = (i + 1) & (size - 1);
+                }
+                table[i] = e.ordinal() + 1;
+            }
+        }
+
+        @Override
+        public void format(E value, StringBuilder out) {
+            out.append(names[value.ordinal()]);
+        }
+
+        @Override
+        public E parse(CharSequence text) {
+            final int mask = table.length - 1;
+            for (int i = hash(text) & mask; table[i] != 0; i = (i + 1) & mask) {
+                final int ordinal = table[i] - 1;
+                if (matches(names[ordinal], text)) {
+                    return constants[ordinal];
+                }
+            }
+            throw new IllegalArgumentException(String.format("no constant %s of %s", text, enumClass.getName()));
+        }
+
+        private static int hash(CharSequence s) {
+            int h = 0;
+            for (int i = 0; i < s.length(); i++) {
+                h = 31 * h + Character.toLowerCase(s.charAt(i));
+            }
+            return h ^ (h >>> 16);
+        }
+
+        private static boolean matches(String name, CharSequence text) {
+            if (name.length() != text.length()) {
+                return false;
+            }
+            for (int i = 0; i < name.length(); i++) {
+                if (name.charAt(i) != Character.toLowerCase(text.charAt(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Martin Kade.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.martinkade.http.entity;
+
+/**
+ * Counters of a streaming decode. Values of attributes without matching
+ * {@link JsonAttribute} field are skipped at the token level, these counters
+ * show how much of the input that was.
+ * <p/>
+ *
+ * @author Martin Kade
+ * @version Tue, 5 January 2016
+ */
+public final class DecodeStats {
+
+    /**
+     * Bytes consumed from the input.
+     */
+    private long bytesRead;
+
+    /**
+     * Bytes and number of unmapped values skipped.
+     */
+    private long bytesSkipped, valuesSkipped;
+
+    /**
+     * Take over the counters of the given reader.
+     *
+     * @param reader
+     */
+    void record(TokenReader reader) {
+        bytesRead = reader.position();
+        bytesSkipped = reader.skippedBytes();
+        valuesSkipped = reader.skippedValues();
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getBytesSkipped() {
+        return bytesSkipped;
+    }
+
+    public long getValuesSkipped() {
+        return valuesSkipped;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("read %d bytes, skipped %d bytes in %d unmapped values",
+                bytesRead, bytesSkipped, valuesSkipped);
+    }
+}
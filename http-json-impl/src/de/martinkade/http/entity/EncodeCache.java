@@ -0,0 +1,215 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Martin Kade.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.martinkade.http.entity;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Encoded bytes of {@link Immutable} entities by instance identity and
+ * format. Entities are held weakly, an entry goes away with its entity.
+ * <p/>
+ * The entries are spread over independently locked stripes by identity
+ * hash, so concurrent encodes of different entities rarely contend. The
+ * cache holds at most a given number of bytes in total, beyond that the
+ * least recently used entries of the other stripes are evicted first.
+ * <p/>
+ *
+ * @author Martin Kade
+ * @version Tue, 5 January 2016
+ */
+final class EncodeCache {
+
+    /**
+     * Number of stripes, a power of two.
+     */
+    private static final int STRIPES = 16;
+
+    /**
+     * Weak identity of an entity instance in a format, <code>null</code>
+     * for the json text of {@link EntityBuilder#encode(de.martinkade.http.ApiService.Entity)}.
+     */
+    private static final class Key extends WeakReference<Object> {
+
+        private final WireFormat format;
+
+        private final int hash;
+
+        Key(Object entity, WireFormat format, ReferenceQueue<Object> queue) {
+            super(entity, queue);
+            this.format = format;
+            this.hash = System.identityHashCode(entity) * 31 + (format == null ? -1 : format.ordinal());
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            } else if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Object entity = get();
+            return entity != null && ((Key) obj).get() == entity && ((Key) obj).format == format;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * The stripes, entries in access order, least recently used first.
+     */
+    private final LinkedHashMap<Key, byte[]>[] stripes;
+
+    /**
+     * Keys of collected entities.
+     */
+    private final ReferenceQueue<Object> collected = new ReferenceQueue<>();
+
+    private final int maxBytes;
+
+    private final AtomicInteger bytes = new AtomicInteger();
+
+    private final LongAdder hits = new LongAdder(), misses = new LongAdder();
+
+    /**
+     * Constructor.
+     *
+     * @param maxBytes The total size of all cached encodings
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    EncodeCache(int maxBytes) {
+        this.maxBytes = maxBytes;
+        stripes = new LinkedHashMap[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new LinkedHashMap<>(16, 0.75f, true);
+        }
+    }
+
+    /**
+     * @param entity
+     * @param format The format or <code>null</code> for the json text
+     * @return The cached encoding or <code>null</code>
+     */
+    byte[] get(Object entity, WireFormat format) {
+        final Key key = new Key(entity, format, null);
+        final Map<Key, byte[]> stripe = stripes[index(key)];
+        final byte[] encoded;
+        synchronized (stripe) {
+            encoded = stripe.get(key);
+        }
+        if (encoded == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return encoded;
+    }
+
+    /**
+     * Cache an encoding, evicting least recently used ones to stay within
+     * the size. Encodings larger than the whole cache are not kept.
+     *
+     * @param entity
+     * @param format The format or <code>null</code> for the json text
+     * @param encoded
+     */
+    void put(Object entity, WireFormat format, byte[] encoded) {
+        expunge();
+        if (encoded.length > maxBytes) {
+            return;
+        }
+        final Key key = new Key(entity, format, collected);
+        final int index = index(key);
+        synchronized (stripes[index]) {
+            final byte[] previous = stripes[index].put(key, encoded);
+            bytes.addAndGet(encoded.length - (previous == null ? 0 : previous.length));
+        }
+        for (int i = 1; i <= STRIPES && bytes.get() > maxBytes;) {
+            final Map<Key, byte[]> stripe = stripes[(index + i) & (STRIPES - 1)];
+            synchronized (stripe) {
+                final Iterator<byte[]> it = stripe.values().iterator();
+                if (it.hasNext()) {
+                    bytes.addAndGet(-it.next().length);
+                    it.remove();
+                } else {
+                    i++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Drop the entries of collected entities.
+     */
+    private void expunge() {
+        for (Reference<?> ref = collected.poll(); ref != null; ref = collected.poll()) {
+            final Key key = (Key) ref;
+            final Map<Key, byte[]> stripe = stripes[index(key)];
+            synchronized (stripe) {
+                final byte[] encoded = stripe.remove(key);
+                if (encoded != null) {
+                    bytes.addAndGet(-encoded.length);
+                }
+            }
+        }
+    }
+
+    private static int index(Key key) {
+        final int h = key.hash;
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+
+    int maxBytes() {
+        return maxBytes;
+    }
+
+    int size() {
+        expunge();
+        int size = 0;
+        for (Map<Key, byte[]> stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+}
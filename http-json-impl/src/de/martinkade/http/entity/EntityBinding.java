@@ -0,0 +1,459 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Martin Kade.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.martinkade.http.entity;
+
+import de.martinkade.http.ApiException;
+import de.martinkade.http.ApiService;
+
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bind plan of an {@link ApiService.Entity} class: the annotated fields of
+ * the class and its super classes together with the entity constructor.
+ * Instances are immutable and shared through {@link EntityRegistry}.
+ * <p/>
+ *
+ * @author Martin Kade
+ * @version Tue, 5 January 2016
+ * <p/>
+ * @param <T> The entity class
+ */
+public final class EntityBinding<T extends ApiService.Entity> {
+
+    /**
+     * The bound entity class.
+     */
+    private final Class<T> entityClass;
+
+    /**
+     * The annotated fields, declared fields first, then inherited ones.
+     */
+    final FieldBinding[] fields;
+
+    /**
+     * The annotated fields by attribute name.
+     */
+    private final Map<String, FieldBinding> fieldsByName;
+
+    /**
+     * Table over the UTF-8 encoded attribute names, indexing {@link #named}.
+     */
+    final NameTable names;
+
+    /**
+     * Indexes in {@link #named} by attribute name, for names that are
+     * already strings.
+     */
+    private final Map<String, Integer> indexes;
+
+    /**
+     * The fields bound to each distinct attribute name, a declared field
+     * hiding an inherited one of the same name.
+     */
+    final FieldBinding[] named;
+
+    /**
+     * Flag if the class is marked {@link Immutable}.
+     */
+    final boolean immutable;
+
+    /**
+     * Bits of the indexes in {@link #named} of attributes that are not
+     * {@link JsonAttribute#optional()}, <code>null</code> if all are.
+     */
+    final long[] required;
+
+    /**
+     * Public no-arg constructor or <code>null</code> if there is none.
+     */
+    private final Constructor<T> constructor;
+
+    /**
+     * Public constructor with all parameters annotated as
+     * {@link JsonAttribute}, taking an array of values indexed like
+     * {@link #named}, or <code>null</code> if there is none.
+     */
+    private final MethodHandle creator;
+
+    /**
+     * Initial values of the {@link #creator} arguments, the default value
+     * for constructor parameters and {@link #UNSET} for fields set after
+     * construction.
+     */
+    private final Object[] arguments;
+
+    /**
+     * Marks an argument not read.
+     */
+    private static final Object UNSET = new Object();
+
+    /**
+     * Values of {@link #fields} in a newly constructed entity, taken on
+     * first recycle.
+     */
+    private volatile Object[] defaults;
+
+    /**
+     * Constructor.
+     *
+     * @param entityClass The entity class to be bound
+     */
+    EntityBinding(Class<T> entityClass) {
+        this.entityClass = entityClass;
+
+        final List<FieldBinding> bindings = new ArrayList<>();
+        Class<?> clazz = entityClass;
+        while (clazz.getSuperclass() != null) {
+            for (Field f : clazz.getDeclaredFields()) {
+                final JsonAttribute attr = f.getAnnotation(JsonAttribute.class);
+                if (attr != null) {
+                    bindings.add(new FieldBinding(f, attr));
+                }
+            }
+            clazz = clazz.getSuperclass();
+        }
+        fields = bindings.toArray(new FieldBinding[bindings.size()]);
+        fieldsByName = new LinkedHashMap<>();
+        for (FieldBinding f : fields) {
+            if (!fieldsByName.containsKey(f.name)) {
+                fieldsByName.put(f.name, f);
+            }
+        }
+        named = fieldsByName.values().toArray(new FieldBinding[fieldsByName.size()]);
+        names = new NameTable(fieldsByName.keySet().toArray(new String[named.length]));
+        indexes = new HashMap<>();
+        for (int i = 0; i < named.length; i++) {
+            indexes.put(named[i].name, i);
+        }
+
+        long[] mask = null;
+        for (int i = 0; i < named.length; i++) {
+            if (!named[i].isOptional()) {
+                if (mask == null) {
+                    mask = new long[(named.length + 63) >>> 6];
+                }
+                mask[i >>> 6] |= 1L << i;
+            }
+        }
+        required = mask;
+
+        immutable = entityClass.isAnnotationPresent(Immutable.class);
+
+        Constructor<T> c;
+        try {
+            c = entityClass.getConstructor();
+        } catch (NoSuchMethodException | SecurityException ex) {
+            c = null;
+        }
+        constructor = c;
+
+        final Constructor<?> annotated = findCreator(entityClass);
+        arguments = new Object[named.length];
+        Arrays.fill(arguments, UNSET);
+        MethodHandle h = null;
+        if (annotated != null) {
+            final Class<?>[] types = annotated.getParameterTypes();
+            final Annotation[][] annotations = annotated.getParameterAnnotations();
+            final int[] reorder = new int[types.length];
+            for (int i = 0; i < types.length; i++) {
+                reorder[i] = names.get(attributeOf(annotations[i]).name());
+                if (reorder[i] < 0) {
+                    throw new IllegalArgumentException(String.format("%s: no field for constructor attribute %s",
+                            entityClass.getName(), attributeOf(annotations[i]).name()));
+                }
+                arguments[reorder[i]] = defaultValue(types[i]);
+            }
+            h = unreflect(annotated);
+            h = h.asType(h.type().generic());
+            h = MethodHandles.permuteArguments(h, MethodType.genericMethodType(named.length), reorder);
+            h = h.asSpreader(Object[].class, named.length);
+        }
+        creator = h;
+    }
+
+    public Class<T> getEntityClass() {
+        return entityClass;
+    }
+
+    public List<FieldBinding> getFields() {
+        return Collections.unmodifiableList(Arrays.asList(fields));
+    }
+
+    /**
+     * Get the field bound to the given attribute name.
+     *
+     * @param name The json attribute name
+     * @return The field binding or <code>null</code> if not bound
+     */
+    FieldBinding field(String name) {
+        return fieldsByName.get(name);
+    }
+
+    /**
+     * Get the index of the given attribute name in {@link #named}. Unlike
+     * {@link #names} this does not encode the name.
+     *
+     * @param name The json attribute name
+     * @return The index or <code>-1</code> if not bound
+     */
+    int indexOf(String name) {
+        final Integer i = indexes.get(name);
+        return i == null ? -1 : i;
+    }
+
+    /**
+     * Create a new, empty entity instance.
+     *
+     * @return The new entity
+     * @throws ApiException
+     */
+    T newInstance() throws ApiException {
+        if (constructor == null) {
+            throw new ApiException(String.format("%s has no public default constructor",
+                    entityClass.getName()), ApiException.APIError.CONNECTION_TIMEOUT);
+        }
+        try {
+            return constructor.newInstance();
+        } catch (InstantiationException | IllegalAccessException | IllegalArgumentException | InvocationTargetException ex) {
+            throw new ApiException(ex.getMessage(),
+                    ApiException.APIError.CONNECTION_TIMEOUT);
+        }
+    }
+
+    /**
+     * Get a bit set of the attributes seen while decoding an entity.
+     *
+     * @return The empty set or <code>null</code> if no attribute is
+     * required
+     */
+    long[] newSeen() {
+        return required == null ? null : new long[required.length];
+    }
+
+    /**
+     * Fail if a required attribute was not seen with a value.
+     *
+     * @param seen The bits of the indexes in {@link #named} that were seen
+     * @throws ApiException
+     */
+    void checkRequired(long[] seen) throws ApiException {
+        for (int w = 0; w < required.length; w++) {
+            if ((seen[w] & required[w]) != required[w]) {
+                String missing = null;
+                for (int i = 0; i < named.length; i++) {
+                    if ((required[i >>> 6] & ~seen[i >>> 6] & 1L << i) != 0) {
+                        missing = CodecSupport.missing(missing, named[i].name);
+                    }
+                }
+                throw CodecSupport.missingError(entityClass, missing);
+            }
+        }
+    }
+
+    /**
+     * Take a recycled entity from the pool of the class, or create a new one
+     * if there is none.
+     *
+     * @return The reset or new entity
+     * @throws ApiException
+     */
+    T obtain() throws ApiException {
+        final EntityPool<T> pool = EntityRegistry.pool(entityClass);
+        if (pool != null) {
+            final T entity = pool.poll();
+            if (entity != null) {
+                return entity;
+            }
+        }
+        return newInstance();
+    }
+
+    /**
+     * Reset all fields of an entity and hand it to the pool of the class.
+     * Fields get the values of a prototype constructed once, so declared
+     * initializers hold again. Nested entities, also within collections, are
+     * recycled as well. Collections of fields initialized with one are
+     * cleared but kept to be filled again.
+     *
+     * @param entity
+     * @throws ApiException
+     */
+    void recycle(T entity) throws ApiException {
+        final EntityPool<T> pool = EntityRegistry.pool(entityClass);
+        if (pool == null || creator != null) {
+            return;
+        }
+        Object[] initial = defaults;
+        if (initial == null) {
+            final T prototype = newInstance();
+            initial = new Object[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                initial[i] = fields[i].accessor.get(prototype);
+            }
+            defaults = initial;
+        }
+        for (int i = 0; i < fields.length; i++) {
+            fields[i].reset(entity, initial[i]);
+        }
+        pool.offer(entity);
+    }
+
+    /**
+     * @return <code>true</code> if entities are created through a
+     * constructor taking the attribute values
+     */
+    boolean hasCreator() {
+        return creator != null;
+    }
+
+    /**
+     * Get the initial arguments for {@link #create(Object[])}, to be filled
+     * with the decoded attribute values at the indexes of {@link #named}.
+     *
+     * @return A new argument array
+     */
+    Object[] newArguments() {
+        return arguments.clone();
+    }
+
+    /**
+     * Create an entity through its attribute constructor in one call, then
+     * set decoded fields the constructor does not take.
+     *
+     * @param args The arguments from {@link #newArguments()}
+     * @return The new entity
+     * @throws ApiException
+     */
+    T create(Object[] args) throws ApiException {
+        final T entity;
+        try {
+            entity = entityClass.cast((Object) creator.invokeExact(args));
+        } catch (ClassCastException | NullPointerException ex) {
+            throw new ApiException(String.format("%s: %s", entityClass.getName(), ex.getMessage()),
+                    ApiException.APIError.JSON_DECODE_ERROR);
+        } catch (Throwable ex) {
+            throw new ApiException(ex.getMessage(),
+                    ApiException.APIError.CONNECTION_TIMEOUT);
+        }
+        for (int i = 0; i < args.length; i++) {
+            if (arguments[i] == UNSET && args[i] != UNSET) {
+                named[i].accessor.set(entity, args[i]);
+            }
+        }
+        return entity;
+    }
+
+    /**
+     * Find the public constructor with all parameters annotated as
+     * {@link JsonAttribute}. For records this is the canonical constructor,
+     * the one taking the component types in declaration order, whose
+     * parameters carry the component annotations.
+     *
+     * @param entityClass
+     * @return The constructor or <code>null</code>
+     */
+    private static Constructor<?> findCreator(Class<?> entityClass) {
+        if (FieldAccessor.isRecord(entityClass)) {
+            final List<Class<?>> components = new ArrayList<>();
+            for (Field f : entityClass.getDeclaredFields()) {
+                if (!Modifier.isStatic(f.getModifiers())) {
+                    components.add(f.getType());
+                }
+            }
+            try {
+                return entityClass.getConstructor(components.toArray(new Class<?>[components.size()]));
+            } catch (NoSuchMethodException ex) {
+                throw new IllegalArgumentException(String.format("%s: canonical constructor is not public",
+                        entityClass.getName()), ex);
+            }
+        }
+        for (Constructor<?> c : entityClass.getConstructors()) {
+            boolean annotated = c.getParameterCount() > 0;
+            for (Annotation[] a : c.getParameterAnnotations()) {
+                annotated &= attributeOf(a) != null;
+            }
+            if (annotated) {
+                return c;
+            }
+        }
+        return null;
+    }
+
+    private static JsonAttribute attributeOf(Annotation[] annotations) {
+        for (Annotation a : annotations) {
+            if (a instanceof JsonAttribute) {
+                return (JsonAttribute) a;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param type
+     * @return The boxed default value of primitive types
+     */
+    private static Object defaultValue(Class<?> type) {
+        return type.isPrimitive() ? Array.get(Array.newInstance(type, 1), 0) : null;
+    }
+
+    /**
+     * Get a method handle of the constructor, making it accessible only if
+     * its class is not accessible otherwise. Records are never made
+     * accessible.
+     *
+     * @param c
+     * @return The handle
+     */
+    private static MethodHandle unreflect(Constructor<?> c) {
+        try {
+            return MethodHandles.publicLookup().unreflectConstructor(c);
+        } catch (IllegalAccessException ex) {
+            if (FieldAccessor.isRecord(c.getDeclaringClass())) {
+                throw new IllegalArgumentException(String.format("%s: record is not public",
+                        c.getDeclaringClass().getName()), ex);
+            }
+            c.setAccessible(true);
+            try {
+                return MethodHandles.lookup().unreflectConstructor(c);
+            } catch (IllegalAccessException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+    }
+}
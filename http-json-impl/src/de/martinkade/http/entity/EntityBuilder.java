@@ -26,31 +26,32 @@ package de.martinkade.http.entity;
 import de.martinkade.http.ApiException;
 import de.martinkade.http.ApiService;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Modifier;
-import java.lang.reflect.ParameterizedType;
-import java.time.LocalDate;
-import java.time.LocalDateTime;
-import java.time.LocalTime;
-import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
 
 import java.util.Collection;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+import java.util.Map;
 
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 
 /**
  * ...
  * <p/>
+ * Builders hold no state, bindings and codecs are kept by the
+ * {@link EntityRegistry} and read and write buffers are cached per thread.
+ * A single instance obtained by {@link #getInstance()} can therefore be
+ * shared by all requests.
+ * <p/>
  *
  * @param <T>
  * @author Martin Kade
@@ -59,9 +60,9 @@ import org.json.simple.parser.ParseException;
 public class EntityBuilder<T extends ApiService.Entity> {
 
     /**
-     * Current entity class.
+     * The shared instance.
      */
-    private Class<T> entityClass;
+    private static final EntityBuilder<?> INSTANCE = new EntityBuilder<>();
 
     /**
      * Default constructor.
@@ -70,33 +71,101 @@ public class EntityBuilder<T extends ApiService.Entity> {
 
     }
 
+    /**
+     * Get the shared, thread-safe instance.
+     *
+     * @param <T>
+     * @return The builder
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends ApiService.Entity> EntityBuilder<T> getInstance() {
+        return (EntityBuilder<T>) INSTANCE;
+    }
+
     /**
      * @param entity
      * @return
      * @throws ApiException
      */
     public String encode(T entity) throws ApiException {
-        entityClass = (Class<T>) entity.getClass();
-        final Field[] fields = entityClass.getDeclaredFields();
+        final EncodeCache cache = EntityRegistry.encodeCache();
+        if (cache == null || entity == null || !EntityRegistry.binding(entity.getClass()).immutable) {
+            return toJson(entity).toJSONString();
+        }
+        final byte[] cached = cache.get(entity, null);
+        if (cached != null) {
+            return new String(cached, StandardCharsets.UTF_8);
+        }
+        final String encoded = toJson(entity).toJSONString();
+        cache.put(entity, null, encoded.getBytes(StandardCharsets.UTF_8));
+        return encoded;
+    }
 
-        return buildJsonObject(entity, fields).toJSONString();
+    /**
+     * Hand a consumed entity back for reuse by later decodes of its class.
+     * Its fields are reset and nested entities are recycled as well, so
+     * neither the entity nor anything taken from it must be used
+     * afterwards. Does nothing unless recycling is turned on through
+     * {@link EntityRegistry#setPoolCapacity(int)}.
+     *
+     * @param entity
+     * @throws ApiException
+     */
+    @SuppressWarnings("unchecked")
+    public void recycle(T entity) throws ApiException {
+        if (entity != null) {
+            EntityRegistry.binding((Class<T>) entity.getClass()).recycle(entity);
+        }
     }
 
     /**
+     * Record the current attribute values of an entity to later encode
+     * only the ones changed since.
+     *
      * @param entity
-     * @param fields
+     * @return The snapshot
+     * @throws ApiException
+     */
+    public EntitySnapshot<T> snapshot(T entity) throws ApiException {
+        return new EntitySnapshot<>(entity);
+    }
+
+    /**
+     * Encode using the given binding instead of the one registered for the
+     * entity class.
+     *
+     * @param entity
+     * @param binding
+     * @return
+     * @throws ApiException
+     */
+    String encode(T entity, EntityBinding<?> binding) throws ApiException {
+        return buildJsonObject(entity, binding).toJSONString();
+    }
+
+    /**
+     * Encode an entity into a json tree.
+     *
+     * @param entity
+     * @return
+     * @throws ApiException
+     */
+    static JSONObject toJson(Object entity) throws ApiException {
+        return buildJsonObject(entity, EntityRegistry.binding(entity.getClass().asSubclass(ApiService.Entity.class)));
+    }
+
+    /**
+     * @param entity
+     * @param binding
      * @return
      * @throws ApiException
      */
-    private JSONObject buildJsonObject(T entity, Field[] fields)
+    private static JSONObject buildJsonObject(Object entity, EntityBinding<?> binding)
             throws ApiException {
 
         final JSONObject json = new JSONObject();
-        for (Field f : fields) {
-            final JsonAttribute attr = getAttribute(f);
-            if (attr != null) {
-                setJsonAttrValue(f, entity, json, attr.name());
-            }
+        for (FieldBinding f : binding.fields) {
+            setJsonAttrValue(f, entity, json);
         }
         return json;
     }
@@ -105,47 +174,336 @@ public class EntityBuilder<T extends ApiService.Entity> {
      * @param field
      * @param entity
      * @param json
-     * @param attrName
      * @throws ApiException
      */
-    private void setJsonAttrValue(Field field, T entity, JSONObject json,
-            String attrName) throws ApiException {
+    @SuppressWarnings("unchecked")
+    private static void setJsonAttrValue(FieldBinding field, Object entity, JSONObject json)
+            throws ApiException {
+
+        Object value = field.accessor.get(entity);
+
+        if (value != null) {
+            switch (field.kind) {
+                case ENTITY:
+                    value = toJson(value);
+                    break;
+                case COLLECTION:
+                    final JSONArray jsonArray = new JSONArray();
+                    if (field.elementKind == FieldBinding.Kind.ENTITY) {
+                        for (Object o : (Collection<?>) value) {
+                            jsonArray.add(toJson(o));
+                        }
+                    } else if (field.elementKind == FieldBinding.Kind.PRIMITIVE) {
+                        jsonArray.addAll((Collection<?>) value);
+                    }
+                    value = jsonArray.isEmpty() ? null : jsonArray;
+                    break;
+                case ARRAY:
+                    value = CodecSupport.copyArray(value);
+                    break;
+                case CONVERTED:
+                    value = CodecSupport.format(field.converter, value);
+                    break;
+                case LAZY:
+                    value = lazyToJson(field, ((Lazy<?>) value).get());
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        json.put(field.name, value);
+    }
+
+    /**
+     * Convert the value of a {@link Lazy} field for the json tree.
+     *
+     * @param field
+     * @param value
+     * @return
+     * @throws ApiException
+     */
+    @SuppressWarnings("unchecked")
+    private static Object lazyToJson(FieldBinding field, Object value) throws ApiException {
+        if (value == null) {
+            return null;
+        } else if (field.elementKind == FieldBinding.Kind.ENTITY) {
+            return toJson(value);
+        } else if (field.elementKind == FieldBinding.Kind.COLLECTION) {
+            final JSONArray jsonArray = new JSONArray();
+            for (Object o : (Collection<?>) value) {
+                jsonArray.add(toJson(o));
+            }
+            return jsonArray;
+        }
+        return value;
+    }
+
+    /**
+     * Encode straight into an output stream as UTF-8, writing field values
+     * as they are read. The stream is flushed but not closed.
+     *
+     * @param entity
+     * @param out
+     * @throws ApiException
+     * @throws IOException
+     */
+    public void encode(T entity, OutputStream out) throws ApiException, IOException {
+        encode(entity, out, WireFormat.JSON);
+    }
+
+    /**
+     * Encode straight into an output stream in the given format. The stream
+     * is flushed but not closed.
+     *
+     * @param entity
+     * @param out
+     * @param format
+     * @throws ApiException
+     * @throws IOException
+     */
+    public void encode(T entity, OutputStream out, WireFormat format) throws ApiException, IOException {
+        final ScratchBuffers scratch = ScratchBuffers.acquire();
+        try {
+            final TokenWriter writer = format.writer(out, scratch);
+            writeObject(writer, entity);
+            writer.flush();
+        } finally {
+            scratch.release();
+        }
+    }
+
+    /**
+     * Write an already built json object or array as UTF-8. The stream is
+     * flushed but not closed.
+     *
+     * @param json
+     * @param out
+     * @throws IOException
+     */
+    public static void encode(Map<?, ?> json, OutputStream out) throws IOException {
+        encode(json, out, WireFormat.JSON);
+    }
+
+    /**
+     * Write an already built json object or array in the given format. The
+     * stream is flushed but not closed.
+     *
+     * @param json
+     * @param out
+     * @param format
+     * @throws IOException
+     */
+    public static void encode(Map<?, ?> json, OutputStream out, WireFormat format) throws IOException {
+        final ScratchBuffers scratch = ScratchBuffers.acquire();
+        try {
+            final TokenWriter writer = format.writer(out, scratch);
+            writer.value(json);
+            writer.flush();
+        } finally {
+            scratch.release();
+        }
+    }
+
+    /**
+     * @param writer
+     * @param entity
+     * @throws ApiException
+     * @throws IOException
+     */
+    static void writeObject(TokenWriter writer, Object entity) throws ApiException, IOException {
+        if (entity == null) {
+            writer.nullValue();
+            return;
+        }
+        final Class<? extends ApiService.Entity> clazz = entity.getClass().asSubclass(ApiService.Entity.class);
+        final EncodeCache cache = EntityRegistry.encodeCache();
+        if (cache != null && EntityRegistry.binding(clazz).immutable) {
+            byte[] encoded = cache.get(entity, writer.format());
+            if (encoded == null) {
+                encoded = encodeUncached(entity, writer.format());
+                cache.put(entity, writer.format(), encoded);
+            }
+            writer.raw(encoded, 0, encoded.length);
+            return;
+        }
+        writeEntity(writer, (ApiService.Entity) entity);
+    }
 
-        field.setAccessible(true);
+    /**
+     * Encode an entity on its own, bypassing the encode cache.
+     *
+     * @param entity
+     * @param format
+     * @return The encoded bytes
+     * @throws ApiException
+     * @throws IOException
+     */
+    private static byte[] encodeUncached(Object entity, WireFormat format) throws ApiException, IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final ScratchBuffers scratch = ScratchBuffers.acquire();
         try {
-            Object value = field.get(entity);
-
-            if (value instanceof ApiService.Entity) {
-                final Class<T> tmpClass = (Class<T>) value.getClass();
-                value = buildJsonObject((T) value,
-                        tmpClass.getDeclaredFields());
-            } else if (value instanceof Collection) {
-                final Class<?> tmpClass = (Class<?>) ((ParameterizedType) field
-                        .getGenericType()).getActualTypeArguments()[0];
-                final JSONArray jsonArray = new JSONArray();
-                for (Object o : (Collection) value) {
-                    if (ApiService.Entity.class.isAssignableFrom(tmpClass)) {
-                        jsonArray.add(buildJsonObject((T) o,
-                                tmpClass.getDeclaredFields()));
-                    } else if (isPrimitive(tmpClass)) {
-                        jsonArray.add(o);
+            final TokenWriter writer = format.writer(out, scratch);
+            writeEntity(writer, (ApiService.Entity) entity);
+            writer.flush();
+        } finally {
+            scratch.release();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Write an entity through its generated {@link EntityCodec}, or through
+     * its binding if there is none.
+     *
+     * @param writer
+     * @param entity
+     * @throws ApiException
+     * @throws IOException
+     */
+    @SuppressWarnings("unchecked")
+    private static <E extends ApiService.Entity> void writeEntity(TokenWriter writer, E entity)
+            throws ApiException, IOException {
+
+        final Class<E> clazz = (Class<E>) entity.getClass();
+        final EntityCodec<E> codec = EntityRegistry.codec(clazz);
+        if (codec != null) {
+            codec.write(writer, entity);
+        } else {
+            writeFields(writer, entity, clazz);
+        }
+    }
+
+    /**
+     * @param writer
+     * @param entity
+     * @param clazz
+     * @throws ApiException
+     * @throws IOException
+     */
+    private static void writeFields(TokenWriter writer, Object entity, Class<? extends ApiService.Entity> clazz)
+            throws ApiException, IOException {
+
+        writer.beginObject();
+        for (FieldBinding f : EntityRegistry.binding(clazz).fields) {
+            writer.name(f.name);
+            writeFieldValue(writer, f, entity);
+        }
+        writer.endObject();
+    }
+
+    /**
+     * Write a primitive array, <code>null</code> if it is empty.
+     *
+     * @param writer
+     * @param array
+     * @throws IOException
+     */
+    static void writeArray(TokenWriter writer, Object array) throws IOException {
+        if (Array.getLength(array) == 0) {
+            writer.nullValue();
+            return;
+        }
+        writer.beginArray();
+        if (array instanceof int[]) {
+            for (int v : (int[]) array) {
+                writer.value(v);
+            }
+        } else if (array instanceof long[]) {
+            for (long v : (long[]) array) {
+                writer.value(v);
+            }
+        } else if (array instanceof float[]) {
+            for (float v : (float[]) array) {
+                writer.value(v);
+            }
+        } else {
+            for (double v : (double[]) array) {
+                writer.value(v);
+            }
+        }
+        writer.endArray();
+    }
+
+    /**
+     * Streaming counterpart of {@link #setJsonAttrValue}.
+     *
+     * @param writer
+     * @param field
+     * @param entity
+     * @throws ApiException
+     * @throws IOException
+     */
+    private static void writeFieldValue(TokenWriter writer, FieldBinding field, Object entity)
+            throws ApiException, IOException {
+
+        final Object value = field.accessor.get(entity);
+        if (value == null) {
+            writer.nullValue();
+            return;
+        }
+        switch (field.kind) {
+            case ENTITY:
+                writeObject(writer, value);
+                break;
+            case COLLECTION:
+                final Collection<?> c = (Collection<?>) value;
+                if (c.isEmpty() || field.elementKind == FieldBinding.Kind.UNSUPPORTED) {
+                    writer.nullValue();
+                } else {
+                    writer.beginArray();
+                    for (Object o : c) {
+                        if (field.elementKind == FieldBinding.Kind.ENTITY) {
+                            writeObject(writer, o);
+                        } else {
+                            writer.value(o);
+                        }
                     }
+                    writer.endArray();
                 }
-                value = jsonArray.isEmpty() ? null : jsonArray;
-            } else if (value instanceof LocalDate) {
-                value = ((LocalDate) value).format(DateTimeFormatter.ofPattern("yyyy-MM-dd"));
-            } else if (value instanceof LocalTime) {
-                value = ((LocalTime) value).format(DateTimeFormatter.ofPattern("HH:mm:ss"));
-            } else if (value instanceof LocalDateTime) {
-                value = ((LocalDateTime) value).format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
-            } else if (value instanceof Enum) {
-                value = ((Enum) value).name().toLowerCase();
-            }
+                break;
+            case ARRAY:
+                writeArray(writer, value);
+                break;
+            case CONVERTED:
+                writer.value(field.converter, value);
+                break;
+            case LAZY:
+                final Lazy<?> lazy = (Lazy<?>) value;
+                if (!lazy.writeTo(writer)) {
+                    writeLazyValue(writer, field, lazy.get());
+                }
+                break;
+            default:
+                writer.value(value);
+                break;
+        }
+    }
+
+    /**
+     * Write the materialized value of a {@link Lazy} field.
+     *
+     * @param writer
+     * @param field
+     * @param value
+     * @throws ApiException
+     * @throws IOException
+     */
+    private static void writeLazyValue(TokenWriter writer, FieldBinding field, Object value)
+            throws ApiException, IOException {
 
-            json.put(attrName, value);
-        } catch (IllegalArgumentException | IllegalAccessException ex) {
-            throw new ApiException(ex.getMessage(),
-                    ApiException.APIError.CONNECTION_TIMEOUT);
+        if (value == null) {
+            writer.nullValue();
+        } else if (field.elementKind == FieldBinding.Kind.ENTITY) {
+            writeObject(writer, value);
+        } else if (field.elementKind == FieldBinding.Kind.COLLECTION) {
+            writer.beginArray();
+            for (Object o : (Collection<?>) value) {
+                writeObject(writer, o);
+            }
+            writer.endArray();
+        } else {
+            writer.value(value);
         }
     }
 
@@ -159,172 +517,587 @@ public class EntityBuilder<T extends ApiService.Entity> {
     public T decode(String jsonString, Class<T> entityClass)
             throws ApiException, ParseException {
 
-        this.entityClass = entityClass;
-
         if (entityClass == null) {
             return null;
         }
 
+        final JSONParser parser = new JSONParser();
+        return fromJson((JSONObject) parser.parse(jsonString), entityClass);
+    }
+
+    /**
+     * Decode using the given binding instead of the one registered for the
+     * entity class.
+     *
+     * @param jsonString
+     * @param binding
+     * @return
+     * @throws ParseException
+     * @throws ApiException
+     */
+    T decode(String jsonString, EntityBinding<T> binding)
+            throws ApiException, ParseException {
+
         final JSONParser parser = new JSONParser();
         final JSONObject json = (JSONObject) parser.parse(jsonString);
 
-        final Field[] fields = requestFields(entityClass);
+        return buildObject(json, binding);
+    }
 
-        return buildObject(json, instantiateEntity(entityClass), fields);
+    /**
+     * Decode straight from an UTF-8 encoded stream, binding tokens to entity
+     * fields as they are read. Neither the json text nor a json tree is
+     * materialized, so extra memory does not depend on the payload size.
+     *
+     * @param in
+     * @param entityClass
+     * @return The entity or <code>null</code> for an empty document
+     * @throws ApiException
+     * @throws IOException
+     */
+    public T decode(InputStream in, Class<T> entityClass)
+            throws ApiException, IOException {
+
+        return decode(in, entityClass, null);
     }
 
     /**
+     * Decode straight from an UTF-8 encoded stream, recording how much of
+     * the input was skipped because no field is mapped to it.
      *
-     * @param clazz
-     * @return
+     * @param in
+     * @param entityClass
+     * @param stats The counters to update or <code>null</code>
+     * @return The entity or <code>null</code> for an empty document
+     * @throws ApiException
+     * @throws IOException
      */
-    private Field[] requestFields(Class<?> clazz) {
-        List<Field> fields = new ArrayList<>();
-        while (clazz.getSuperclass() != null) {
-            fields.addAll(Arrays.asList(clazz.getDeclaredFields()));
-            clazz = clazz.getSuperclass();
-        }
-        return fields.toArray(new Field[fields.size()]);
+    public T decode(InputStream in, Class<T> entityClass, DecodeStats stats)
+            throws ApiException, IOException {
+
+        return decode(in, entityClass, WireFormat.JSON, stats);
     }
 
     /**
-     * @param json
-     * @param entity
-     * @param fields
+     * Decode straight from a stream in the given format.
+     *
+     * @param in
+     * @param entityClass
+     * @param format
+     * @param stats The counters to update or <code>null</code>
+     * @return The entity or <code>null</code> for an empty document
      * @throws ApiException
+     * @throws IOException
      */
-    private T buildObject(JSONObject json, T entity, Field[] fields)
-            throws ApiException {
+    public T decode(InputStream in, Class<T> entityClass, WireFormat format, DecodeStats stats)
+            throws ApiException, IOException {
+
+        if (entityClass == null) {
+            return null;
+        }
 
-        for (Field f : fields) {
-            final JsonAttribute attr = getAttribute(f);
-            if (attr != null && json.containsKey(attr.name())) {
-                setFieldValue(f, entity, json.get(attr.name()));
+        final ScratchBuffers scratch = ScratchBuffers.acquire();
+        final TokenReader reader = format.reader(in, scratch);
+        try {
+            if (reader.peek() == TokenReader.Token.END_DOCUMENT) {
+                return null;
             }
+            return readObject(reader, EntityRegistry.binding(entityClass));
+        } finally {
+            if (stats != null) {
+                stats.record(reader);
+            }
+            scratch.release();
         }
-        return entity;
     }
 
     /**
-     * @param field
-     * @param entity
-     * @param value
+     * Lazily decode a top level json array from an UTF-8 encoded stream.
+     *
+     * @param in
+     * @param entityClass The element class
+     * @return The elements, to be closed by the caller unless read to the end
+     * @throws ApiException
+     * @throws IOException
+     */
+    public EntityIterator<T> decodeAll(InputStream in, Class<T> entityClass)
+            throws ApiException, IOException {
+
+        return decodeAll(in, entityClass, null, null);
+    }
+
+    /**
+     * Lazily decode a json array from an UTF-8 encoded stream. The array is
+     * either the document itself or the value of the given attribute of the
+     * top level object, attributes before it are skipped.
+     *
+     * @param in
+     * @param entityClass The element class
+     * @param attribute The attribute holding the array or <code>null</code>
+     * @return The elements, to be closed by the caller unless read to the end
+     * @throws ApiException
+     * @throws IOException
+     */
+    public EntityIterator<T> decodeAll(InputStream in, Class<T> entityClass, String attribute)
+            throws ApiException, IOException {
+
+        return decodeAll(in, entityClass, attribute, null);
+    }
+
+    /**
+     * Lazily decode a json array like
+     * {@link #decodeAll(InputStream, Class, String)}, recording how much of
+     * the input was skipped because no field is mapped to it.
+     *
+     * @param in
+     * @param entityClass The element class
+     * @param attribute The attribute holding the array or <code>null</code>
+     * @param stats The counters to update while reading or <code>null</code>
+     * @return The elements, to be closed by the caller unless read to the end
+     * @throws ApiException
+     * @throws IOException
+     */
+    public EntityIterator<T> decodeAll(InputStream in, Class<T> entityClass, String attribute,
+            DecodeStats stats) throws ApiException, IOException {
+
+        return decodeAll(in, entityClass, attribute, WireFormat.JSON, stats);
+    }
+
+    /**
+     * Lazily decode an array like
+     * {@link #decodeAll(InputStream, Class, String, DecodeStats)} from a
+     * stream in the given format.
+     *
+     * @param in
+     * @param entityClass The element class
+     * @param attribute The attribute holding the array or <code>null</code>
+     * @param format
+     * @param stats The counters to update while reading or <code>null</code>
+     * @return The elements, to be closed by the caller unless read to the end
      * @throws ApiException
+     * @throws IOException
      */
-    private void setFieldValue(Field field, T entity, Object value) throws ApiException {
+    public EntityIterator<T> decodeAll(InputStream in, Class<T> entityClass, String attribute,
+            WireFormat format, DecodeStats stats) throws ApiException, IOException {
 
-        Object v;
-        field.setAccessible(true);
-        final Class<?> fieldType = field.getType();
+        final ScratchBuffers scratch = ScratchBuffers.acquire();
+        final TokenReader reader = format.reader(in, scratch);
         try {
+            if (attribute != null && reader.peek() == TokenReader.Token.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext() && !attribute.equals(reader.nextName())) {
+                    reader.skipValue();
+                }
+            }
+            final boolean open = reader.peek() == TokenReader.Token.BEGIN_ARRAY;
+            if (stats != null) {
+                stats.record(reader);
+            }
+            if (open) {
+                reader.beginArray();
+                return new EntityIterator<>(reader, EntityRegistry.binding(entityClass), in, scratch, stats);
+            }
+            in.close();
+            scratch.release();
+            return new EntityIterator<>(reader, EntityRegistry.binding(entityClass), in, null, stats);
+        } catch (IOException | ApiException ex) {
+            in.close();
+            scratch.release();
+            throw ex;
+        }
+    }
 
-            if (ApiService.Entity.class.isAssignableFrom(fieldType)
-                    && (value instanceof JSONObject)) {
-
-                final Class<T> tmpClass = (Class<T>) fieldType;
-                v = buildObject((JSONObject) value,
-                        instantiateEntity(tmpClass),
-                        tmpClass.getDeclaredFields());
-            } else if (Collection.class.isAssignableFrom(fieldType)
-                    && (value instanceof JSONArray)) {
-
-                final Class<?> tmpClass = (Class<?>) ((ParameterizedType) field
-                        .getGenericType()).getActualTypeArguments()[0];
-
-                Collection array;
-                if (fieldType.isInterface() || Modifier.isAbstract(fieldType.getModifiers())) {
-                    if (Set.class.isAssignableFrom(fieldType)) {
-                        array = new HashSet();
-                    } else if (List.class.isAssignableFrom(fieldType)) {
-                        array = new ArrayList();
-                    } else {
-                        throw new ApiException("collection type is not compatible",
-                                ApiException.APIError.CONNECTION_TIMEOUT);
-                    }
-                } else {
-                    Constructor<?> c = (Constructor<?>) fieldType.getConstructor();
-                    array = (Collection) c.newInstance();
-                    if (array == null) {
-                        throw new ApiException("cannot instantiate collection type",
-                                ApiException.APIError.CONNECTION_TIMEOUT);
-                    }
+    /**
+     * @param reader
+     * @param binding
+     * @return
+     * @throws ApiException
+     * @throws IOException
+     */
+    static <E extends ApiService.Entity> E readObject(TokenReader reader, EntityBinding<E> binding)
+            throws ApiException, IOException {
+
+        final EntityCodec<E> codec = EntityRegistry.codec(binding.getEntityClass());
+        if (codec != null) {
+            return codec.read(reader);
+        }
+        if (reader.peek() == TokenReader.Token.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        if (binding.hasCreator()) {
+            return readCreated(reader, binding);
+        }
+        final E entity = binding.obtain();
+        final long[] seen = binding.newSeen();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final int i = reader.nextName(binding.names);
+            if (i < 0) {
+                reader.skipValue();
+            } else {
+                if (seen != null && reader.peek() != TokenReader.Token.NULL) {
+                    seen[i >>> 6] |= 1L << i;
                 }
+                readFieldValue(reader, binding.named[i], entity);
+            }
+        }
+        reader.endObject();
+        if (seen != null) {
+            binding.checkRequired(seen);
+        }
+        return entity;
+    }
 
-                for (Object o : (JSONArray) value) {
-                    if (ApiService.Entity.class.isAssignableFrom(tmpClass)) {
-                        array.add(buildObject((JSONObject) o,
-                                instantiateEntity((Class<T>) tmpClass),
-                                tmpClass.getDeclaredFields()));
-                    } else if (isPrimitive(tmpClass)) {
-                        array.add(o);
-                    }
+    /**
+     * Read an entity created through its attribute constructor.
+     *
+     * @param reader
+     * @param binding
+     * @return
+     * @throws ApiException
+     * @throws IOException
+     */
+    private static <E extends ApiService.Entity> E readCreated(TokenReader reader, EntityBinding<E> binding)
+            throws ApiException, IOException {
+
+        final Object[] args = binding.newArguments();
+        final long[] seen = binding.newSeen();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final int i = reader.nextName(binding.names);
+            if (i < 0) {
+                reader.skipValue();
+            } else {
+                final Object value = readValue(reader, binding.named[i], reader.peek());
+                if (value != null || !binding.named[i].type.isPrimitive()) {
+                    args[i] = value;
+                }
+                if (seen != null && value != null) {
+                    seen[i >>> 6] |= 1L << i;
                 }
-                v = array;
-            } else if (LocalDate.class.isAssignableFrom(fieldType)) {
-                v = LocalDate.parse((String) value, DateTimeFormatter.ofPattern("yyyy-MM-dd"));
-            } else if (LocalTime.class.isAssignableFrom(fieldType)) {
-                v = LocalTime.parse((String) value, DateTimeFormatter.ofPattern("HH:mm:ss"));
-            } else if (LocalDateTime.class.isAssignableFrom(fieldType)) {
-                v = LocalDateTime.parse((String) value, DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
-            } else if (Integer.class.isAssignableFrom(fieldType) || fieldType.getName().equals("int")) {
-                v = ((Number) value).intValue();
-            } else if (Float.class.isAssignableFrom(fieldType) || fieldType.getName().equals("float")) {
-                v = ((Number) value).floatValue();
-            } else if (Enum.class.isAssignableFrom(fieldType)) {
-                v = Enum.valueOf((Class<? extends Enum>) fieldType, ((String) value).toUpperCase());
+            }
+        }
+        reader.endObject();
+        if (seen != null) {
+            binding.checkRequired(seen);
+        }
+        return binding.create(args);
+    }
+
+    /**
+     * @param reader
+     * @param componentType
+     * @return
+     * @throws ApiException
+     * @throws IOException
+     */
+    private static Object readArray(TokenReader reader, Class<?> componentType)
+            throws ApiException, IOException {
+
+        if (componentType == int.class) {
+            return reader.nextIntArray();
+        } else if (componentType == long.class) {
+            return reader.nextLongArray();
+        } else if (componentType == float.class) {
+            return reader.nextFloatArray();
+        }
+        return reader.nextDoubleArray();
+    }
+
+    /**
+     * Streaming counterpart of {@link #setFieldValue}.
+     *
+     * @param reader
+     * @param field
+     * @param entity
+     * @throws ApiException
+     * @throws IOException
+     */
+    private static void readFieldValue(TokenReader reader, FieldBinding field, Object entity)
+            throws ApiException, IOException {
+
+        final FieldAccessor accessor = field.accessor;
+        final TokenReader.Token token = reader.peek();
+        if (token == TokenReader.Token.NULL) {
+            reader.nextNull();
+            if (!field.type.isPrimitive()) {
+                accessor.set(entity, null);
+            }
+        } else if (field.kind == FieldBinding.Kind.INT) {
+            accessor.setInt(entity, reader.nextInt());
+        } else if (field.kind == FieldBinding.Kind.FLOAT) {
+            accessor.setFloat(entity, (float) reader.nextDouble());
+        } else if (field.type == long.class && token == TokenReader.Token.NUMBER) {
+            accessor.setLong(entity, reader.nextLong());
+        } else if (field.type == double.class && token == TokenReader.Token.NUMBER) {
+            accessor.setDouble(entity, reader.nextDouble());
+        } else if (field.type == boolean.class && token == TokenReader.Token.BOOLEAN) {
+            accessor.setBoolean(entity, reader.nextBoolean());
+        } else if (field.kind == FieldBinding.Kind.COLLECTION && token == TokenReader.Token.BEGIN_ARRAY) {
+            final Object previous = accessor.get(entity);
+            if (previous != null && ((Collection<?>) previous).isEmpty() && field.canReuse(previous)) {
+                readCollection(reader, field, FieldBinding.asCollection(previous));
             } else {
-                v = (value instanceof JSONObject) ? null : value;
+                accessor.set(entity, readCollection(reader, field, field.newCollection()));
+            }
+        } else {
+            accessor.set(entity, readValue(reader, field, token));
+        }
+    }
+
+    /**
+     * Read the elements of a collection field.
+     *
+     * @param reader
+     * @param field
+     * @param array The empty collection to fill
+     * @return The collection
+     * @throws ApiException
+     * @throws IOException
+     */
+    private static Collection<Object> readCollection(TokenReader reader, FieldBinding field, Collection<Object> array)
+            throws ApiException, IOException {
+
+        reader.beginArray();
+        if (field.elementKind == FieldBinding.Kind.ENTITY) {
+            ParallelDecoder.readAll(reader, EntityRegistry.binding(
+                    field.elementType.asSubclass(ApiService.Entity.class)), array);
+        } else if (field.elementKind == FieldBinding.Kind.PRIMITIVE) {
+            while (reader.hasNext()) {
+                array.add(reader.nextValue());
+            }
+        } else {
+            while (reader.hasNext()) {
+                reader.skipValue();
             }
+        }
+        reader.endArray();
+        return array;
+    }
 
-            field.set(entity, v);
-        } catch (InvocationTargetException | NoSuchMethodException | SecurityException | InstantiationException | IllegalArgumentException | IllegalAccessException ex) {
-            throw new ApiException(ex.getMessage(),
-                    ApiException.APIError.CONNECTION_TIMEOUT);
+    /**
+     * Read the value of a field, boxing primitives.
+     *
+     * @param reader
+     * @param field
+     * @param token The peeked token
+     * @return The value
+     * @throws ApiException
+     * @throws IOException
+     */
+    private static Object readValue(TokenReader reader, FieldBinding field, TokenReader.Token token)
+            throws ApiException, IOException {
+
+        if (token == TokenReader.Token.NULL) {
+            reader.nextNull();
+            return null;
+        } else if (field.kind == FieldBinding.Kind.ENTITY && token == TokenReader.Token.BEGIN_OBJECT) {
+            return readObject(reader, EntityRegistry.binding(
+                    field.type.asSubclass(ApiService.Entity.class)));
+        } else if (field.kind == FieldBinding.Kind.COLLECTION && token == TokenReader.Token.BEGIN_ARRAY) {
+            return readCollection(reader, field, field.newCollection());
+        } else if (field.kind == FieldBinding.Kind.ARRAY && token == TokenReader.Token.BEGIN_ARRAY) {
+            return readArray(reader, field.elementType);
+        } else if (field.kind == FieldBinding.Kind.LAZY) {
+            return new Lazy<>(reader.nextRaw(), reader.format(), field);
+        } else if (field.kind == FieldBinding.Kind.CONVERTED) {
+            return parse(field, reader.nextText());
+        } else if (field.kind == FieldBinding.Kind.INT) {
+            return reader.nextInt();
+        } else if (field.kind == FieldBinding.Kind.FLOAT) {
+            return (float) reader.nextDouble();
+        } else if (field.type == long.class && token == TokenReader.Token.NUMBER) {
+            return reader.nextLong();
+        } else if (field.type == double.class && token == TokenReader.Token.NUMBER) {
+            return reader.nextDouble();
+        } else if (field.type == boolean.class && token == TokenReader.Token.BOOLEAN) {
+            return reader.nextBoolean();
+        } else if (field.intern && token == TokenReader.Token.STRING) {
+            return StringCache.SHARED.intern(reader.nextText());
         }
+        final Object value = reader.nextValue();
+        return (value instanceof JSONObject) ? null : value;
     }
 
     /**
+     * Decode the captured value of a {@link Lazy} field.
+     *
      * @param field
+     * @param raw
+     * @param format
      * @return
+     * @throws ApiException
      */
-    private JsonAttribute getAttribute(Field field) {
-        if (field.isAnnotationPresent(JsonAttribute.class)) {
-            return field.getAnnotation(JsonAttribute.class);
+    static Object decodeLazy(FieldBinding field, byte[] raw, WireFormat format) throws ApiException {
+        final ScratchBuffers scratch = ScratchBuffers.acquire();
+        try {
+            final TokenReader reader = format.reader(new ByteArrayInputStream(raw), scratch);
+            if (reader.peek() == TokenReader.Token.NULL) {
+                return null;
+            } else if (field.elementKind == FieldBinding.Kind.ENTITY) {
+                return readObject(reader, EntityRegistry.binding(
+                        field.elementType.asSubclass(ApiService.Entity.class)));
+            } else if (field.elementKind == FieldBinding.Kind.COLLECTION) {
+                final Collection<Object> array = field.newCollection();
+                reader.beginArray();
+                ParallelDecoder.readAll(reader, EntityRegistry.binding(
+                        field.elementType.asSubclass(ApiService.Entity.class)), array);
+                reader.endArray();
+                return array;
+            }
+            return reader.nextValue();
+        } catch (IOException ex) {
+            throw new ApiException(ex.getMessage(), ApiException.APIError.JSON_DECODE_ERROR);
+        } finally {
+            scratch.release();
         }
-        return null;
     }
 
     /**
-     * @param entityClass
+     * Convert json text to the field value.
+     *
+     * @param field
+     * @param text
      * @return
      * @throws ApiException
      */
-    private T instantiateEntity(Class<T> entityClass) throws ApiException {
+    private static Object parse(FieldBinding field, CharSequence text) throws ApiException {
         try {
-            final Constructor<T> constructor = entityClass.getConstructor();
-            final T entity = constructor.newInstance();
-            return entity;
-        } catch (NoSuchMethodException | SecurityException | InstantiationException | IllegalAccessException | IllegalArgumentException | InvocationTargetException ex) {
-
-            throw new ApiException(ex.getMessage(),
-                    ApiException.APIError.CONNECTION_TIMEOUT);
+            return field.converter.parse(text);
+        } catch (ApiException ex) {
+            throw ex;
+        } catch (RuntimeException ex) {
+            throw new ApiException(String.format("%s: %s", field.name, ex.getMessage()),
+                    ApiException.APIError.JSON_DECODE_ERROR);
         }
     }
 
     /**
+     * Decode an entity from a json tree.
      *
-     * @param clazz
+     * @param json
+     * @param entityClass
      * @return
+     * @throws ApiException
      */
-    private boolean isPrimitive(Class clazz) {
-        if (clazz.isPrimitive()) {
-            return true;
+    static <E extends ApiService.Entity> E fromJson(JSONObject json, Class<E> entityClass)
+            throws ApiException {
+
+        return buildObject(json, EntityRegistry.binding(entityClass));
+    }
+
+    /**
+     * @param json
+     * @param binding
+     * @throws ApiException
+     */
+    private static <E extends ApiService.Entity> E buildObject(JSONObject json, EntityBinding<E> binding)
+            throws ApiException {
+
+        final long[] seen = binding.newSeen();
+        if (binding.hasCreator()) {
+            final Object[] args = binding.newArguments();
+            for (Object o : json.entrySet()) {
+                final Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+                final int i = binding.indexOf((String) e.getKey());
+                if (i >= 0) {
+                    final Object value = toFieldValue(binding.named[i], e.getValue());
+                    if (value != null || !binding.named[i].type.isPrimitive()) {
+                        args[i] = value;
+                    }
+                    if (seen != null && value != null) {
+                        seen[i >>> 6] |= 1L << i;
+                    }
+                }
+            }
+            if (seen != null) {
+                binding.checkRequired(seen);
+            }
+            return binding.create(args);
+        }
+        final E entity = binding.obtain();
+        for (Object o : json.entrySet()) {
+            final Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            final int i = binding.indexOf((String) e.getKey());
+            if (i >= 0) {
+                if (seen != null && e.getValue() != null) {
+                    seen[i >>> 6] |= 1L << i;
+                }
+                setFieldValue(binding.named[i], entity, e.getValue());
+            }
+        }
+        if (seen != null) {
+            binding.checkRequired(seen);
+        }
+        return entity;
+    }
+
+    /**
+     * @param field
+     * @param entity
+     * @param value
+     * @throws ApiException
+     */
+    private static void setFieldValue(FieldBinding field, Object entity, Object value) throws ApiException {
+
+        final FieldAccessor accessor = field.accessor;
+        if (field.kind == FieldBinding.Kind.INT) {
+            accessor.setInt(entity, ((Number) value).intValue());
+        } else if (field.kind == FieldBinding.Kind.FLOAT) {
+            accessor.setFloat(entity, ((Number) value).floatValue());
+        } else if (field.type == long.class && (value instanceof Number)) {
+            accessor.setLong(entity, ((Number) value).longValue());
+        } else if (field.type == double.class && (value instanceof Number)) {
+            accessor.setDouble(entity, ((Number) value).doubleValue());
+        } else if (field.type == boolean.class && (value instanceof Boolean)) {
+            accessor.setBoolean(entity, (Boolean) value);
         } else {
-            return Integer.class.isAssignableFrom(clazz)
-                    || Long.class.isAssignableFrom(clazz)
-                    || Float.class.isAssignableFrom(clazz)
-                    || Double.class.isAssignableFrom(clazz)
-                    || Boolean.class.isAssignableFrom(clazz);
+            accessor.set(entity, toFieldValue(field, value));
+        }
+    }
+
+    /**
+     * Convert a json tree value to the value of a field, boxing primitives.
+     *
+     * @param field
+     * @param value
+     * @return
+     * @throws ApiException
+     */
+    private static Object toFieldValue(FieldBinding field, Object value) throws ApiException {
+
+        if (field.kind == FieldBinding.Kind.ENTITY && (value instanceof JSONObject)) {
+
+            return fromJson((JSONObject) value, field.type.asSubclass(ApiService.Entity.class));
+        } else if (field.kind == FieldBinding.Kind.COLLECTION && (value instanceof JSONArray)) {
+
+            final Collection<Object> array = field.newCollection();
+            if (field.elementKind == FieldBinding.Kind.ENTITY) {
+                ParallelDecoder.decodeAll((JSONArray) value,
+                        field.elementType.asSubclass(ApiService.Entity.class), array);
+            } else if (field.elementKind == FieldBinding.Kind.PRIMITIVE) {
+                array.addAll((Collection<?>) value);
+            }
+            return array;
+        } else if (field.kind == FieldBinding.Kind.ARRAY) {
+            return CodecSupport.toArray(value, field.elementType);
+        } else if (field.kind == FieldBinding.Kind.LAZY) {
+            return value == null ? null : new Lazy<>(
+                    JSONValue.toJSONString(value).getBytes(StandardCharsets.UTF_8), WireFormat.JSON, field);
+        } else if (field.kind == FieldBinding.Kind.CONVERTED) {
+            return value == null ? null : parse(field, value.toString());
+        } else if (field.kind == FieldBinding.Kind.INT && (value instanceof Number)) {
+            return ((Number) value).intValue();
+        } else if (field.kind == FieldBinding.Kind.FLOAT && (value instanceof Number)) {
+            return ((Number) value).floatValue();
+        } else if (field.type == long.class && (value instanceof Number)) {
+            return ((Number) value).longValue();
+        } else if (field.type == double.class && (value instanceof Number)) {
+            return ((Number) value).doubleValue();
+        } else if (field.intern && (value instanceof String)) {
+            return StringCache.SHARED.intern((String) value);
         }
+        return (value instanceof JSONObject) ? null : value;
     }
 }
@@ -0,0 +1,66 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Martin Kade.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.martinkade.http.entity;
+
+import de.martinkade.http.ApiException;
+import de.martinkade.http.ApiService;
+
+import java.io.IOException;
+
+/**
+ * Streaming encoder and decoder of a single entity class. Implementations
+ * named <code>&lt;Entity&gt;Codec</code> are generated into the package of
+ * the entity by
+ * {@link de.martinkade.http.entity.processor.EntityCodecProcessor} and
+ * picked up by {@link EntityBuilder} automatically whenever the entity is
+ * written to or read from a stream.
+ * <p/>
+ *
+ * @author Martin Kade
+ * @version Tue, 5 January 2016
+ * <p/>
+ * @param <T> The entity class
+ */
+public interface EntityCodec<T extends ApiService.Entity> {
+
+    /**
+     * Write the entity as object.
+     *
+     * @param writer
+     * @param entity
+     * @throws ApiException
+     * @throws IOException
+     */
+    void write(TokenWriter writer, T entity) throws ApiException, IOException;
+
+    /**
+     * Read the next value as entity.
+     *
+     * @param reader
+     * @return The entity or <code>null</code> for a json <code>null</code>
+     * @throws ApiException
+     * @throws IOException
+     */
+    T read(TokenReader reader) throws ApiException, IOException;
+}
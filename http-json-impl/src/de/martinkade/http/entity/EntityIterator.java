@@ -0,0 +1,188 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Martin Kade.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.martinkade.http.entity;
+
+import de.martinkade.http.ApiException;
+import de.martinkade.http.ApiService;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Lazily decoded json array of entities. Each call of {@link #next()} reads
+ * exactly one element from the underlying stream, so memory use is bound by
+ * a single entity rather than the whole array. The stream is closed once the
+ * end of the array is reached, on any failure or by calling {@link #close()}.
+ * <p/>
+ *
+ * @author Martin Kade
+ * @version Tue, 5 January 2016
+ * <p/>
+ * @param <T> The element class
+ */
+public final class EntityIterator<T extends ApiService.Entity> implements Iterator<T>, Closeable {
+
+    private final TokenReader reader;
+
+    private final EntityBinding<T> binding;
+
+    /**
+     * The stream the elements are read from.
+     */
+    private final Closeable source;
+
+    /**
+     * Counters updated after each element or <code>null</code>.
+     */
+    private final DecodeStats stats;
+
+    /**
+     * The buffers of the reader, released on close.
+     */
+    private ScratchBuffers scratch;
+
+    /**
+     * Flag if the reader is positioned inside the array.
+     */
+    private boolean open;
+
+    private boolean closed;
+
+    /**
+     * Constructor.
+     *
+     * @param reader The reader, positioned after the opening bracket of the
+     * array unless there is none
+     * @param binding The element binding
+     * @param source The stream to close
+     * @param scratch The buffers of the reader, <code>null</code> if there is
+     * no array to read
+     * @param stats The counters to update or <code>null</code>
+     */
+    EntityIterator(TokenReader reader, EntityBinding<T> binding, Closeable source, ScratchBuffers scratch,
+            DecodeStats stats) {
+
+        this.reader = reader;
+        this.binding = binding;
+        this.source = source;
+        this.scratch = scratch;
+        this.open = scratch != null;
+        this.stats = stats;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (!open) {
+            return false;
+        }
+        try {
+            if (reader.hasNext()) {
+                return true;
+            }
+            reader.endArray();
+            record();
+            close();
+            return false;
+        } catch (IOException ex) {
+            closeQuietly();
+            throw new ApiException(ex.getMessage(), ApiException.APIError.IO_ERROR);
+        } catch (ApiException ex) {
+            closeQuietly();
+            throw ex;
+        }
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        try {
+            final T entity = EntityBuilder.readObject(reader, binding);
+            record();
+            return entity;
+        } catch (IOException ex) {
+            closeQuietly();
+            throw new ApiException(ex.getMessage(), ApiException.APIError.IO_ERROR);
+        } catch (ApiException ex) {
+            closeQuietly();
+            throw ex;
+        }
+    }
+
+    /**
+     * Sequential stream of the remaining elements, closing this iterator
+     * when the stream is closed.
+     *
+     * @return The stream
+     */
+    public Stream<T> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED), false)
+                .onClose(() -> {
+                    try {
+                        close();
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                });
+    }
+
+    @Override
+    public void close() throws IOException {
+        open = false;
+        if (!closed) {
+            closed = true;
+            try {
+                source.close();
+            } finally {
+                if (scratch != null) {
+                    scratch.release();
+                    scratch = null;
+                }
+            }
+        }
+    }
+
+    private void record() {
+        if (stats != null) {
+            stats.record(reader);
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            close();
+        } catch (IOException ex) {
+            // already failing
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Martin Kade.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.martinkade.http.entity;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of recycled instances of one entity class. Entities handed
+ * back through {@link EntityBuilder#recycle(ApiService.Entity)} are reset
+ * and taken again by the next decode instead of allocating a new one.
+ * <p/>
+ *
+ * @author Martin Kade
+ * @version Tue, 5 January 2016
+ * <p/>
+ * @param <T> The entity class
+ */
+public final class EntityPool<T> {
+
+    private final ArrayBlockingQueue<T> free;
+
+    private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong(), dropped = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param capacity The maximum number of pooled entities
+     */
+    EntityPool(int capacity) {
+        this.free = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Take a pooled entity.
+     *
+     * @return The entity or <code>null</code> if the pool is empty
+     */
+    T poll() {
+        final T entity = free.poll();
+        (entity == null ? misses : hits).incrementAndGet();
+        return entity;
+    }
+
+    /**
+     * Hand a reset entity back, dropping it if the pool is full.
+     *
+     * @param entity
+     */
+    void offer(T entity) {
+        if (!free.offer(entity)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return The number of decoded entities taken from the pool
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return The number of decoded entities newly allocated
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return The number of recycled entities dropped because the pool was
+     * full
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return The number of entities currently pooled
+     */
+    public int getSize() {
+        return free.size();
+    }
+}
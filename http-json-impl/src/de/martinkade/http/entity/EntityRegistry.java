@@ -0,0 +1,334 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Martin Kade.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.martinkade.http.entity;
+
+import de.martinkade.http.ApiService;
+
+import java.lang.reflect.Field;
+
+import java.math.BigDecimal;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Process wide registry of {@link EntityBinding}, {@link EntityCodec} and
+ * {@link ValueConverter} instances. A binding is built on first use of an
+ * entity class and reused for every subsequent encode and decode call.
+ * Generated codecs are looked up once per entity class as well.
+ * <p/>
+ *
+ * @author Martin Kade
+ * @version Tue, 5 January 2016
+ */
+public final class EntityRegistry {
+
+    /**
+     * Identifier.
+     */
+    private static final String TAG = EntityRegistry.class.getSimpleName();
+
+    /**
+     * Bindings by entity class.
+     */
+    private static final ConcurrentMap<Class<?>, EntityBinding<?>> BINDINGS = new ConcurrentHashMap<>();
+
+    /**
+     * Codecs by entity class, empty if there is none.
+     */
+    private static final ConcurrentMap<Class<?>, Optional<EntityCodec<?>>> CODECS = new ConcurrentHashMap<>();
+
+    /**
+     * Converters by field type, enum converters are added on first use.
+     */
+    private static final ConcurrentMap<Class<?>, ValueConverter<?>> CONVERTERS = new ConcurrentHashMap<>();
+
+    static {
+        CONVERTERS.put(LocalDate.class, Converters.LOCAL_DATE);
+        CONVERTERS.put(LocalTime.class, Converters.LOCAL_TIME);
+        CONVERTERS.put(LocalDateTime.class, Converters.LOCAL_DATE_TIME);
+        CONVERTERS.put(Instant.class, Converters.INSTANT);
+        CONVERTERS.put(UUID.class, Converters.UUID);
+        CONVERTERS.put(BigDecimal.class, Converters.BIG_DECIMAL);
+    }
+
+    /**
+     * Default number of elements from which arrays are decoded in parallel.
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 4096;
+
+    /**
+     * Pool decoding large entity arrays, <code>null</code> to decode on the
+     * calling thread.
+     */
+    private static volatile ForkJoinPool decodePool;
+
+    private static volatile int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
+    /**
+     * Pools of recycled entities by class.
+     */
+    private static final ConcurrentMap<Class<?>, EntityPool<?>> POOLS = new ConcurrentHashMap<>();
+
+    /**
+     * Capacity of each entity pool, <code>0</code> if recycling is off.
+     */
+    private static volatile int poolCapacity;
+
+    /**
+     * Cache of encoded {@link Immutable} entities, <code>null</code> if
+     * disabled.
+     */
+    private static volatile EncodeCache encodeCache;
+
+    private EntityRegistry() {
+    }
+
+    /**
+     * Get the binding of the given entity class, building it on first use.
+     *
+     * @param <T> The entity class
+     * @param entityClass The entity class
+     * @return The shared binding
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends ApiService.Entity> EntityBinding<T> binding(Class<T> entityClass) {
+        EntityBinding<?> binding = BINDINGS.get(entityClass);
+        if (binding == null) {
+            binding = new EntityBinding<>(entityClass);
+            final EntityBinding<?> existing = BINDINGS.putIfAbsent(entityClass, binding);
+            if (existing != null) {
+                binding = existing;
+            }
+        }
+        return (EntityBinding<T>) binding;
+    }
+
+    /**
+     * Get the codec of the given entity class. On first use the generated
+     * codec <code>&lt;package&gt;.&lt;Entity&gt;Codec</code> is loaded,
+     * nested class names joined by an underscore.
+     *
+     * @param <T> The entity class
+     * @param entityClass The entity class
+     * @return The codec or <code>null</code> if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends ApiService.Entity> EntityCodec<T> codec(Class<T> entityClass) {
+        Optional<EntityCodec<?>> codec = CODECS.get(entityClass);
+        if (codec == null) {
+            codec = CODECS.computeIfAbsent(entityClass, EntityRegistry::loadCodec);
+        }
+        return (EntityCodec<T>) codec.orElse(null);
+    }
+
+    /**
+     * Register a hand written codec, replacing a generated one.
+     *
+     * @param <T> The entity class
+     * @param entityClass The entity class
+     * @param codec The codec
+     */
+    public static <T extends ApiService.Entity> void register(Class<T> entityClass, EntityCodec<T> codec) {
+        CODECS.put(entityClass, Optional.<EntityCodec<?>>of(codec));
+    }
+
+    /**
+     * Name of the generated codec class of the given entity class.
+     *
+     * @param entityClass The entity class
+     * @return The fully qualified codec class name
+     */
+    public static String codecName(Class<?> entityClass) {
+        final String name = entityClass.getName();
+        final int i = name.lastIndexOf('.') + 1;
+        return name.substring(0, i) + name.substring(i).replace('$', '_') + "Codec";
+    }
+
+    /**
+     *
+     * @param entityClass
+     * @return
+     */
+    private static Optional<EntityCodec<?>> loadCodec(Class<?> entityClass) {
+        final ClassLoader loader = entityClass.getClassLoader();
+        if (loader == null) {
+            return Optional.empty();
+        }
+        try {
+            final Class<?> clazz = Class.forName(codecName(entityClass), true, loader);
+            if (EntityCodec.class.isAssignableFrom(clazz)) {
+                return Optional.<EntityCodec<?>>of((EntityCodec<?>) clazz.getConstructor().newInstance());
+            }
+        } catch (ClassNotFoundException | LinkageError ex) {
+            // no generated codec
+        } catch (ReflectiveOperationException | SecurityException ex) {
+            Logger.getLogger(TAG).log(Level.WARNING, String.format("%s: %s", entityClass.getName(), ex));
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Register a converter for all fields of the given type, replacing a
+     * built-in one. Cached bindings and codecs are dropped so that
+     * subsequent calls pick up the converter.
+     *
+     * @param <V> The field type
+     * @param type The field type
+     * @param converter The converter
+     */
+    public static <V> void registerConverter(Class<V> type, ValueConverter<V> converter) {
+        CONVERTERS.put(type, converter);
+        BINDINGS.clear();
+        CODECS.clear();
+    }
+
+    /**
+     * Get the converter of the given field type.
+     *
+     * @param <V> The field type
+     * @param type The field type
+     * @return The registered converter, a shared converter for enum types or
+     * <code>null</code>
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public static <V> ValueConverter<V> converter(Class<V> type) {
+        ValueConverter<?> converter = CONVERTERS.get(type);
+        if (converter == null && type.isEnum()) {
+            converter = new Converters.EnumConverter(type);
+            final ValueConverter<?> existing = CONVERTERS.putIfAbsent(type, converter);
+            if (existing != null) {
+                converter = existing;
+            }
+        }
+        return (ValueConverter<V>) converter;
+    }
+
+    /**
+     * Get the converter of an annotated field, honoring a pattern given by
+     * {@link JsonAttribute#pattern()}.
+     *
+     * @param field
+     * @param attribute
+     * @return The converter or <code>null</code>
+     */
+    static ValueConverter<?> converter(Field field, JsonAttribute attribute) {
+        if (!attribute.pattern().isEmpty()) {
+            final ValueConverter<?> converter = Converters.forPattern(field.getType(), attribute.pattern());
+            if (converter != null) {
+                return converter;
+            }
+        }
+        return converter(field.getType());
+    }
+
+    /**
+     * Decode arrays of entities with at least the given number of elements
+     * across the given pool, preserving their order. Off by default.
+     *
+     * @param pool The pool or <code>null</code> to decode on the calling
+     * thread
+     * @param threshold The smallest array decoded in parallel
+     */
+    public static void setParallelDecoding(ForkJoinPool pool, int threshold) {
+        parallelThreshold = threshold;
+        decodePool = pool;
+    }
+
+    public static ForkJoinPool getDecodePool() {
+        return decodePool;
+    }
+
+    public static int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * Cache the encoded bytes of {@link Immutable} entities, reusing them
+     * whenever the same instance is encoded again in the same format. Off
+     * by default.
+     *
+     * @param maxBytes The total size of all cached encodings, <code>0</code>
+     * to disable the cache
+     */
+    public static void setEncodeCacheSize(int maxBytes) {
+        encodeCache = maxBytes > 0 ? new EncodeCache(maxBytes) : null;
+    }
+
+    static EncodeCache encodeCache() {
+        return encodeCache;
+    }
+
+    /**
+     * Reuse entities handed back through
+     * {@link EntityBuilder#recycle(ApiService.Entity)} when decoding, keeping
+     * up to the given number of them per class. Off by default.
+     *
+     * @param capacity The maximum number of pooled entities per class,
+     * <code>0</code> to turn recycling off
+     */
+    public static void setPoolCapacity(int capacity) {
+        poolCapacity = capacity;
+        POOLS.clear();
+    }
+
+    /**
+     * Get the pool of recycled entities of a class, e.g. for its hit and
+     * miss counts.
+     *
+     * @param <T>
+     * @param entityClass
+     * @return The pool or <code>null</code> if recycling is off
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends ApiService.Entity> EntityPool<T> pool(Class<T> entityClass) {
+        final int capacity = poolCapacity;
+        if (capacity <= 0) {
+            return null;
+        }
+        return (EntityPool<T>) POOLS.computeIfAbsent(entityClass, c -> new EntityPool<>(capacity));
+    }
+
+    /**
+     * Drop all cached bindings, codecs and encodings.
+     */
+    public static void clear() {
+        BINDINGS.clear();
+        CODECS.clear();
+        final EncodeCache cache = encodeCache;
+        if (cache != null) {
+            setEncodeCacheSize(cache.maxBytes());
+        }
+    }
+}
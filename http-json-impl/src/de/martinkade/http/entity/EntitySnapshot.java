@@ -0,0 +1,121 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Martin Kade.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.martinkade.http.entity;
+
+import de.martinkade.http.ApiException;
+import de.martinkade.http.ApiService;
+
+import java.util.Map;
+import java.util.Objects;
+
+import org.json.simple.JSONObject;
+
+/**
+ * Attribute values of an entity at the time the snapshot was taken, e.g.
+ * right after it was received. {@link #changes()} compares them with the
+ * current values and yields only the changed attributes as json merge
+ * patch (RFC 7386), so an update of one or two attributes of a large entity
+ * does not have to send all of them.
+ * <p/>
+ *
+ * @author Martin Kade
+ * @version Tue, 5 January 2016
+ * <p/>
+ * @param <T> The entity class
+ */
+public final class EntitySnapshot<T extends ApiService.Entity> {
+
+    private final T entity;
+
+    /**
+     * The encoded attribute values at snapshot time.
+     */
+    private final JSONObject values;
+
+    /**
+     * Constructor.
+     *
+     * @param entity The tracked entity
+     * @throws ApiException
+     */
+    EntitySnapshot(T entity) throws ApiException {
+        this.entity = entity;
+        this.values = EntityBuilder.toJson(entity);
+    }
+
+    public T getEntity() {
+        return entity;
+    }
+
+    /**
+     * Get the attributes changed since the snapshot. Nested entities are
+     * compared attribute by attribute, collections and arrays are replaced
+     * as a whole, and attributes set to <code>null</code> are included with
+     * a <code>null</code> value.
+     *
+     * @return The changes as merge patch, empty if nothing changed
+     * @throws ApiException
+     */
+    public JSONObject changes() throws ApiException {
+        return diff(values, EntityBuilder.toJson(entity));
+    }
+
+    /**
+     * @return <code>true</code> if any attribute changed since the snapshot
+     * @throws ApiException
+     */
+    public boolean isChanged() throws ApiException {
+        return !values.equals(EntityBuilder.toJson(entity));
+    }
+
+    /**
+     * Build the merge patch turning one json object into another.
+     *
+     * @param before
+     * @param after
+     * @return The patch
+     */
+    @SuppressWarnings("unchecked")
+    static JSONObject diff(Map<?, ?> before, Map<?, ?> after) {
+        final JSONObject patch = new JSONObject();
+        for (Object key : before.keySet()) {
+            if (!after.containsKey(key)) {
+                patch.put(key, null);
+            }
+        }
+        for (Map.Entry<?, ?> e : after.entrySet()) {
+            final Object old = before.get(e.getKey());
+            final Object value = e.getValue();
+            if (old instanceof Map && value instanceof Map) {
+                final JSONObject nested = diff((Map<?, ?>) old, (Map<?, ?>) value);
+                if (!nested.isEmpty()) {
+                    patch.put(e.getKey(), nested);
+                }
+            } else if (!before.containsKey(e.getKey()) || !Objects.equals(old, value)) {
+                patch.put(e.getKey(), value);
+            }
+        }
+        return patch;
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Martin Kade.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.martinkade.http.entity;
+
+import de.martinkade.http.ApiException;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Read and write access to a single entity field. The primitive setters
+ * write <code>int</code>, <code>long</code>, <code>float</code>,
+ * <code>double</code> and <code>boolean</code> fields without boxing; for
+ * wrapper typed fields they box and delegate to {@link #set}.
+ * <p/>
+ *
+ * @author Martin Kade
+ * @version Tue, 5 January 2016
+ */
+public abstract class FieldAccessor {
+
+    /**
+     * The accessed field.
+     */
+    protected final Field field;
+
+    /**
+     * Constructor.
+     *
+     * @param field The accessed field, already made accessible
+     */
+    protected FieldAccessor(Field field) {
+        this.field = field;
+    }
+
+    /**
+     * Create an accessor for the given field.
+     *
+     * @param field The accessible field
+     * @return The accessor
+     */
+    static FieldAccessor create(Field field) {
+        if (isRecord(field.getDeclaringClass())) {
+            return new RecordAccessor(field);
+        }
+        return new ReflectiveAccessor(field);
+    }
+
+    /**
+     * Check for a record class without the <code>Class.isRecord()</code>
+     * API the module does not compile against.
+     *
+     * @param type
+     * @return <code>true</code> if the type is a record
+     */
+    static boolean isRecord(Class<?> type) {
+        final Class<?> superclass = type.getSuperclass();
+        return superclass != null && "java.lang.Record".equals(superclass.getName());
+    }
+
+    public abstract Object get(Object entity) throws ApiException;
+
+    public abstract void set(Object entity, Object value) throws ApiException;
+
+    public abstract void setInt(Object entity, int value) throws ApiException;
+
+    public abstract void setLong(Object entity, long value) throws ApiException;
+
+    public abstract void setFloat(Object entity, float value) throws ApiException;
+
+    public abstract void setDouble(Object entity, double value) throws ApiException;
+
+    public abstract void setBoolean(Object entity, boolean value) throws ApiException;
+
+    /**
+     *
+     * @param ex
+     * @return
+     */
+    protected final ApiException error(Throwable ex) {
+        return new ApiException(String.format("%s: %s", field.getName(), ex.getMessage()),
+                ApiException.APIError.CONNECTION_TIMEOUT);
+    }
+
+    /**
+     * {@link Field} based accessor.
+     */
+    static final class ReflectiveAccessor extends FieldAccessor {
+
+        ReflectiveAccessor(Field field) {
+            super(field);
+        }
+
+        @Override
+        public Object get(Object entity) throws ApiException {
+            try {
+                return field.get(entity);
+            } catch (IllegalArgumentException | IllegalAccessException ex) {
+                throw error(ex);
+            }
+        }
+
+        @Override
+        public void set(Object entity, Object value) throws ApiException {
+            try {
+                field.set(entity, value);
+            } catch (IllegalArgumentException | IllegalAccessException ex) {
+                throw error(ex);
+            }
+        }
+
+        @Override
+        public void setInt(Object entity, int value) throws ApiException {
+            if (field.getType() != int.class) {
+                set(entity, value);
+                return;
+            }
+            try {
+                field.setInt(entity, value);
+            } catch (IllegalArgumentException | IllegalAccessException ex) {
+                throw error(ex);
+            }
+        }
+
+        @Override
+        public void setLong(Object entity, long value) throws ApiException {
+            if (field.getType() != long.class) {
+                set(entity, value);
+                return;
+            }
+            try {
+                field.setLong(entity, value);
+            } catch (IllegalArgumentException | IllegalAccessException ex) {
+                throw error(ex);
+            }
+        }
+
+        @Override
+        public void setFloat(Object entity, float value) throws ApiException {
+            if (field.getType() != float.class) {
+                set(entity, value);
+                return;
+            }
+            try {
+                field.setFloat(entity, value);
+            } catch (IllegalArgumentException | IllegalAccessException ex) {
+                throw error(ex);
+            }
+        }
+
+        @Override
+        public void setDouble(Object entity, double value) throws ApiException {
+            if (field.getType() != double.class) {
+                set(entity, value);
+                return;
+            }
+            try {
+                field.setDouble(entity, value);
+            } catch (IllegalArgumentException | IllegalAccessException ex) {
+                throw error(ex);
+            }
+        }
+
+        @Override
+        public void setBoolean(Object entity, boolean value) throws ApiException {
+            if (field.getType() != boolean.class) {
+                set(entity, value);
+                return;
+            }
+            try {
+                field.setBoolean(entity, value);
+            } catch (IllegalArgumentException | IllegalAccessException ex) {
+                throw error(ex);
+            }
+        }
+    }
+
+    /**
+     * Accessor of a record component. The component field is never made
+     * accessible, it is read through the public accessor method. Records are
+     * created through the canonical constructor, so all setters fail.
+     */
+    static final class RecordAccessor extends FieldAccessor {
+
+        private final Method accessor;
+
+        /**
+         * Constructor.
+         *
+         * @param field The component field, not made accessible
+         */
+        RecordAccessor(Field field) {
+            super(field);
+            try {
+                accessor = field.getDeclaringClass().getMethod(field.getName());
+            } catch (NoSuchMethodException ex) {
+                throw new IllegalArgumentException(String.format("%s: no public accessor of record component %s",
+                        field.getDeclaringClass().getName(), field.getName()), ex);
+            }
+        }
+
+        @Override
+        public Object get(Object entity) throws ApiException {
+            try {
+                return accessor.invoke(entity);
+            } catch (InvocationTargetException ex) {
+                if (ex.getCause() instanceof Error) {
+                    throw (Error) ex.getCause();
+                }
+                throw error(ex.getCause());
+            } catch (IllegalArgumentException | IllegalAccessException ex) {
+                throw error(ex);
+            }
+        }
+
+        @Override
+        public void set(Object entity, Object value) throws ApiException {
+            throw new ApiException(String.format("%s: record components are set by the canonical constructor",
+                    field.getName()), ApiException.APIError.JSON_DECODE_ERROR);
+        }
+
+        @Override
+        public void setInt(Object entity, int value) throws ApiException {
+            set(entity, value);
+        }
+
+        @Override
+        public void setLong(Object entity, long value) throws ApiException {
+            set(entity, value);
+        }
+
+        @Override
+        public void setFloat(Object entity, float value) throws ApiException {
+            set(entity, value);
+        }
+
+        @Override
+        public void setDouble(Object entity, double value) throws ApiException {
+            set(entity, value);
+        }
+
+        @Override
+        public void setBoolean(Object entity, boolean value) throws ApiException {
+            set(entity, value);
+        }
+    }
+}
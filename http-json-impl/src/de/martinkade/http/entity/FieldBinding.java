@@ -0,0 +1,429 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Martin Kade.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.martinkade.http.entity;
+
+import de.martinkade.http.ApiException;
+import de.martinkade.http.ApiService;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Resolved binding of a single {@link JsonAttribute} field. Everything that
+ * only depends on the declaring class (attribute name, value kind, collection
+ * element type) is computed once when the owning {@link EntityBinding} is
+ * built.
+ * <p/>
+ *
+ * @author Martin Kade
+ * @version Tue, 5 January 2016
+ */
+public final class FieldBinding {
+
+    /**
+     * Value kinds, each one handled by a dedicated conversion branch.
+     */
+    enum Kind {
+
+        /**
+         * Nested {@link ApiService.Entity}.
+         */
+        ENTITY,
+        /**
+         * {@link Collection} of entities or primitive wrappers.
+         */
+        COLLECTION,
+        /**
+         * <code>int[]</code>, <code>long[]</code>, <code>float[]</code> or
+         * <code>double[]</code>, read and written without boxing.
+         */
+        ARRAY,
+        /**
+         * Value with a {@link ValueConverter}, e.g. {@link LocalDate} or any
+         * {@link Enum}.
+         */
+        CONVERTED,
+        /**
+         * <code>int</code> or {@link Integer}.
+         */
+        INT,
+        /**
+         * <code>float</code> or {@link Float}.
+         */
+        FLOAT,
+        /**
+         * Primitive wrapper, primitive or any other value passed through as
+         * is.
+         */
+        PRIMITIVE,
+        /**
+         * {@link Lazy} wrapper around an entity, a collection of entities
+         * or any other value, kept encoded until first access.
+         */
+        LAZY,
+        /**
+         * Collection elements that are neither entities nor primitives.
+         */
+        UNSUPPORTED
+    }
+
+    /**
+     * The bound field, already made accessible.
+     */
+    final Field field;
+
+    /**
+     * Read and write access to {@link #field}.
+     */
+    final FieldAccessor accessor;
+
+    /**
+     * The declared type of the field.
+     */
+    final Class<?> type;
+
+    /**
+     * The annotation of the bound field.
+     */
+    final JsonAttribute attribute;
+
+    /**
+     * The json attribute name.
+     */
+    final String name;
+
+    /**
+     * The value kind of the field.
+     */
+    final Kind kind;
+
+    /**
+     * The element type and kind for {@link Kind#COLLECTION} fields, the
+     * component type for {@link Kind#ARRAY} fields. For {@link Kind#LAZY}
+     * fields the kind of the wrapped value, {@link Kind#ENTITY},
+     * {@link Kind#COLLECTION} or {@link Kind#PRIMITIVE}, and its entity or
+     * collection element type.
+     */
+    final Class<?> elementType;
+    final Kind elementKind;
+
+    /**
+     * The collection type created by {@link #newCollection()}.
+     */
+    private final Class<?> collectionType;
+
+    /**
+     * Flag to deduplicate decoded strings, see {@link JsonAttribute#intern()}.
+     */
+    final boolean intern;
+
+    /**
+     * The converter of {@link Kind#CONVERTED} fields.
+     */
+    final ValueConverter<?> converter;
+
+    /**
+     * Constructor of a concrete collection type or <code>null</code>.
+     */
+    private final Constructor<?> collectionConstructor;
+
+    /**
+     * Constructor.
+     *
+     * @param field The annotated field
+     * @param attribute The annotation of the field
+     */
+    FieldBinding(Field field, JsonAttribute attribute) {
+        if (!FieldAccessor.isRecord(field.getDeclaringClass())) {
+            field.setAccessible(true);
+        }
+        this.field = field;
+        this.accessor = FieldAccessor.create(field);
+        this.attribute = attribute;
+        this.name = attribute.name();
+        this.type = field.getType();
+        final Kind k = kindOf(type);
+        this.converter = k == Kind.PRIMITIVE && !type.isPrimitive()
+                ? EntityRegistry.converter(field, attribute)
+                : null;
+        this.kind = converter == null ? k : Kind.CONVERTED;
+        this.intern = attribute.intern() && kind == Kind.PRIMITIVE && !type.isPrimitive();
+        if (kind == Kind.COLLECTION) {
+            elementType = resolveElementType(field.getGenericType());
+            elementKind = ApiService.Entity.class.isAssignableFrom(elementType)
+                    ? Kind.ENTITY
+                    : isPrimitive(elementType) ? Kind.PRIMITIVE : Kind.UNSUPPORTED;
+            collectionType = type;
+        } else if (kind == Kind.ARRAY) {
+            elementType = type.getComponentType();
+            elementKind = Kind.PRIMITIVE;
+            collectionType = null;
+        } else if (kind == Kind.LAZY) {
+            final Type wrapped = resolveTypeArgument(field.getGenericType());
+            final Class<?> raw = wrapped instanceof ParameterizedType
+                    ? (Class<?>) ((ParameterizedType) wrapped).getRawType()
+                    : wrapped instanceof Class ? (Class<?>) wrapped : Object.class;
+            if (ApiService.Entity.class.isAssignableFrom(raw)) {
+                elementType = raw;
+                elementKind = Kind.ENTITY;
+                collectionType = null;
+            } else if (Collection.class.isAssignableFrom(raw)
+                    && ApiService.Entity.class.isAssignableFrom(resolveElementType(wrapped))) {
+                elementType = resolveElementType(wrapped);
+                elementKind = Kind.COLLECTION;
+                collectionType = raw;
+            } else {
+                elementType = raw;
+                elementKind = Kind.PRIMITIVE;
+                collectionType = null;
+            }
+        } else {
+            elementType = null;
+            elementKind = null;
+            collectionType = null;
+        }
+        collectionConstructor = collectionType == null ? null : resolveCollectionConstructor(collectionType);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Field getField() {
+        return field;
+    }
+
+    public FieldAccessor getAccessor() {
+        return accessor;
+    }
+
+    public boolean isOptional() {
+        return attribute.optional();
+    }
+
+    /**
+     * Reset the field of a recycled entity to the value a newly constructed
+     * entity holds, recycling nested entities. Mutable initial values are
+     * not shared: a collection is cleared and kept for reuse, or created,
+     * and filled with the initial elements, arrays are copied and nested
+     * entities obtained anew. Final fields are reset through the accessor like
+     * any other field, since decoding writes them as well.
+     *
+     * @param entity
+     * @param initial The value of the field in a newly constructed entity
+     * @throws ApiException
+     */
+    void reset(Object entity, Object initial) throws ApiException {
+        final Object value = accessor.get(entity);
+        if (kind == Kind.ENTITY) {
+            recycle(value);
+            accessor.set(entity, initial == null
+                    ? null
+                    : EntityRegistry.binding(type.asSubclass(ApiService.Entity.class)).obtain());
+        } else if (kind == Kind.COLLECTION) {
+            Collection<Object> c = null;
+            if (value != null && canReuse(value)) {
+                if (elementKind == Kind.ENTITY) {
+                    for (Object o : (Collection<?>) value) {
+                        recycle(o);
+                    }
+                }
+                ((Collection<?>) value).clear();
+                if (initial != null) {
+                    c = asCollection(value);
+                }
+            }
+            if (initial != null) {
+                if (c == null) {
+                    c = newCollection();
+                }
+                c.addAll((Collection<?>) initial);
+            }
+            if (c != value) {
+                accessor.set(entity, c);
+            }
+        } else if (kind == Kind.ARRAY && initial != null) {
+            final int n = Array.getLength(initial);
+            final Object copy = Array.newInstance(elementType, n);
+            System.arraycopy(initial, 0, copy, 0, n);
+            accessor.set(entity, copy);
+        } else if (type == int.class) {
+            accessor.setInt(entity, (Integer) initial);
+        } else if (type == long.class) {
+            accessor.setLong(entity, (Long) initial);
+        } else if (type == float.class) {
+            accessor.setFloat(entity, (Float) initial);
+        } else if (type == double.class) {
+            accessor.setDouble(entity, (Double) initial);
+        } else if (type == boolean.class) {
+            accessor.setBoolean(entity, (Boolean) initial);
+        } else if (value != initial) {
+            accessor.set(entity, initial);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static Collection<Object> asCollection(Object value) {
+        return (Collection<Object>) value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void recycle(Object entity) throws ApiException {
+        if (entity != null) {
+            EntityRegistry.binding((Class<ApiService.Entity>) entity.getClass()).recycle((ApiService.Entity) entity);
+        }
+    }
+
+    /**
+     * Check if a collection held by a recycled entity can be cleared and
+     * filled again.
+     *
+     * @param value
+     * @return <code>true</code> for mutable collections created by the
+     * decoder
+     */
+    boolean canReuse(Object value) {
+        final Class<?> c = value.getClass();
+        return c == ArrayList.class || c == HashSet.class
+                || (collectionConstructor != null && c == collectionConstructor.getDeclaringClass());
+    }
+
+    /**
+     * Create an empty collection suitable for the bound field.
+     *
+     * @return The new collection
+     * @throws ApiException
+     */
+    Collection<Object> newCollection() throws ApiException {
+        if (collectionConstructor == null) {
+            if (Set.class.isAssignableFrom(collectionType)) {
+                return new HashSet<>();
+            } else if (List.class.isAssignableFrom(collectionType)) {
+                return new ArrayList<>();
+            }
+            throw new ApiException("collection type is not compatible",
+                    ApiException.APIError.CONNECTION_TIMEOUT);
+        }
+        try {
+            return asCollection(collectionConstructor.newInstance());
+        } catch (InstantiationException | IllegalAccessException | IllegalArgumentException | InvocationTargetException ex) {
+            throw new ApiException(ex.getMessage(),
+                    ApiException.APIError.CONNECTION_TIMEOUT);
+        }
+    }
+
+    /**
+     *
+     * @param type
+     * @return
+     */
+    private static Kind kindOf(Class<?> type) {
+        if (ApiService.Entity.class.isAssignableFrom(type)) {
+            return Kind.ENTITY;
+        } else if (Collection.class.isAssignableFrom(type)) {
+            return Kind.COLLECTION;
+        } else if (Lazy.class == type) {
+            return Kind.LAZY;
+        } else if (type == int[].class || type == long[].class
+                || type == float[].class || type == double[].class) {
+            return Kind.ARRAY;
+        } else if (Integer.class == type || int.class == type) {
+            return Kind.INT;
+        } else if (Float.class == type || float.class == type) {
+            return Kind.FLOAT;
+        }
+        return Kind.PRIMITIVE;
+    }
+
+    /**
+     *
+     * @param type
+     * @return
+     */
+    private static Class<?> resolveElementType(Type type) {
+        final Type arg = resolveTypeArgument(type);
+        if (arg instanceof Class) {
+            return (Class<?>) arg;
+        } else if (arg instanceof ParameterizedType) {
+            return (Class<?>) ((ParameterizedType) arg).getRawType();
+        }
+        return Object.class;
+    }
+
+    /**
+     *
+     * @param type
+     * @return The first type argument or <code>null</code>
+     */
+    private static Type resolveTypeArgument(Type type) {
+        if (type instanceof ParameterizedType) {
+            return ((ParameterizedType) type).getActualTypeArguments()[0];
+        }
+        return null;
+    }
+
+    /**
+     *
+     * @param type
+     * @return
+     */
+    private static Constructor<?> resolveCollectionConstructor(Class<?> type) {
+        if (type.isInterface() || Modifier.isAbstract(type.getModifiers())) {
+            return null;
+        }
+        try {
+            return type.getConstructor();
+        } catch (NoSuchMethodException | SecurityException ex) {
+            return null;
+        }
+    }
+
+    /**
+     *
+     * @param clazz
+     * @return
+     */
+    static boolean isPrimitive(Class<?> clazz) {
+        if (clazz.isPrimitive()) {
+            return true;
+        } else {
+            return Integer.class.isAssignableFrom(clazz)
+                    || Long.class.isAssignableFrom(clazz)
+                    || Float.class.isAssignableFrom(clazz)
+                    || Double.class.isAssignableFrom(clazz)
+                    || Boolean.class.isAssignableFrom(clazz);
+        }
+    }
+}
@@ -47,9 +47,30 @@ public @interface JsonAttribute {
 
     /**
      * Flag if the value of a {@link JSONObject} attribute is optional, meaning
-     * not required. Default is true.
+     * not required. Decoding fails if a required attribute is missing or
+     * <code>null</code>. Default is true.
      *
      * @return
      */
     boolean optional() default true;
+
+    /**
+     * Custom {@link java.time.format.DateTimeFormatter} pattern of a
+     * <code>LocalDate</code>, <code>LocalTime</code> or
+     * <code>LocalDateTime</code> attribute. Default is empty, using
+     * <code>yyyy-MM-dd</code>, <code>HH:mm:ss</code> and
+     * <code>yyyy-MM-dd HH:mm:ss</code> respectively.
+     *
+     * @return
+     */
+    String pattern() default "";
+
+    /**
+     * Flag to deduplicate decoded string values of the attribute through a
+     * shared, bounded cache, for attributes with few distinct values like
+     * status or country codes. Default is false.
+     *
+     * @return
+     */
+    boolean intern() default false;
 }
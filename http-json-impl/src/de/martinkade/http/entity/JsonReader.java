@@ -0,0 +1,715 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Martin Kade.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.martinkade.http.entity;
+
+import de.martinkade.http.ApiException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Pull parser reading UTF-8 encoded json token by token from an
+ * {@link InputStream}. Apart from the values handed out, memory use is bound
+ * by a fixed size read buffer and the nesting depth of the document.
+ * <p/>
+ *
+ * @author Martin Kade
+ * @version Tue, 5 January 2016
+ */
+final class JsonReader extends TokenReader {
+
+    /**
+     * Scopes of the nesting stack.
+     */
+    private static final int EMPTY_DOCUMENT = 0, NONEMPTY_DOCUMENT = 1, EMPTY_ARRAY = 2,
+            NONEMPTY_ARRAY = 3, EMPTY_OBJECT = 4, DANGLING_NAME = 5, NONEMPTY_OBJECT = 6;
+
+    /**
+     * Powers of ten exactly representable as double.
+     */
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /**
+     * Default size of the read buffer.
+     */
+    static final int BUFFER_SIZE = 8192;
+
+    private final InputStream in;
+
+    private final byte[] buf;
+
+    /**
+     * Read position and end of valid data in {@link #buf}.
+     */
+    private int pos, limit;
+
+    /**
+     * Number of bytes read from the stream before the current buffer.
+     */
+    private long offset;
+
+    private int[] stack = new int[32];
+
+    private int depth;
+
+    /**
+     * Bytes of a value read by {@link #nextRaw()} so far and the start of
+     * the rest of it in {@link #buf}, <code>null</code> if not capturing.
+     */
+    private ByteArrayOutputStream capture;
+
+    private int captureFrom;
+
+    /**
+     * The current token, <code>null</code> if not yet peeked.
+     */
+    private Token peeked;
+
+    /**
+     * Scratch buffer for strings and number literals.
+     */
+    private final StringBuilder chars;
+
+    /**
+     * Constructor.
+     *
+     * @param in The UTF-8 encoded json input
+     */
+    JsonReader(InputStream in) {
+        this(in, new byte[BUFFER_SIZE], new StringBuilder());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param in The UTF-8 encoded json input
+     * @param buf The read buffer
+     * @param chars The scratch buffer for strings and number literals
+     */
+    JsonReader(InputStream in, byte[] buf, StringBuilder chars) {
+        this.in = in;
+        this.buf = buf;
+        this.chars = chars;
+        stack[depth++] = EMPTY_DOCUMENT;
+    }
+
+    /**
+     * Get the type of the next token without consuming it.
+     *
+     * @return The next token
+     * @throws IOException
+     * @throws ApiException
+     */
+    @Override
+    public Token peek() throws IOException, ApiException {
+        if (peeked != null) {
+            return peeked;
+        }
+        int c;
+        switch (stack[depth - 1]) {
+            case EMPTY_ARRAY:
+                stack[depth - 1] = NONEMPTY_ARRAY;
+                if (nextNonWhitespace() == ']') {
+                    pos++;
+                    return peeked = Token.END_ARRAY;
+                }
+                break;
+            case NONEMPTY_ARRAY:
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    pos++;
+                    return peeked = Token.END_ARRAY;
+                } else if (c != ',') {
+                    throw syntaxError("expected ',' or ']'");
+                }
+                pos++;
+                break;
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                c = nextNonWhitespace();
+                if (c == '}') {
+                    pos++;
+                    return peeked = Token.END_OBJECT;
+                }
+                if (stack[depth - 1] == NONEMPTY_OBJECT) {
+                    if (c != ',') {
+                        throw syntaxError("expected ',' or '}'");
+                    }
+                    pos++;
+                    c = nextNonWhitespace();
+                }
+                if (c != '"') {
+                    throw syntaxError("expected name");
+                }
+                pos++;
+                stack[depth - 1] = DANGLING_NAME;
+                return peeked = Token.NAME;
+            case DANGLING_NAME:
+                if (nextNonWhitespace() != ':') {
+                    throw syntaxError("expected ':'");
+                }
+                pos++;
+                stack[depth - 1] = NONEMPTY_OBJECT;
+                break;
+            case EMPTY_DOCUMENT:
+                stack[depth - 1] = NONEMPTY_DOCUMENT;
+                if (nextNonWhitespace() == -1) {
+                    return peeked = Token.END_DOCUMENT;
+                }
+                break;
+            default:
+                if (nextNonWhitespace() == -1) {
+                    return peeked = Token.END_DOCUMENT;
+                }
+                throw syntaxError("expected end of document");
+        }
+
+        c = nextNonWhitespace();
+        switch (c) {
+            case '{':
+                pos++;
+                return peeked = Token.BEGIN_OBJECT;
+            case '[':
+                pos++;
+                return peeked = Token.BEGIN_ARRAY;
+            case '"':
+                pos++;
+                return peeked = Token.STRING;
+            case 't':
+            case 'f':
+                return peeked = Token.BOOLEAN;
+            case 'n':
+                return peeked = Token.NULL;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    return peeked = Token.NUMBER;
+                }
+                throw syntaxError(c == -1 ? "unexpected end of document" : "unexpected character");
+        }
+    }
+
+    @Override
+    public void beginObject() throws IOException, ApiException {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    @Override
+    public void endObject() throws IOException, ApiException {
+        expect(Token.END_OBJECT);
+        depth--;
+    }
+
+    @Override
+    public void beginArray() throws IOException, ApiException {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    @Override
+    public void endArray() throws IOException, ApiException {
+        expect(Token.END_ARRAY);
+        depth--;
+    }
+
+    @Override
+    public String nextName() throws IOException, ApiException {
+        expect(Token.NAME);
+        readString();
+        return StringCache.SHARED.intern(chars);
+    }
+
+    /**
+     * Read a name and look it up without creating a string, unless the name
+     * has escapes or spans the end of the read buffer.
+     *
+     * @param names The names to look up
+     * @return The index of the name or <code>-1</code> if it is not in the
+     * table
+     * @throws IOException
+     * @throws ApiException
+     */
+    @Override
+    public int nextName(NameTable names) throws IOException, ApiException {
+        expect(Token.NAME);
+        int h = NameTable.SEED;
+        for (int p = pos; p < limit; p++) {
+            final byte b = buf[p];
+            if (b == '"') {
+                final int index = names.get(buf, pos, p, h);
+                pos = p + 1;
+                return index;
+            } else if (b == '\\') {
+                break;
+            }
+            h = (h ^ (b & 0xff)) * NameTable.PRIME;
+        }
+        readString();
+        return names.get(chars);
+    }
+
+    @Override
+    public String nextString() throws IOException, ApiException {
+        expect(Token.STRING);
+        readString();
+        return chars.toString();
+    }
+
+    /**
+     * Read a string or the literal of a number into the scratch buffer.
+     *
+     * @return The text, only valid until the next read
+     * @throws IOException
+     * @throws ApiException
+     */
+    @Override
+    public CharSequence nextText() throws IOException, ApiException {
+        if (peek() == Token.NUMBER) {
+            peeked = null;
+            readNumber();
+            return chars;
+        }
+        expect(Token.STRING);
+        readString();
+        return chars;
+    }
+
+    @Override
+    public boolean nextBoolean() throws IOException, ApiException {
+        expect(Token.BOOLEAN);
+        if (buf[pos] == 't') {
+            literal("true");
+            return true;
+        }
+        literal("false");
+        return false;
+    }
+
+    @Override
+    public void nextNull() throws IOException, ApiException {
+        expect(Token.NULL);
+        literal("null");
+    }
+
+    /**
+     * Read a number, truncating fractional values.
+     *
+     * @return The value
+     * @throws IOException
+     * @throws ApiException
+     */
+    @Override
+    public long nextLong() throws IOException, ApiException {
+        expect(Token.NUMBER);
+        if (readNumber()) {
+            return (long) parseDouble();
+        }
+        return parseLong();
+    }
+
+    @Override
+    public double nextDouble() throws IOException, ApiException {
+        expect(Token.NUMBER);
+        return readNumber() ? parseDouble() : parseLong();
+    }
+
+    @Override
+    Number nextNumber() throws IOException, ApiException {
+        expect(Token.NUMBER);
+        return readNumber() ? (Number) parseDouble() : (Number) parseLong();
+    }
+
+    /**
+     * Skip the next value including all nested values without materializing
+     * it.
+     *
+     * @throws IOException
+     * @throws ApiException
+     */
+    @Override
+    public void skipValue() throws IOException, ApiException {
+        final int consumed = consumed(peek());
+        final long start = position() - consumed;
+        skip();
+        skippedBytes += position() - start;
+        skippedValues++;
+    }
+
+    @Override
+    void nextRaw(ByteArrayOutputStream out) throws IOException, ApiException {
+        final int consumed = consumed(peek());
+        capture = out;
+        captureFrom = pos - consumed;
+        try {
+            skip();
+            capture.write(buf, captureFrom, pos - captureFrom);
+        } finally {
+            capture = null;
+        }
+    }
+
+    @Override
+    WireFormat format() {
+        return WireFormat.JSON;
+    }
+
+    /**
+     * Number of bytes of a peeked token already consumed.
+     */
+    private static int consumed(Token token) {
+        return token == Token.BEGIN_OBJECT || token == Token.BEGIN_ARRAY || token == Token.STRING ? 1 : 0;
+    }
+
+    /**
+     * Read over the next value including all nested values.
+     */
+    private void skip() throws IOException, ApiException {
+        int count = 0;
+        do {
+            switch (peek()) {
+                case BEGIN_OBJECT:
+                    beginObject();
+                    count++;
+                    break;
+                case BEGIN_ARRAY:
+                    beginArray();
+                    count++;
+                    break;
+                case END_OBJECT:
+                    endObject();
+                    count--;
+                    break;
+                case END_ARRAY:
+                    endArray();
+                    count--;
+                    break;
+                case NAME:
+                case STRING:
+                    peeked = null;
+                    skipString();
+                    break;
+                case NUMBER:
+                    peeked = null;
+                    readNumber();
+                    break;
+                case BOOLEAN:
+                    nextBoolean();
+                    break;
+                case NULL:
+                    nextNull();
+                    break;
+                default:
+                    throw syntaxError("expected value");
+            }
+        } while (count > 0);
+    }
+
+    /**
+     * Position of the reader in the input.
+     *
+     * @return The number of bytes consumed
+     */
+    @Override
+    long position() {
+        return offset + pos;
+    }
+
+    private void expect(Token token) throws IOException, ApiException {
+        if (peek() != token) {
+            throw syntaxError(String.format("expected %s but was %s", token, peeked));
+        }
+        peeked = null;
+    }
+
+    private void push(int scope) {
+        if (depth == stack.length) {
+            final int[] s = new int[depth * 2];
+            System.arraycopy(stack, 0, s, 0, depth);
+            stack = s;
+        }
+        stack[depth++] = scope;
+    }
+
+    /**
+     * Make sure there is at least one byte to read.
+     *
+     * @return <code>false</code> at the end of the input
+     * @throws IOException
+     */
+    private boolean fill() throws IOException {
+        if (pos < limit) {
+            return true;
+        }
+        if (capture != null) {
+            capture.write(buf, captureFrom, limit - captureFrom);
+            captureFrom = 0;
+        }
+        offset += limit;
+        pos = 0;
+        limit = 0;
+        final int n = in.read(buf, 0, buf.length);
+        if (n > 0) {
+            limit = n;
+            return true;
+        }
+        return false;
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        while (fill()) {
+            final int c = buf[pos];
+            if (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                pos++;
+            } else {
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    private int read() throws IOException, ApiException {
+        if (!fill()) {
+            throw syntaxError("unexpected end of document");
+        }
+        return buf[pos++] & 0xff;
+    }
+
+    private void literal(String s) throws IOException, ApiException {
+        for (int i = 0; i < s.length(); i++) {
+            if (read() != s.charAt(i)) {
+                throw syntaxError("expected " + s);
+            }
+        }
+    }
+
+    /**
+     * Decode the string after the opening quote into {@link #chars}.
+     */
+    private void readString() throws IOException, ApiException {
+        chars.setLength(0);
+        while (true) {
+            if (!fill()) {
+                throw syntaxError("unterminated string");
+            }
+            // ascii fast path
+            int p = pos;
+            final int l = limit;
+            while (p < l) {
+                final byte b = buf[p];
+                if (b == '"' || b == '\\' || b < 0) {
+                    break;
+                }
+                chars.append((char) b);
+                p++;
+            }
+            pos = p;
+            if (p == l) {
+                continue;
+            }
+            final int c = read();
+            if (c == '"') {
+                return;
+            } else if (c == '\\') {
+                readEscape();
+            } else if ((c & 0xe0) == 0xc0) {
+                chars.append((char) (((c & 0x1f) << 6) | continuation()));
+            } else if ((c & 0xf0) == 0xe0) {
+                chars.append((char) (((c & 0x0f) << 12) | (continuation() << 6) | continuation()));
+            } else if ((c & 0xf8) == 0xf0) {
+                chars.appendCodePoint(((c & 0x07) << 18) | (continuation() << 12)
+                        | (continuation() << 6) | continuation());
+            } else {
+                throw syntaxError("malformed UTF-8");
+            }
+        }
+    }
+
+    private int continuation() throws IOException, ApiException {
+        final int c = read();
+        if ((c & 0xc0) != 0x80) {
+            throw syntaxError("malformed UTF-8");
+        }
+        return c & 0x3f;
+    }
+
+    private void readEscape() throws IOException, ApiException {
+        final int c = read();
+        switch (c) {
+            case 'b':
+                chars.append('\b');
+                break;
+            case 'f':
+                chars.append('\f');
+                break;
+            case 'n':
+                chars.append('\n');
+                break;
+            case 'r':
+                chars.append('\r');
+                break;
+            case 't':
+                chars.append('\t');
+                break;
+            case 'u':
+                int v = 0;
+                for (int i = 0; i < 4; i++) {
+                    final int h = Character.digit(read(), 16);
+                    if (h < 0) {
+                        throw syntaxError("malformed unicode escape");
+                    }
+                    v = (v << 4) | h;
+                }
+                chars.append((char) v);
+                break;
+            default:
+                chars.append((char) c);
+        }
+    }
+
+    /**
+     * Skip the string after the opening quote.
+     */
+    private void skipString() throws IOException, ApiException {
+        while (true) {
+            final int c = read();
+            if (c == '"') {
+                return;
+            } else if (c == '\\') {
+                read();
+            }
+        }
+    }
+
+    /**
+     * Read a number literal into {@link #chars}.
+     *
+     * @return <code>true</code> if the literal has a fraction or exponent
+     */
+    private boolean readNumber() throws IOException {
+        chars.setLength(0);
+        boolean fraction = false;
+        while (fill()) {
+            final int c = buf[pos];
+            if ((c >= '0' && c <= '9') || c == '-' || c == '+') {
+                chars.append((char) c);
+            } else if (c == '.' || c == 'e' || c == 'E') {
+                chars.append((char) c);
+                fraction = true;
+            } else {
+                break;
+            }
+            pos++;
+        }
+        return fraction;
+    }
+
+    private long parseLong() throws ApiException {
+        final int length = chars.length();
+        final boolean negative = length > 0 && chars.charAt(0) == '-';
+        int i = negative ? 1 : 0;
+        if (i == length || length - i > 18) {
+            try {
+                return Long.parseLong(chars.toString());
+            } catch (NumberFormatException ex) {
+                throw syntaxError("malformed number");
+            }
+        }
+        long v = 0;
+        for (; i < length; i++) {
+            final int d = chars.charAt(i) - '0';
+            if (d < 0 || d > 9) {
+                throw syntaxError("malformed number");
+            }
+            v = v * 10 + d;
+        }
+        return negative ? -v : v;
+    }
+
+    /**
+     * Parse the literal in {@link #chars}. Literals of up to 15 significant
+     * digits with a small exponent are computed exactly from the digits,
+     * everything else is left to {@link Double#parseDouble(String)}.
+     *
+     * @return The value
+     * @throws ApiException
+     */
+    private double parseDouble() throws ApiException {
+        final int length = chars.length();
+        final boolean negative = length > 0 && chars.charAt(0) == '-';
+        int i = negative ? 1 : 0, digits = 0, exponent = 0, d;
+        long mantissa = 0;
+        boolean valid = i < length && isDigit(chars.charAt(i));
+        for (; i < length && isDigit(d = chars.charAt(i)); i++) {
+            mantissa = mantissa * 10 + d - '0';
+            if (mantissa != 0) {
+                digits++;
+            }
+        }
+        if (i < length && chars.charAt(i) == '.') {
+            valid &= ++i < length && isDigit(chars.charAt(i));
+            for (; i < length && isDigit(d = chars.charAt(i)); i++) {
+                mantissa = mantissa * 10 + d - '0';
+                if (mantissa != 0) {
+                    digits++;
+                }
+                exponent--;
+            }
+        }
+        if (i < length && (chars.charAt(i) == 'e' || chars.charAt(i) == 'E')) {
+            final boolean negativeExponent = ++i < length && chars.charAt(i) == '-';
+            if (i < length && (chars.charAt(i) == '-' || chars.charAt(i) == '+')) {
+                i++;
+            }
+            valid &= i < length && length - i < 4;
+            int e = 0;
+            for (; i < length && isDigit(d = chars.charAt(i)); i++) {
+                e = e * 10 + d - '0';
+            }
+            exponent += negativeExponent ? -e : e;
+        }
+        if (valid && i == length && digits <= 15) {
+            if (mantissa == 0) {
+                return negative ? -0.0d : 0.0d;
+            } else if (exponent >= -22 && exponent <= 22) {
+                final double v = exponent < 0
+                        ? mantissa / POWERS_OF_TEN[-exponent]
+                        : mantissa * POWERS_OF_TEN[exponent];
+                return negative ? -v : v;
+            }
+        }
+        try {
+            return Double.parseDouble(chars.toString());
+        } catch (NumberFormatException ex) {
+            throw syntaxError("malformed number");
+        }
+    }
+
+    private static boolean isDigit(int c) {
+        return c >= '0' && c <= '9';
+    }
+}
@@ -0,0 +1,393 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Martin Kade.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.martinkade.http.entity;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writer emitting UTF-8 encoded json straight into an {@link OutputStream}.
+ * Output is collected in a fixed size buffer and handed to the stream
+ * whenever it is full, so no intermediate string of the document exists.
+ * <p/>
+ *
+ * @author Martin Kade
+ * @version Tue, 5 January 2016
+ */
+final class JsonWriter extends TokenWriter {
+
+    /**
+     * Scopes of the nesting stack.
+     */
+    private static final int EMPTY_DOCUMENT = 0, NONEMPTY_DOCUMENT = 1, EMPTY_ARRAY = 2,
+            NONEMPTY_ARRAY = 3, EMPTY_OBJECT = 4, DANGLING_NAME = 5, NONEMPTY_OBJECT = 6;
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+
+    /**
+     * Default size of the write buffer.
+     */
+    static final int BUFFER_SIZE = 8192;
+
+    private final OutputStream out;
+
+    private final byte[] buf;
+
+    /**
+     * Write position in {@link #buf}.
+     */
+    private int pos;
+
+    private int[] stack = new int[32];
+
+    private int depth;
+
+    /**
+     * Constructor.
+     *
+     * @param out The target stream
+     */
+    JsonWriter(OutputStream out) {
+        this(out, new byte[BUFFER_SIZE], new StringBuilder());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param out The target stream
+     * @param buf The write buffer, at least 8 bytes
+     * @param chars The scratch buffer for converted values
+     */
+    JsonWriter(OutputStream out, byte[] buf, StringBuilder chars) {
+        super(chars);
+        this.out = out;
+        this.buf = buf;
+        stack[depth++] = EMPTY_DOCUMENT;
+    }
+
+    @Override
+    public JsonWriter beginObject() throws IOException {
+        beforeValue();
+        push(EMPTY_OBJECT);
+        return put('{');
+    }
+
+    @Override
+    public JsonWriter endObject() throws IOException {
+        depth--;
+        return put('}');
+    }
+
+    @Override
+    public JsonWriter beginArray() throws IOException {
+        beforeValue();
+        push(EMPTY_ARRAY);
+        return put('[');
+    }
+
+    @Override
+    public JsonWriter endArray() throws IOException {
+        depth--;
+        return put(']');
+    }
+
+    /**
+     * Write the name of the next object member.
+     *
+     * @param name The member name
+     * @return This writer
+     * @throws IOException
+     */
+    @Override
+    public JsonWriter name(String name) throws IOException {
+        if (stack[depth - 1] == NONEMPTY_OBJECT) {
+            put(',');
+        }
+        stack[depth - 1] = DANGLING_NAME;
+        string(name);
+        return put(':');
+    }
+
+    @Override
+    public JsonWriter nullValue() throws IOException {
+        beforeValue();
+        return put(NULL);
+    }
+
+    @Override
+    public JsonWriter value(String value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        beforeValue();
+        string(value);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(boolean value) throws IOException {
+        beforeValue();
+        return put(value ? TRUE : FALSE);
+    }
+
+    @Override
+    public JsonWriter value(long value) throws IOException {
+        beforeValue();
+        if (value == Long.MIN_VALUE) {
+            return ascii(Long.toString(value));
+        }
+        if (pos + 20 > buf.length) {
+            flushBuffer();
+        }
+        if (value < 0) {
+            buf[pos++] = '-';
+            value = -value;
+        }
+        int end = pos + digits(value);
+        pos = end;
+        do {
+            buf[--end] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        return this;
+    }
+
+    /**
+     * Write a floating point number, <code>null</code> if it is not finite.
+     *
+     * @param value
+     * @return This writer
+     * @throws IOException
+     */
+    @Override
+    public JsonWriter value(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return nullValue();
+        }
+        beforeValue();
+        return ascii(Double.toString(value));
+    }
+
+    @Override
+    public JsonWriter value(float value) throws IOException {
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+            return nullValue();
+        }
+        beforeValue();
+        return ascii(Float.toString(value));
+    }
+
+    @Override
+    JsonWriter text(CharSequence text) throws IOException {
+        beforeValue();
+        string(text);
+        return this;
+    }
+
+    @Override
+    JsonWriter number(CharSequence literal) throws IOException {
+        beforeValue();
+        for (int i = 0; i < literal.length(); i++) {
+            write(literal.charAt(i));
+        }
+        return this;
+    }
+
+    /**
+     * Hand buffered output to the stream and flush it.
+     *
+     * @throws IOException
+     */
+    @Override
+    JsonWriter raw(byte[] bytes, int off, int len) throws IOException {
+        beforeValue();
+        flushBuffer();
+        out.write(bytes, off, len);
+        return this;
+    }
+
+    @Override
+    WireFormat format() {
+        return WireFormat.JSON;
+    }
+
+    @Override
+    void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    private void beforeValue() throws IOException {
+        switch (stack[depth - 1]) {
+            case EMPTY_DOCUMENT:
+                stack[depth - 1] = NONEMPTY_DOCUMENT;
+                break;
+            case EMPTY_ARRAY:
+                stack[depth - 1] = NONEMPTY_ARRAY;
+                break;
+            case NONEMPTY_ARRAY:
+                write(',');
+                break;
+            case DANGLING_NAME:
+                stack[depth - 1] = NONEMPTY_OBJECT;
+                break;
+            default:
+                throw new IllegalStateException("nesting problem");
+        }
+    }
+
+    private void push(int scope) {
+        if (depth == stack.length) {
+            final int[] grown = new int[depth * 2];
+            System.arraycopy(stack, 0, grown, 0, depth);
+            stack = grown;
+        }
+        stack[depth++] = scope;
+    }
+
+    /**
+     * Write a quoted and escaped string.
+     *
+     * @param s
+     * @throws IOException
+     */
+    private void string(CharSequence s) throws IOException {
+        write('"');
+        final int n = s.length();
+        for (int i = 0; i < n; i++) {
+            if (pos + 6 > buf.length) {
+                flushBuffer();
+            }
+            final char c = s.charAt(i);
+            if (c < 0x80) {
+                if (c < 0x20 || c == '"' || c == '\\') {
+                    escape(c);
+                } else {
+                    buf[pos++] = (byte) c;
+                }
+            } else if (c < 0x800) {
+                buf[pos++] = (byte) (0xc0 | c >> 6);
+                buf[pos++] = (byte) (0x80 | c & 0x3f);
+            } else if (Character.isHighSurrogate(c) && i + 1 < n
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                final int cp = Character.toCodePoint(c, s.charAt(++i));
+                buf[pos++] = (byte) (0xf0 | cp >> 18);
+                buf[pos++] = (byte) (0x80 | cp >> 12 & 0x3f);
+                buf[pos++] = (byte) (0x80 | cp >> 6 & 0x3f);
+                buf[pos++] = (byte) (0x80 | cp & 0x3f);
+            } else if (Character.isSurrogate(c)) {
+                escape(c);
+            } else {
+                buf[pos++] = (byte) (0xe0 | c >> 12);
+                buf[pos++] = (byte) (0x80 | c >> 6 & 0x3f);
+                buf[pos++] = (byte) (0x80 | c & 0x3f);
+            }
+        }
+        write('"');
+    }
+
+    /**
+     * Write an escape sequence, the buffer must have room for 6 bytes.
+     *
+     * @param c
+     */
+    private void escape(char c) {
+        buf[pos++] = '\\';
+        switch (c) {
+            case '"':
+            case '\\':
+                buf[pos++] = (byte) c;
+                break;
+            case '\b':
+                buf[pos++] = 'b';
+                break;
+            case '\f':
+                buf[pos++] = 'f';
+                break;
+            case '\n':
+                buf[pos++] = 'n';
+                break;
+            case '\r':
+                buf[pos++] = 'r';
+                break;
+            case '\t':
+                buf[pos++] = 't';
+                break;
+            default:
+                buf[pos++] = 'u';
+                buf[pos++] = HEX[c >> 12 & 0xf];
+                buf[pos++] = HEX[c >> 8 & 0xf];
+                buf[pos++] = HEX[c >> 4 & 0xf];
+                buf[pos++] = HEX[c & 0xf];
+        }
+    }
+
+    private static int digits(long value) {
+        int n = 1;
+        while (value >= 10) {
+            value /= 10;
+            n++;
+        }
+        return n;
+    }
+
+    private JsonWriter ascii(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            write(s.charAt(i));
+        }
+        return this;
+    }
+
+    private JsonWriter put(char c) throws IOException {
+        write(c);
+        return this;
+    }
+
+    private JsonWriter put(byte[] bytes) throws IOException {
+        for (byte b : bytes) {
+            write((char) b);
+        }
+        return this;
+    }
+
+    private void write(char c) throws IOException {
+        if (pos == buf.length) {
+            flushBuffer();
+        }
+        buf[pos++] = (byte) c;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (pos > 0) {
+            out.write(buf, 0, pos);
+            pos = 0;
+        }
+    }
+}
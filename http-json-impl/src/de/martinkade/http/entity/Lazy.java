@@ -0,0 +1,192 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Martin Kade.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.martinkade.http.entity;
+
+import de.martinkade.http.ApiException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Attribute value kept in its encoded form until first accessed. Declare an
+ * attribute as <code>Lazy&lt;Address&gt;</code>,
+ * <code>Lazy&lt;List&lt;Order&gt;&gt;</code> or <code>Lazy&lt;Object&gt;</code>
+ * to have the streaming decoder capture the bytes of the sub-document
+ * instead of building it. {@link #get()} decodes them once, and as long as
+ * it is not called the bytes are written back unchanged when the entity is
+ * encoded in the same format, so a pass-through document costs neither
+ * decoding nor re-encoding.
+ * <p/>
+ *
+ * @author Martin Kade
+ * @version Tue, 5 January 2016
+ * @param <T> The type of the decoded value
+ */
+public final class Lazy<T> {
+
+    /**
+     * The encoded value, <code>null</code> once built from a value.
+     */
+    private final byte[] raw;
+
+    private final WireFormat format;
+
+    /**
+     * The binding of the field the value was read for.
+     */
+    private final FieldBinding field;
+
+    private T value;
+
+    private boolean materialized;
+
+    /**
+     * Constructor.
+     *
+     * @param raw The encoded value
+     * @param format The format of the encoded value
+     * @param field The binding of the field the value was read for
+     */
+    Lazy(byte[] raw, WireFormat format, FieldBinding field) {
+        this.raw = raw;
+        this.format = format;
+        this.field = field;
+    }
+
+    private Lazy(T value) {
+        this.raw = null;
+        this.format = null;
+        this.field = null;
+        this.value = value;
+        this.materialized = true;
+    }
+
+    /**
+     * Wrap an already decoded value, e.g. to set it on an entity to be
+     * encoded.
+     *
+     * @param <T>
+     * @param value
+     * @return The materialized wrapper
+     */
+    public static <T> Lazy<T> of(T value) {
+        return new Lazy<>(value);
+    }
+
+    /**
+     * Decode the value on first call.
+     *
+     * @return The decoded value
+     * @throws ApiException If the encoded value does not match the declared
+     * type
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized T get() throws ApiException {
+        if (!materialized) {
+            value = (T) EntityBuilder.decodeLazy(field, raw, format);
+            materialized = true;
+        }
+        return value;
+    }
+
+    /**
+     * @return <code>true</code> if the value is decoded or built from a
+     * value
+     */
+    public synchronized boolean isMaterialized() {
+        return materialized;
+    }
+
+    /**
+     * @return The format of the encoded value, <code>null</code> if built
+     * from a value
+     */
+    public WireFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * @return The size of the encoded value in bytes, <code>-1</code> if
+     * built from a value
+     */
+    public int getRawLength() {
+        return raw == null ? -1 : raw.length;
+    }
+
+    /**
+     * Read the encoded value as received, e.g. to forward it without
+     * decoding.
+     *
+     * @return A stream over the encoded value, <code>null</code> if built
+     * from a value
+     */
+    public InputStream openRaw() {
+        return raw == null ? null : new ByteArrayInputStream(raw);
+    }
+
+    /**
+     * Write the encoded value as received.
+     *
+     * @param out
+     * @return <code>false</code> if built from a value and nothing was
+     * written
+     * @throws IOException
+     */
+    public boolean writeRaw(OutputStream out) throws IOException {
+        if (raw == null) {
+            return false;
+        }
+        out.write(raw);
+        return true;
+    }
+
+    /**
+     * Write the encoded value if it can be used unchanged.
+     *
+     * @param writer
+     * @return <code>false</code> if the value is materialized or in another
+     * format and has to be encoded
+     * @throws IOException
+     */
+    synchronized boolean writeTo(TokenWriter writer) throws IOException {
+        if (materialized || format != writer.format()) {
+            return false;
+        }
+        writer.raw(raw, 0, raw.length);
+        return true;
+    }
+
+    @Override
+    public synchronized String toString() {
+        if (materialized) {
+            return String.valueOf(value);
+        }
+        return format == WireFormat.JSON
+                ? new String(raw, StandardCharsets.UTF_8)
+                : String.format("Lazy[%s, %d bytes]", format.getMediaType(), raw.length);
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Martin Kade.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.martinkade.http.entity;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Hash table over the attribute names of an {@link EntityBinding}, keyed by
+ * the UTF-8 bytes of each name. Lets {@link JsonReader} resolve a name
+ * straight from its read buffer without creating a string. The table size
+ * and hash multiplier are chosen so that names do not collide whenever
+ * possible, a lookup then costs one hash and one byte comparison.
+ * <p/>
+ * Generated {@link EntityCodec} implementations hold their table as an
+ * opaque constant created by {@link CodecSupport#names(String...)}.
+ * <p/>
+ *
+ * @author Martin Kade
+ * @version Tue, 5 January 2016
+ */
+public final class NameTable {
+
+    /**
+     * FNV-1a offset basis and prime.
+     */
+    static final int SEED = 0x811c9dc5, PRIME = 0x01000193;
+
+    /**
+     * Largest table size relative to the number of names tried when
+     * looking for a collision free layout.
+     */
+    private static final int MAX_LOAD_FACTOR = 16;
+
+    /**
+     * Multipliers tried per table size.
+     */
+    private static final int ATTEMPTS = 64;
+
+    /**
+     * Names by slot, <code>null</code> for empty slots.
+     */
+    private final byte[][] keys;
+
+    /**
+     * Index of the name by slot.
+     */
+    private final int[] values;
+
+    private final int mask, multiplier;
+
+    /**
+     * <code>true</code> if no two names share a slot.
+     */
+    private final boolean perfect;
+
+    /**
+     * Constructor.
+     *
+     * @param names The names, a name's index is its value
+     */
+    NameTable(String[] names) {
+        final byte[][] bytes = new byte[names.length][];
+        final int[] hashes = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            bytes[i] = names[i].getBytes(StandardCharsets.UTF_8);
+            hashes[i] = hash(bytes[i], 0, bytes[i].length);
+        }
+
+        int size = Integer.highestOneBit(Math.max(1, names.length) * 2 - 1) << 1;
+        final int maxSize = size * MAX_LOAD_FACTOR;
+        for (; size <= maxSize; size <<= 1) {
+            for (int m = 0; m < ATTEMPTS; m++) {
+                final int multiplier = 0x9e3779b9 + 2 * m * 0x61c88647 | 1;
+                final boolean[] used = new boolean[size];
+                int i = 0;
+                for (; i < hashes.length; i++) {
+                    final int slot = slot(hashes[i], multiplier, size - 1);
+                    if (used[slot]) {
+                        break;
+                    }
+                    used[slot] = true;
+                }
+                if (i == hashes.length) {
+                    this.keys = new byte[size][];
+                    this.values = new int[size];
+                    this.mask = size - 1;
+                    this.multiplier = multiplier;
+                    this.perfect = true;
+                    fill(bytes, hashes);
+                    return;
+                }
+            }
+        }
+
+        // duplicate names or an unlucky set of names, fall back to probing
+        size = Integer.highestOneBit(Math.max(1, names.length) * 2 - 1) << 1;
+        this.keys = new byte[size][];
+        this.values = new int[size];
+        this.mask = size - 1;
+        this.multiplier = 0x9e3779b9;
+        this.perfect = false;
+        fill(bytes, hashes);
+    }
+
+    /**
+     * Hash of a UTF-8 encoded name.
+     *
+     * @param bytes
+     * @param from Index of the first byte
+     * @param to Index after the last byte
+     * @return The hash
+     */
+    static int hash(byte[] bytes, int from, int to) {
+        int h = SEED;
+        for (int i = from; i < to; i++) {
+            h = (h ^ (bytes[i] & 0xff)) * PRIME;
+        }
+        return h;
+    }
+
+    /**
+     * Look up a name.
+     *
+     * @param bytes Buffer holding the UTF-8 encoded name
+     * @param from Index of the first byte
+     * @param to Index after the last byte
+     * @param hash The hash of the name as computed by {@link #hash}
+     * @return The index of the name or <code>-1</code>
+     */
+    int get(byte[] bytes, int from, int to, int hash) {
+        int slot = slot(hash, multiplier, mask);
+        while (true) {
+            final byte[] key = keys[slot];
+            if (key == null) {
+                return -1;
+            } else if (equals(key, bytes, from, to)) {
+                return values[slot];
+            } else if (perfect) {
+                return -1;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Look up a name already decoded to characters.
+     *
+     * @param name
+     * @return The index of the name or <code>-1</code>
+     */
+    int get(CharSequence name) {
+        final byte[] bytes = name.toString().getBytes(StandardCharsets.UTF_8);
+        return get(bytes, 0, bytes.length, hash(bytes, 0, bytes.length));
+    }
+
+    /**
+     * @return <code>true</code> if no two names share a slot
+     */
+    boolean isPerfect() {
+        return perfect;
+    }
+
+    /**
+     * Insert the names, keeping the first of duplicate names.
+     */
+    private void fill(byte[][] bytes, int[] hashes) {
+        for (int i = 0; i < bytes.length; i++) {
+            int slot = slot(hashes[i], multiplier, mask);
+            while (keys[slot] != null && !equals(keys[slot], bytes[i], 0, bytes[i].length)) {
+                slot = (slot + 1) & mask;
+            }
+            if (keys[slot] == null) {
+                keys[slot] = bytes[i];
+                values[slot] = i;
+            }
+        }
+    }
+
+    private static int slot(int hash, int multiplier, int mask) {
+        final int h = hash * multiplier;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private static boolean equals(byte[] key, byte[] bytes, int from, int to) {
+        if (key.length != to - from) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (key[i] != bytes[from + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Martin Kade.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.martinkade.http.entity;
+
+import de.martinkade.http.ApiException;
+import de.martinkade.http.ApiService;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.json.simple.JSONObject;
+
+/**
+ * Decodes large arrays of entities across the {@link ForkJoinPool}
+ * configured by {@link EntityRegistry#setParallelDecoding}, preserving the
+ * element order. Arrays below the threshold, or all arrays if no pool is
+ * configured, are decoded on the calling thread.
+ * <p/>
+ *
+ * @author Martin Kade
+ * @version Tue, 5 January 2016
+ */
+final class ParallelDecoder {
+
+    /**
+     * Elements read from a stream per task.
+     */
+    static final int BATCH_SIZE = 1024;
+
+    /**
+     * Initial byte of a cbor array of indefinite length.
+     */
+    private static final int CBOR_ARRAY = 0x9f;
+
+    /**
+     * Stop code ending a cbor item of indefinite length.
+     */
+    private static final int CBOR_BREAK = 0xff;
+
+    /**
+     * Smallest number of elements decoded by a single task.
+     */
+    private static final int MIN_CHUNK_SIZE = 64;
+
+    private ParallelDecoder() {
+    }
+
+    /**
+     * Decode json objects into the target collection.
+     *
+     * @param <E>
+     * @param json The json objects
+     * @param entityClass The element class
+     * @param target The collection to add the entities to, in order
+     * @throws ApiException
+     */
+    static <E extends ApiService.Entity> void decodeAll(List<?> json, Class<E> entityClass,
+            Collection<? super E> target) throws ApiException {
+
+        final ForkJoinPool pool = EntityRegistry.getDecodePool();
+        if (pool == null || json.size() < EntityRegistry.getParallelThreshold()) {
+            for (Object o : json) {
+                target.add(o == null ? null : EntityBuilder.fromJson((JSONObject) o, entityClass));
+            }
+            return;
+        }
+        final Object[] entities = new Object[json.size()];
+        final DecodeTask task = new DecodeTask(json, entityClass, entities, 0, entities.length,
+                chunkSize(entities.length, pool));
+        try {
+            pool.invoke(task);
+        } catch (RuntimeException ex) {
+            throw unwrap(ex);
+        }
+        for (Object e : entities) {
+            target.add(entityClass.cast(e));
+        }
+    }
+
+    /**
+     * Read the elements of an array from a stream into the target
+     * collection. Up to the threshold elements are decoded as they are read.
+     * Beyond it the encoded bytes of the elements are copied in batches, each
+     * decoded by a pool task while the stream is read on. At most two
+     * batches per pool thread are in flight, each is released once its
+     * entities are added.
+     *
+     * @param <E>
+     * @param reader The reader, positioned inside the array
+     * @param binding The element binding
+     * @param target The collection to add the entities to, in order
+     * @throws ApiException
+     * @throws IOException
+     */
+    static <E extends ApiService.Entity> void readAll(TokenReader reader, EntityBinding<E> binding,
+            Collection<? super E> target) throws ApiException, IOException {
+
+        final ForkJoinPool pool = EntityRegistry.getDecodePool();
+        final int threshold = pool == null ? Integer.MAX_VALUE : EntityRegistry.getParallelThreshold();
+        for (int n = 0; n < threshold; n++) {
+            if (!reader.hasNext()) {
+                return;
+            }
+            target.add(EntityBuilder.readObject(reader, binding));
+        }
+
+        final WireFormat format = reader.format();
+        final int maxInFlight = pool.getParallelism() * 2;
+        final Deque<ReadTask<E>> tasks = new ArrayDeque<>(maxInFlight);
+        final ByteArrayOutputStream batch = new ByteArrayOutputStream();
+        try {
+            while (reader.hasNext()) {
+                batch.reset();
+                batch.write(format == WireFormat.CBOR ? CBOR_ARRAY : '[');
+                int n = 0;
+                while (n < BATCH_SIZE && reader.hasNext()) {
+                    if (n++ > 0 && format == WireFormat.JSON) {
+                        batch.write(',');
+                    }
+                    reader.nextRaw(batch);
+                }
+                batch.write(format == WireFormat.CBOR ? CBOR_BREAK : ']');
+                final ReadTask<E> task = new ReadTask<>(batch.toByteArray(), format, binding, n);
+                pool.execute(task);
+                tasks.add(task);
+                if (tasks.size() == maxInFlight) {
+                    tasks.poll().addTo(target);
+                }
+            }
+            while (!tasks.isEmpty()) {
+                tasks.poll().addTo(target);
+            }
+        } catch (RuntimeException ex) {
+            for (ReadTask<E> task : tasks) {
+                task.cancel(false);
+            }
+            throw unwrap(ex);
+        }
+    }
+
+    private static int chunkSize(int n, ForkJoinPool pool) {
+        return Math.max(MIN_CHUNK_SIZE, n / (pool.getParallelism() * 8));
+    }
+
+    /**
+     * Find the {@link ApiException} thrown by a task.
+     */
+    private static ApiException unwrap(RuntimeException ex) {
+        for (Throwable t = ex; t != null; t = t.getCause()) {
+            if (t instanceof ApiException) {
+                return (ApiException) t;
+            }
+        }
+        throw ex;
+    }
+
+    /**
+     * Decodes a range of json objects, splitting it in halves down to the
+     * chunk size.
+     */
+    private static final class DecodeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<?> json;
+
+        private final Class<? extends ApiService.Entity> entityClass;
+
+        private final Object[] entities;
+
+        private final int from, to, chunkSize;
+
+        DecodeTask(List<?> json, Class<? extends ApiService.Entity> entityClass, Object[] entities,
+                int from, int to, int chunkSize) {
+
+            this.json = json;
+            this.entityClass = entityClass;
+            this.entities = entities;
+            this.from = from;
+            this.to = to;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > chunkSize) {
+                final int mid = (from + to) >>> 1;
+                invokeAll(new DecodeTask(json, entityClass, entities, from, mid, chunkSize),
+                        new DecodeTask(json, entityClass, entities, mid, to, chunkSize));
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                final Object o = json.get(i);
+                entities[i] = o == null ? null : EntityBuilder.fromJson((JSONObject) o, entityClass);
+            }
+        }
+    }
+
+    /**
+     * Decodes a batch of encoded entities read from a stream, with the
+     * reader and binding of the calling thread.
+     */
+    private static final class ReadTask<E extends ApiService.Entity> extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final WireFormat format;
+
+        private final EntityBinding<E> binding;
+
+        private final List<E> entities;
+
+        /**
+         * The batch as one encoded array, dropped once decoded.
+         */
+        private byte[] bytes;
+
+        ReadTask(byte[] bytes, WireFormat format, EntityBinding<E> binding, int count) {
+            this.bytes = bytes;
+            this.format = format;
+            this.binding = binding;
+            this.entities = new ArrayList<>(count);
+        }
+
+        @Override
+        protected void compute() {
+            final ScratchBuffers scratch = ScratchBuffers.acquire();
+            try {
+                final TokenReader reader = format.reader(new ByteArrayInputStream(bytes), scratch);
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    entities.add(EntityBuilder.readObject(reader, binding));
+                }
+                reader.endArray();
+            } catch (IOException ex) {
+                throw new ApiException(ex.getMessage(), ApiException.APIError.JSON_DECODE_ERROR);
+            } finally {
+                bytes = null;
+                scratch.release();
+            }
+        }
+
+        /**
+         * Wait for the batch and add its entities.
+         *
+         * @param target
+         */
+        void addTo(Collection<? super E> target) {
+            join();
+            target.addAll(entities);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Martin Kade.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.martinkade.http.entity;
+
+/**
+ * Per thread read and write buffers of the json reader and writer. A thread
+ * takes its cached instance out for the duration of a decode or encode and
+ * puts it back afterwards, so nested or interleaved use on the same thread
+ * simply gets a fresh instance instead of sharing one.
+ * <p/>
+ *
+ * @author Martin Kade
+ * @version Tue, 5 January 2016
+ */
+final class ScratchBuffers {
+
+    /**
+     * Scratch strings grown beyond this capacity are not cached.
+     */
+    private static final int MAX_CACHED_CHARS = 64 * 1024;
+
+    private static final ThreadLocal<ScratchBuffers> CACHED = new ThreadLocal<>();
+
+    final byte[] readBuffer = new byte[JsonReader.BUFFER_SIZE];
+
+    final byte[] writeBuffer = new byte[JsonWriter.BUFFER_SIZE];
+
+    final StringBuilder chars = new StringBuilder();
+
+    final StringBuilder formatChars = new StringBuilder();
+
+    private ScratchBuffers() {
+    }
+
+    /**
+     * Take the cached buffers of the current thread.
+     *
+     * @return The buffers, newly allocated if they are already in use
+     */
+    static ScratchBuffers acquire() {
+        final ScratchBuffers buffers = CACHED.get();
+        if (buffers == null) {
+            return new ScratchBuffers();
+        }
+        CACHED.set(null);
+        return buffers;
+    }
+
+    /**
+     * Put the buffers back into the cache of the current thread.
+     */
+    void release() {
+        if (chars.capacity() <= MAX_CACHED_CHARS && formatChars.capacity() <= MAX_CACHED_CHARS) {
+            chars.setLength(0);
+            CACHED.set(this);
+        }
+    }
+}
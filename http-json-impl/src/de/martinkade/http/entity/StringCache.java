@@ -0,0 +1,98 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Martin Kade.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.martinkade.http.entity;
+
+/**
+ * Bounded cache deduplicating short decoded strings such as attribute names
+ * and low-cardinality values, e.g. status or country codes. Each string
+ * hashes to one slot and replaces the previous occupant on a miss, so the
+ * cache never grows and needs no locks: strings are immutable, hence safe
+ * to share through plain array writes, and a lost race only costs a miss.
+ * <p/>
+ *
+ * @author Martin Kade
+ * @version Tue, 5 January 2016
+ */
+final class StringCache {
+
+    /**
+     * Longer strings are not cached.
+     */
+    static final int MAX_LENGTH = 32;
+
+    /**
+     * The cache shared by all decoders.
+     */
+    static final StringCache SHARED = new StringCache(4096);
+
+    private final String[] slots;
+
+    /**
+     * Constructor.
+     *
+     * @param size The number of slots, a power of two
+     */
+    StringCache(int size) {
+        this.slots = new String[size];
+    }
+
+    /**
+     * Get the cached string with the given content, caching a new one if
+     * there is none.
+     *
+     * @param chars
+     * @return The string
+     */
+    String intern(CharSequence chars) {
+        final int n = chars.length();
+        if (n > MAX_LENGTH) {
+            return chars.toString();
+        }
+        int h = 0;
+        for (int i = 0; i < n; i++) {
+            h = 31 * h + chars.charAt(i);
+        }
+        final int slot = (h ^ h >>> 16) & (slots.length - 1);
+        final String cached = slots[slot];
+        if (cached != null && cached.hashCode() == h && cached.contentEquals(chars)) {
+            return cached;
+        }
+        final String s = chars.toString();
+        slots[slot] = s;
+        return s;
+    }
+
+    /**
+     * Deduplicate an already created string.
+     *
+     * @param s
+     * @return The cached string with the same content
+     */
+    String intern(String s) {
+        if (s.length() > MAX_LENGTH) {
+            return s;
+        }
+        return intern((CharSequence) s);
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Martin Kade.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.martinkade.http.entity;
+
+import de.martinkade.http.ApiException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import java.util.Arrays;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * Pull parser of a {@link WireFormat}, reading a document token by token.
+ * The token model is the one of json; binary formats map their data items
+ * onto it.
+ * <p/>
+ * Public for generated {@link EntityCodec} implementations, readers are
+ * only created by this package.
+ * <p/>
+ *
+ * @author Martin Kade
+ * @version Tue, 5 January 2016
+ */
+public abstract class TokenReader {
+
+    /**
+     * Token types.
+     */
+    public enum Token {
+
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    /**
+     * Bytes and number of values passed over by {@link #skipValue()}.
+     */
+    protected long skippedBytes, skippedValues;
+
+    /**
+     * Constructor.
+     */
+    TokenReader() {
+    }
+
+    /**
+     * Get the type of the next token without consuming it.
+     *
+     * @return The next token
+     * @throws IOException
+     * @throws ApiException
+     */
+    public abstract Token peek() throws IOException, ApiException;
+
+    public boolean hasNext() throws IOException, ApiException {
+        final Token t = peek();
+        return t != Token.END_OBJECT && t != Token.END_ARRAY && t != Token.END_DOCUMENT;
+    }
+
+    public abstract void beginObject() throws IOException, ApiException;
+
+    public abstract void endObject() throws IOException, ApiException;
+
+    public abstract void beginArray() throws IOException, ApiException;
+
+    public abstract void endArray() throws IOException, ApiException;
+
+    public abstract String nextName() throws IOException, ApiException;
+
+    /**
+     * Read a name and look it up, if possible without creating a string.
+     *
+     * @param names The names to look up
+     * @return The index of the name or <code>-1</code> if it is not in the
+     * table
+     * @throws IOException
+     * @throws ApiException
+     */
+    public abstract int nextName(NameTable names) throws IOException, ApiException;
+
+    public abstract String nextString() throws IOException, ApiException;
+
+    /**
+     * Read a string or the text of a number into a scratch buffer.
+     *
+     * @return The text, only valid until the next read
+     * @throws IOException
+     * @throws ApiException
+     */
+    public abstract CharSequence nextText() throws IOException, ApiException;
+
+    public abstract boolean nextBoolean() throws IOException, ApiException;
+
+    public abstract void nextNull() throws IOException, ApiException;
+
+    /**
+     * Read a number, truncating fractional values.
+     *
+     * @return The value
+     * @throws IOException
+     * @throws ApiException
+     */
+    public abstract long nextLong() throws IOException, ApiException;
+
+    public int nextInt() throws IOException, ApiException {
+        return (int) nextLong();
+    }
+
+    public abstract double nextDouble() throws IOException, ApiException;
+
+    /**
+     * Read a number as {@link Long} if it is integral, {@link Double}
+     * otherwise.
+     *
+     * @return The value
+     * @throws IOException
+     * @throws ApiException
+     */
+    abstract Number nextNumber() throws IOException, ApiException;
+
+    /**
+     * Read an array of numbers into a primitive array, fractional values
+     * truncated.
+     *
+     * @return The values
+     * @throws IOException
+     * @throws ApiException
+     */
+    public int[] nextIntArray() throws IOException, ApiException {
+        int[] values = new int[16];
+        int n = 0;
+        beginArray();
+        while (hasNext()) {
+            if (n == values.length) {
+                values = Arrays.copyOf(values, n * 2);
+            }
+            values[n++] = nextInt();
+        }
+        endArray();
+        return n == values.length ? values : Arrays.copyOf(values, n);
+    }
+
+    /**
+     * Read an array of numbers into a primitive array, fractional values
+     * truncated.
+     *
+     * @return The values
+     * @throws IOException
+     * @throws ApiException
+     */
+    public long[] nextLongArray() throws IOException, ApiException {
+        long[] values = new long[16];
+        int n = 0;
+        beginArray();
+        while (hasNext()) {
+            if (n == values.length) {
+                values = Arrays.copyOf(values, n * 2);
+            }
+            values[n++] = nextLong();
+        }
+        endArray();
+        return n == values.length ? values : Arrays.copyOf(values, n);
+    }
+
+    public float[] nextFloatArray() throws IOException, ApiException {
+        float[] values = new float[16];
+        int n = 0;
+        beginArray();
+        while (hasNext()) {
+            if (n == values.length) {
+                values = Arrays.copyOf(values, n * 2);
+            }
+            values[n++] = (float) nextDouble();
+        }
+        endArray();
+        return n == values.length ? values : Arrays.copyOf(values, n);
+    }
+
+    public double[] nextDoubleArray() throws IOException, ApiException {
+        double[] values = new double[16];
+        int n = 0;
+        beginArray();
+        while (hasNext()) {
+            if (n == values.length) {
+                values = Arrays.copyOf(values, n * 2);
+            }
+            values[n++] = nextDouble();
+        }
+        endArray();
+        return n == values.length ? values : Arrays.copyOf(values, n);
+    }
+
+    /**
+     * Read the next value the way json-simple represents it: {@link String},
+     * {@link Long}, {@link Double}, {@link Boolean}, {@link JSONObject},
+     * {@link JSONArray} or <code>null</code>.
+     *
+     * @return The value
+     * @throws IOException
+     * @throws ApiException
+     */
+    @SuppressWarnings("unchecked")
+    Object nextValue() throws IOException, ApiException {
+        switch (peek()) {
+            case BEGIN_OBJECT:
+                final JSONObject object = new JSONObject();
+                beginObject();
+                while (hasNext()) {
+                    final String name = nextName();
+                    object.put(name, nextValue());
+                }
+                endObject();
+                return object;
+            case BEGIN_ARRAY:
+                final JSONArray array = new JSONArray();
+                beginArray();
+                while (hasNext()) {
+                    array.add(nextValue());
+                }
+                endArray();
+                return array;
+            case STRING:
+                return nextString();
+            case NUMBER:
+                return nextNumber();
+            case BOOLEAN:
+                return nextBoolean();
+            case NULL:
+                nextNull();
+                return null;
+            default:
+                throw syntaxError("expected value");
+        }
+    }
+
+    /**
+     * Skip the next value including all nested values without materializing
+     * it, counting it in {@link #skippedBytes()} and
+     * {@link #skippedValues()}.
+     *
+     * @throws IOException
+     * @throws ApiException
+     */
+    public abstract void skipValue() throws IOException, ApiException;
+
+    /**
+     * Read the next value including all nested values as its encoded
+     * bytes, without decoding it. The bytes are not counted as skipped.
+     *
+     * @return The bytes of the value in the format of this reader
+     * @throws IOException
+     * @throws ApiException
+     */
+    byte[] nextRaw() throws IOException, ApiException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        nextRaw(out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Read the next value like {@link #nextRaw()}, appending its bytes to
+     * the given stream.
+     *
+     * @param out
+     * @throws IOException
+     * @throws ApiException
+     */
+    abstract void nextRaw(ByteArrayOutputStream out) throws IOException, ApiException;
+
+    /**
+     * @return The format read
+     */
+    abstract WireFormat format();
+
+    /**
+     * Position of the reader in the input.
+     *
+     * @return The number of bytes consumed
+     */
+    abstract long position();
+
+    long skippedBytes() {
+        return skippedBytes;
+    }
+
+    long skippedValues() {
+        return skippedValues;
+    }
+
+    protected ApiException syntaxError(String message) {
+        return new ApiException(String.format("%s at position %d", message, position()),
+                ApiException.APIError.JSON_DECODE_ERROR);
+    }
+}
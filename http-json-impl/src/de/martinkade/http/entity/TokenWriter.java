@@ -0,0 +1,198 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Martin Kade.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.martinkade.http.entity;
+
+import java.io.IOException;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Writer of a {@link WireFormat}, emitting a document value by value in the
+ * token model of json.
+ * <p/>
+ * Public for generated {@link EntityCodec} implementations, writers are
+ * only created by this package.
+ * <p/>
+ *
+ * @author Martin Kade
+ * @version Tue, 5 January 2016
+ */
+public abstract class TokenWriter {
+
+    /**
+     * Scratch buffer for converted values.
+     */
+    protected final StringBuilder chars;
+
+    /**
+     * Constructor.
+     *
+     * @param chars The scratch buffer for converted values
+     */
+    TokenWriter(StringBuilder chars) {
+        this.chars = chars;
+    }
+
+    public abstract TokenWriter beginObject() throws IOException;
+
+    public abstract TokenWriter endObject() throws IOException;
+
+    public abstract TokenWriter beginArray() throws IOException;
+
+    public abstract TokenWriter endArray() throws IOException;
+
+    /**
+     * Write the name of the next object member.
+     *
+     * @param name The member name
+     * @return This writer
+     * @throws IOException
+     */
+    public abstract TokenWriter name(String name) throws IOException;
+
+    public abstract TokenWriter nullValue() throws IOException;
+
+    public abstract TokenWriter value(String value) throws IOException;
+
+    public abstract TokenWriter value(boolean value) throws IOException;
+
+    public abstract TokenWriter value(long value) throws IOException;
+
+    /**
+     * Write a floating point number, <code>null</code> if it is not finite.
+     *
+     * @param value
+     * @return This writer
+     * @throws IOException
+     */
+    public abstract TokenWriter value(double value) throws IOException;
+
+    public abstract TokenWriter value(float value) throws IOException;
+
+    /**
+     * Write a string value.
+     *
+     * @param text
+     * @return This writer
+     * @throws IOException
+     */
+    abstract TokenWriter text(CharSequence text) throws IOException;
+
+    /**
+     * Write a number given by its decimal literal.
+     *
+     * @param literal
+     * @return This writer
+     * @throws IOException
+     */
+    abstract TokenWriter number(CharSequence literal) throws IOException;
+
+    /**
+     * Write an already encoded value as is.
+     *
+     * @param bytes The value in the format of this writer
+     * @param off
+     * @param len
+     * @return This writer
+     * @throws IOException
+     */
+    abstract TokenWriter raw(byte[] bytes, int off, int len) throws IOException;
+
+    /**
+     * @return The format written
+     */
+    abstract WireFormat format();
+
+    /**
+     * Hand buffered output to the stream and flush it.
+     *
+     * @throws IOException
+     */
+    abstract void flush() throws IOException;
+
+    /**
+     * Write a value through its converter, as number if the converter is
+     * numeric and as string otherwise.
+     *
+     * @param converter
+     * @param value
+     * @return This writer
+     * @throws IOException
+     */
+    @SuppressWarnings("unchecked")
+    public TokenWriter value(ValueConverter<?> converter, Object value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        chars.setLength(0);
+        ((ValueConverter<Object>) converter).format(value, chars);
+        return converter.isNumeric() ? number(chars) : text(chars);
+    }
+
+    /**
+     * Write a json-simple style value: <code>null</code>, strings, numbers,
+     * booleans, maps and collections thereof. Anything else is written by its
+     * string representation.
+     *
+     * @param value
+     * @return This writer
+     * @throws IOException
+     */
+    public TokenWriter value(Object value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        } else if (value instanceof String) {
+            return value((String) value);
+        } else if (value instanceof Integer || value instanceof Long
+                || value instanceof Short || value instanceof Byte) {
+            return value(((Number) value).longValue());
+        } else if (value instanceof Float) {
+            return value(((Float) value).floatValue());
+        } else if (value instanceof BigDecimal || value instanceof BigInteger) {
+            return number(value.toString());
+        } else if (value instanceof Number) {
+            return value(((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            return value(((Boolean) value).booleanValue());
+        } else if (value instanceof Map) {
+            beginObject();
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+                name(String.valueOf(e.getKey()));
+                value(e.getValue());
+            }
+            return endObject();
+        } else if (value instanceof Collection) {
+            beginArray();
+            for (Object o : (Collection<?>) value) {
+                value(o);
+            }
+            return endArray();
+        }
+        return value(value.toString());
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Martin Kade.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.martinkade.http.entity;
+
+/**
+ * Conversion of a field type to and from json text, i.e. the content of a
+ * json string or, for {@link #isNumeric() numeric} converters, a json number
+ * literal. Implementations must be thread-safe and should avoid allocating
+ * beyond the converted value itself. Register custom converters with
+ * {@link EntityRegistry#registerConverter(Class, ValueConverter)}.
+ * <p/>
+ *
+ * @author Martin Kade
+ * @version Tue, 5 January 2016
+ * <p/>
+ * @param <V> The field type
+ */
+public interface ValueConverter<V> {
+
+    /**
+     * Append the json text of the given value.
+     *
+     * @param value The value, never <code>null</code>
+     * @param out The target buffer
+     */
+    void format(V value, StringBuilder out);
+
+    /**
+     * Parse json text. The text may be a reused buffer and must not be kept.
+     *
+     * @param text The unescaped string content or number literal
+     * @return The value
+     * @throws RuntimeException if the text cannot be converted
+     */
+    V parse(CharSequence text);
+
+    /**
+     * Flag if values are written as json numbers rather than strings.
+     *
+     * @return Default is false
+     */
+    default boolean isNumeric() {
+        return false;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Martin Kade.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.martinkade.http.entity;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.util.Locale;
+
+/**
+ * Encodings of entities on the wire. Both are driven by the same
+ * {@link JsonAttribute} metadata.
+ * <p/>
+ * <li>JSON</li>
+ * <li>CBOR</li>
+ *
+ * @author Martin Kade
+ * @version Tue, 5 January 2016
+ */
+public enum WireFormat {
+
+    /**
+     * UTF-8 encoded json, the default.
+     */
+    JSON("application/json") {
+
+        @Override
+        TokenReader reader(InputStream in, ScratchBuffers scratch) {
+            return new JsonReader(in, scratch.readBuffer, scratch.chars);
+        }
+
+        @Override
+        TokenWriter writer(OutputStream out, ScratchBuffers scratch) {
+            return new JsonWriter(out, scratch.writeBuffer, scratch.formatChars);
+        }
+    },
+    /**
+     * Concise binary object representation (RFC 8949), smaller than json
+     * and cheaper to parse, numbers in particular.
+     */
+    CBOR("application/cbor") {
+
+        @Override
+        TokenReader reader(InputStream in, ScratchBuffers scratch) {
+            return new CborReader(in, scratch.readBuffer, scratch.chars);
+        }
+
+        @Override
+        TokenWriter writer(OutputStream out, ScratchBuffers scratch) {
+            return new CborWriter(out, scratch.writeBuffer, scratch.formatChars);
+        }
+    };
+
+    private final String mediaType;
+
+    WireFormat(String mediaType) {
+        this.mediaType = mediaType;
+    }
+
+    public String getMediaType() {
+        return mediaType;
+    }
+
+    /**
+     * Get the format of a <code>Content-Type</code> header value, honoring
+     * structured syntax suffixes like <code>+cbor</code>.
+     *
+     * @param contentType The header value or <code>null</code>
+     * @return The format, {@link #JSON} if the media type is unknown
+     */
+    public static WireFormat forContentType(String contentType) {
+        if (contentType == null) {
+            return JSON;
+        }
+        final int end = contentType.indexOf(';');
+        final String type = (end < 0 ? contentType : contentType.substring(0, end)).trim()
+                .toLowerCase(Locale.ROOT);
+        return type.equals(CBOR.mediaType) || type.endsWith("+cbor") ? CBOR : JSON;
+    }
+
+    abstract TokenReader reader(InputStream in, ScratchBuffers scratch);
+
+    abstract TokenWriter writer(OutputStream out, ScratchBuffers scratch);
+}
@@ -0,0 +1,674 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Martin Kade.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.martinkade.http.entity.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates an {@link de.martinkade.http.entity.EntityCodec} for each
+ * {@link de.martinkade.http.ApiService.Entity} class declaring
+ * {@link de.martinkade.http.entity.JsonAttribute} fields. The codec is put
+ * into the package of the entity and named <code>&lt;Entity&gt;Codec</code>,
+ * nested class names joined by an underscore. It binds the tokens of a
+ * stream to fields without building a json tree.
+ * <p/>
+ * Fields accessible from the entity package are read and written directly,
+ * all others through method handles held in constants. Entities the codec
+ * cannot be generated for are reported as a note and keep using the
+ * reflective binding.
+ * <p/>
+ *
+ * @author Martin Kade
+ * @version Tue, 5 January 2016
+ */
+@SupportedAnnotationTypes(EntityCodecProcessor.JSON_ATTRIBUTE)
+public class EntityCodecProcessor extends AbstractProcessor {
+
+    static final String JSON_ATTRIBUTE = "de.martinkade.http.entity.JsonAttribute";
+
+    private static final String ENTITY = "de.martinkade.http.ApiService.Entity";
+
+    private static final String SUPPORT = "de.martinkade.http.entity.CodecSupport";
+
+    private static final String TOKEN_READER = "de.martinkade.http.entity.TokenReader";
+
+    private static final String TOKEN_WRITER = "de.martinkade.http.entity.TokenWriter";
+
+    private static final String TOKEN = TOKEN_READER + ".Token";
+
+    private static final String NAME_TABLE = "de.martinkade.http.entity.NameTable";
+
+    private static final String CONVERTER = "de.martinkade.http.entity.ValueConverter";
+
+    private static final String API_EXCEPTION = "de.martinkade.http.ApiException";
+
+    /**
+     * Kinds of field values, matching the reflective binding.
+     */
+    private enum Kind {
+
+        ENTITY, COLLECTION, ARRAY, CONVERTED, INT, FLOAT, PRIMITIVE, VALUE
+    }
+
+    /**
+     * A single annotated field.
+     */
+    private static final class Attribute {
+
+        VariableElement field;
+        TypeElement declaringClass;
+        String name, type;
+        Kind kind, elementKind;
+        String elementType, collectionType;
+        boolean direct, intern, required;
+    }
+
+    private Types types;
+
+    private Elements elements;
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        types = processingEnv.getTypeUtils();
+        elements = processingEnv.getElementUtils();
+        final TypeElement annotation = elements.getTypeElement(JSON_ATTRIBUTE);
+        if (annotation == null || elements.getTypeElement(ENTITY) == null) {
+            return false;
+        }
+
+        final Set<TypeElement> entities = new LinkedHashSet<>();
+        for (Element e : roundEnv.getElementsAnnotatedWith(annotation)) {
+            if (e.getKind() == ElementKind.FIELD) {
+                entities.add((TypeElement) e.getEnclosingElement());
+            }
+        }
+        for (TypeElement entity : entities) {
+            final String reason = unsupported(entity);
+            if (reason != null) {
+                note(entity, reason);
+                continue;
+            }
+            final List<Attribute> attributes = new ArrayList<>();
+            final String error = collect(entity, attributes);
+            if (error != null) {
+                note(entity, error);
+                continue;
+            }
+            try {
+                write(entity, attributes);
+            } catch (IOException ex) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "cannot write codec: " + ex.getMessage(), entity);
+            }
+        }
+        return false;
+    }
+
+    /**
+     *
+     * @param entity
+     * @return
+     */
+    private String unsupported(TypeElement entity) {
+        if (!types.isAssignable(entity.asType(), types.erasure(elements.getTypeElement(ENTITY).asType()))) {
+            return "not an ApiService.Entity";
+        } else if (entity.getKind() != ElementKind.CLASS || entity.getModifiers().contains(Modifier.ABSTRACT)) {
+            return "not a concrete class";
+        } else if (!entity.getTypeParameters().isEmpty()) {
+            return "generic entity class";
+        }
+        for (Element e = entity; e instanceof TypeElement; e = e.getEnclosingElement()) {
+            final TypeElement t = (TypeElement) e;
+            if (t.getModifiers().contains(Modifier.PRIVATE)
+                    || (t.getNestingKind() == NestingKind.MEMBER && !t.getModifiers().contains(Modifier.STATIC))
+                    || t.getNestingKind() == NestingKind.LOCAL || t.getNestingKind() == NestingKind.ANONYMOUS) {
+                return "class not accessible from its package";
+            }
+        }
+        for (ExecutableElement c : ElementFilter.constructorsIn(entity.getEnclosedElements())) {
+            if (isCreator(c)) {
+                return "attribute constructor";
+            }
+        }
+        for (ExecutableElement c : ElementFilter.constructorsIn(entity.getEnclosedElements())) {
+            if (c.getParameters().isEmpty() && !c.getModifiers().contains(Modifier.PRIVATE)) {
+                return null;
+            }
+        }
+        return "no default constructor";
+    }
+
+    /**
+     * Check for a constructor taking attribute values, which is preferred
+     * by the reflective binding.
+     *
+     * @param c
+     * @return <code>true</code> if all parameters are attributes
+     */
+    private boolean isCreator(ExecutableElement c) {
+        if (c.getParameters().isEmpty() || !c.getModifiers().contains(Modifier.PUBLIC)) {
+            return false;
+        }
+        for (VariableElement p : c.getParameters()) {
+            if (attributeOf(p) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Collect the annotated fields of the entity and its super classes.
+     *
+     * @param entity
+     * @param attributes
+     * @return An error message or <code>null</code>
+     */
+    private String collect(TypeElement entity, List<Attribute> attributes) {
+        final PackageElement pkg = elements.getPackageOf(entity);
+        TypeElement clazz = entity;
+        while (clazz != null) {
+            for (VariableElement f : ElementFilter.fieldsIn(clazz.getEnclosedElements())) {
+                final AnnotationMirror mirror = attributeOf(f);
+                if (mirror == null) {
+                    continue;
+                }
+                if (f.getModifiers().contains(Modifier.STATIC)) {
+                    return "static field " + f.getSimpleName();
+                }
+                if (isSame(f.asType(), "de.martinkade.http.entity.Lazy")) {
+                    return "lazy field " + f.getSimpleName();
+                }
+                final Attribute a = new Attribute();
+                a.field = f;
+                a.declaringClass = clazz;
+                a.name = nameOf(mirror);
+                a.intern = Boolean.TRUE.equals(valueOf(mirror, "intern"));
+                a.required = Boolean.FALSE.equals(valueOf(mirror, "optional"));
+                a.type = types.erasure(f.asType()).toString();
+                a.kind = kindOf(f.asType());
+                a.direct = !f.getModifiers().contains(Modifier.PRIVATE)
+                        && !f.getModifiers().contains(Modifier.FINAL)
+                        && (f.getModifiers().contains(Modifier.PUBLIC)
+                        || elements.getPackageOf(clazz).equals(pkg));
+                if (a.kind == Kind.COLLECTION) {
+                    final String error = resolveCollection(f.asType(), a);
+                    if (error != null) {
+                        return error;
+                    }
+                } else if (a.kind == Kind.VALUE && f.asType().getKind() == TypeKind.CHAR) {
+                    return "char field " + f.getSimpleName();
+                }
+                attributes.add(a);
+            }
+            final TypeMirror superclass = clazz.getSuperclass();
+            clazz = superclass.getKind() == TypeKind.DECLARED
+                    ? (TypeElement) types.asElement(superclass)
+                    : null;
+        }
+        return null;
+    }
+
+    /**
+     *
+     * @param type
+     * @param a
+     * @return
+     */
+    private String resolveCollection(TypeMirror type, Attribute a) {
+        final TypeElement element = (TypeElement) types.asElement(type);
+        if (element.getKind() == ElementKind.INTERFACE || element.getModifiers().contains(Modifier.ABSTRACT)) {
+            if (isSubtype(type, "java.util.Set")) {
+                a.collectionType = "java.util.HashSet";
+            } else if (isSubtype(type, "java.util.List")) {
+                a.collectionType = "java.util.ArrayList";
+            } else {
+                return "collection type is not compatible: " + a.field.getSimpleName();
+            }
+        } else {
+            a.collectionType = types.erasure(type).toString();
+        }
+
+        final List<? extends TypeMirror> args = ((DeclaredType) type).getTypeArguments();
+        if (args.isEmpty() || args.get(0).getKind() != TypeKind.DECLARED) {
+            a.elementKind = Kind.VALUE;
+            return null;
+        }
+        final TypeMirror arg = args.get(0);
+        a.elementType = types.erasure(arg).toString();
+        if (isSubtype(arg, ENTITY)) {
+            a.elementKind = Kind.ENTITY;
+        } else if (isPrimitiveWrapper(arg)) {
+            a.elementKind = Kind.PRIMITIVE;
+        } else {
+            a.elementKind = Kind.VALUE;
+        }
+        return null;
+    }
+
+    /**
+     *
+     * @param type
+     * @return
+     */
+    private Kind kindOf(TypeMirror type) {
+        switch (type.getKind()) {
+            case INT:
+                return Kind.INT;
+            case FLOAT:
+                return Kind.FLOAT;
+            case ARRAY:
+                switch (((ArrayType) type).getComponentType().getKind()) {
+                    case INT:
+                    case LONG:
+                    case FLOAT:
+                    case DOUBLE:
+                        return Kind.ARRAY;
+                    default:
+                        return Kind.VALUE;
+                }
+            case DECLARED:
+                break;
+            default:
+                return Kind.VALUE;
+        }
+        if (isSubtype(type, ENTITY)) {
+            return Kind.ENTITY;
+        } else if (isSubtype(type, "java.util.Collection")) {
+            return Kind.COLLECTION;
+        } else if (isSame(type, "java.lang.Integer")) {
+            return Kind.INT;
+        } else if (isSame(type, "java.lang.Float")) {
+            return Kind.FLOAT;
+        }
+        return Kind.CONVERTED;
+    }
+
+    /**
+     * Write the codec source file.
+     *
+     * @param entity
+     * @param attributes
+     * @throws IOException
+     */
+    private void write(TypeElement entity, List<Attribute> attributes) throws IOException {
+        final String pkg = elements.getPackageOf(entity).getQualifiedName().toString();
+        final String codec = codecName(entity);
+        final String owner = entity.getQualifiedName().toString();
+
+        final StringBuilder src = new StringBuilder();
+        src.append("// Generated by ").append(getClass().getName()).append(", do not edit.\n");
+        if (!pkg.isEmpty()) {
+            src.append("package ").append(pkg).append(";\n");
+        }
+        src.append("\n@SuppressWarnings({\"unchecked\", \"rawtypes\"})\n");
+        src.append("public final class ").append(codec)
+                .append(" implements de.martinkade.http.entity.EntityCodec<").append(owner).append("> {\n");
+
+        src.append("\n    private static final ").append(NAME_TABLE).append(" NAMES = ")
+                .append(SUPPORT).append(".names(");
+        for (int i = 0; i < attributes.size(); i++) {
+            src.append(i == 0 ? "" : ", ").append('"').append(escape(attributes.get(i).name)).append('"');
+        }
+        src.append(");\n");
+        for (int i = 0; i < attributes.size(); i++) {
+            final Attribute a = attributes.get(i);
+            if (!a.direct) {
+                final String args = String.format("(%s.class, %s.class, \"%s\")", owner,
+                        a.declaringClass.getQualifiedName(), a.field.getSimpleName());
+                src.append("\n    private static final java.lang.invoke.MethodHandle GET_").append(i)
+                        .append(" = ").append(SUPPORT).append(".getter").append(args).append(";\n");
+                src.append("\n    private static final java.lang.invoke.MethodHandle SET_").append(i)
+                        .append(" = ").append(SUPPORT).append(".setter").append(args).append(";\n");
+            }
+        }
+        for (int i = 0; i < attributes.size(); i++) {
+            final Attribute a = attributes.get(i);
+            if (a.kind == Kind.CONVERTED) {
+                src.append("\n    private final ").append(CONVERTER).append(" CONV_").append(i).append(" = ")
+                        .append(SUPPORT).append(".converter(").append(a.declaringClass.getQualifiedName())
+                        .append(".class, \"").append(a.field.getSimpleName()).append("\");\n");
+            }
+        }
+
+        // write
+        src.append("\n    @Override\n");
+        src.append("    public void write(").append(TOKEN_WRITER).append(" writer, ").append(owner)
+                .append(" entity) throws ").append(API_EXCEPTION).append(", java.io.IOException {\n");
+        src.append("        try {\n");
+        src.append("            writer.beginObject();\n");
+        for (int i = 0; i < attributes.size(); i++) {
+            final Attribute a = attributes.get(i);
+            src.append("            writer.name(\"").append(escape(a.name)).append("\");\n");
+            src.append("            ").append(writeStatement(a, i, get(entity, a, i))).append(";\n");
+        }
+        src.append("            writer.endObject();\n");
+        src.append("        } catch (java.io.IOException ex) {\n");
+        src.append("            throw ex;\n");
+        src.append("        } catch (Throwable ex) {\n");
+        src.append("            throw ").append(SUPPORT).append(".error(ex, ")
+                .append(API_EXCEPTION).append(".APIError.JSON_ENCODE_ERROR);\n");
+        src.append("        }\n");
+        src.append("    }\n");
+
+        // read
+        src.append("\n    @Override\n");
+        src.append("    public ").append(owner).append(" read(").append(TOKEN_READER)
+                .append(" reader) throws ").append(API_EXCEPTION).append(", java.io.IOException {\n");
+        src.append("        if (reader.peek() == ").append(TOKEN).append(".NULL) {\n");
+        src.append("            reader.nextNull();\n");
+        src.append("            return null;\n");
+        src.append("        }\n");
+        src.append("        ").append(owner).append(" entity = ").append(SUPPORT).append(".recycled(")
+                .append(owner).append(".class);\n");
+        src.append("        if (entity == null) {\n");
+        src.append("            entity = new ").append(owner).append("();\n");
+        src.append("        }\n");
+        boolean required = false;
+        for (int i = 0; i < attributes.size(); i++) {
+            if (attributes.get(i).required) {
+                src.append("        boolean seen").append(i).append(" = false;\n");
+                required = true;
+            }
+        }
+        src.append("        try {\n");
+        src.append("            reader.beginObject();\n");
+        src.append("            while (reader.hasNext()) {\n");
+        src.append("                switch (reader.nextName(NAMES)) {\n");
+        for (int i = 0; i < attributes.size(); i++) {
+            final Attribute a = attributes.get(i);
+            src.append("                    case ").append(i).append(":\n");
+            src.append("                        if (reader.peek() == ").append(TOKEN).append(".NULL) {\n");
+            src.append("                            reader.nextNull();\n");
+            if (!a.field.asType().getKind().isPrimitive()) {
+                src.append("                            ").append(set(entity, a, i, nullOf(a))).append(";\n");
+            }
+            src.append("                        } else {\n");
+            src.append("                            ").append(set(entity, a, i, readExpr(entity, a, i))).append(";\n");
+            if (a.required) {
+                src.append("                            seen").append(i).append(" = true;\n");
+            }
+            src.append("                        }\n");
+            src.append("                        break;\n");
+        }
+        src.append("                    default:\n");
+        src.append("                        reader.skipValue();\n");
+        src.append("                        break;\n");
+        src.append("                }\n");
+        src.append("            }\n");
+        src.append("            reader.endObject();\n");
+        src.append("        } catch (java.io.IOException ex) {\n");
+        src.append("            throw ex;\n");
+        src.append("        } catch (Throwable ex) {\n");
+        src.append("            throw ").append(SUPPORT).append(".error(ex, ")
+                .append(API_EXCEPTION).append(".APIError.JSON_DECODE_ERROR);\n");
+        src.append("        }\n");
+        if (required) {
+            src.append("        String missing = null;\n");
+            for (int i = 0; i < attributes.size(); i++) {
+                final Attribute a = attributes.get(i);
+                if (a.required) {
+                    src.append("        if (!seen").append(i).append(") {\n");
+                    src.append("            missing = ").append(SUPPORT).append(".missing(missing, \"")
+                            .append(escape(a.name)).append("\");\n");
+                    src.append("        }\n");
+                }
+            }
+            src.append("        if (missing != null) {\n");
+            src.append("            throw ").append(SUPPORT).append(".missingError(").append(owner)
+                    .append(".class, missing);\n");
+            src.append("        }\n");
+        }
+        src.append("        return entity;\n");
+        src.append("    }\n");
+        src.append("}\n");
+
+        final JavaFileObject file = processingEnv.getFiler().createSourceFile(
+                pkg.isEmpty() ? codec : pkg + "." + codec, entity);
+        try (Writer w = file.openWriter()) {
+            w.write(src.toString());
+        }
+    }
+
+    /**
+     * Expression selecting a directly accessible field of
+     * <code>entity</code>, cast to the declaring class only if the field is
+     * hidden by a subclass.
+     */
+    private String field(TypeElement entity, Attribute a) {
+        for (TypeElement c = entity; !c.equals(a.declaringClass);
+                c = (TypeElement) types.asElement(c.getSuperclass())) {
+            for (VariableElement f : ElementFilter.fieldsIn(c.getEnclosedElements())) {
+                if (f.getSimpleName().contentEquals(a.field.getSimpleName())) {
+                    return String.format("((%s) entity).%s", a.declaringClass.getQualifiedName(),
+                            a.field.getSimpleName());
+                }
+            }
+        }
+        return "entity." + a.field.getSimpleName();
+    }
+
+    /**
+     * Expression reading the field value.
+     */
+    private String get(TypeElement entity, Attribute a, int i) {
+        if (a.direct) {
+            return field(entity, a);
+        }
+        return String.format("((%s) GET_%d.invokeExact(entity))", a.type, i);
+    }
+
+    /**
+     * Statement writing the field value. Values handed to a method handle
+     * must have the exact field type.
+     */
+    private String set(TypeElement entity, Attribute a, int i, String value) {
+        if (a.direct) {
+            return String.format("%s = %s", field(entity, a), value);
+        } else if (a.kind == Kind.COLLECTION && !a.collectionType.equals(a.type)) {
+            return String.format("SET_%d.invokeExact(entity, (%s) %s)", i, a.type, value);
+        }
+        return String.format("SET_%d.invokeExact(entity, %s)", i, value);
+    }
+
+    /**
+     * The <code>null</code> literal typed for {@link #set}.
+     */
+    private String nullOf(Attribute a) {
+        return a.direct || a.kind == Kind.COLLECTION ? "null" : String.format("(%s) null", a.type);
+    }
+
+    /**
+     * Statement writing the field value to <code>writer</code>.
+     */
+    private String writeStatement(Attribute a, int i, String value) {
+        switch (a.kind) {
+            case ENTITY:
+                return String.format("%s.write(writer, %s)", SUPPORT, value);
+            case CONVERTED:
+                return String.format("%s.writeConverted(writer, CONV_%d, %s)", SUPPORT, i, value);
+            case COLLECTION:
+                if (a.elementKind == Kind.ENTITY) {
+                    return String.format("%s.writeAll(writer, %s)", SUPPORT, value);
+                } else if (a.elementKind == Kind.PRIMITIVE) {
+                    return String.format("%s.writeValues(writer, %s)", SUPPORT, value);
+                }
+                return "writer.nullValue()";
+            case ARRAY:
+                return String.format("%s.writeArray(writer, %s)", SUPPORT, value);
+            default:
+                return String.format("writer.value(%s)", value);
+        }
+    }
+
+    /**
+     * Expression reading a value of the exact field type from
+     * <code>reader</code>, the next token is not <code>null</code>.
+     */
+    private String readExpr(TypeElement entity, Attribute a, int i) {
+        final TypeKind primitive = a.field.asType().getKind();
+        switch (a.kind) {
+            case ENTITY:
+                return String.format("%s.read(reader, %s.class)", SUPPORT, a.type);
+            case COLLECTION:
+                final String target = String.format("%s.reuse(%s, %s.class, %s::new)", SUPPORT,
+                        get(entity, a, i), a.collectionType, a.collectionType);
+                if (a.elementKind == Kind.ENTITY) {
+                    return String.format("%s.readAll(reader, %s.class, %s)", SUPPORT, a.elementType, target);
+                } else if (a.elementKind == Kind.PRIMITIVE) {
+                    return String.format("%s.readValues(reader, %s)", SUPPORT, target);
+                }
+                return String.format("%s.skipValues(reader, %s)", SUPPORT, target);
+            case ARRAY:
+                final String component = ((ArrayType) a.field.asType()).getComponentType().toString();
+                return String.format("reader.next%s%sArray()",
+                        Character.toUpperCase(component.charAt(0)), component.substring(1));
+            case INT:
+                return primitive == TypeKind.INT
+                        ? "reader.nextInt()"
+                        : "java.lang.Integer.valueOf(reader.nextInt())";
+            case FLOAT:
+                return primitive == TypeKind.FLOAT
+                        ? "(float) reader.nextDouble()"
+                        : "java.lang.Float.valueOf((float) reader.nextDouble())";
+            default:
+                break;
+        }
+        switch (primitive) {
+            case LONG:
+                return "reader.nextLong()";
+            case DOUBLE:
+                return "reader.nextDouble()";
+            case SHORT:
+                return "(short) reader.nextInt()";
+            case BYTE:
+                return "(byte) reader.nextInt()";
+            case BOOLEAN:
+                return "reader.nextBoolean()";
+            default:
+                break;
+        }
+        final String value = String.format("%s.readConverted(reader, %s, %b, \"%s\")", SUPPORT,
+                a.kind == Kind.CONVERTED ? "CONV_" + i : "null", a.intern, escape(a.name));
+        return "java.lang.Object".equals(a.type) ? value : String.format("(%s) %s", a.type, value);
+    }
+
+    /**
+     *
+     * @param entity
+     * @return
+     */
+    static String codecName(TypeElement entity) {
+        final StringBuilder name = new StringBuilder(entity.getSimpleName());
+        for (Element e = entity.getEnclosingElement(); e instanceof TypeElement; e = e.getEnclosingElement()) {
+            name.insert(0, '_').insert(0, e.getSimpleName());
+        }
+        return name.append("Codec").toString();
+    }
+
+    private AnnotationMirror attributeOf(Element e) {
+        for (AnnotationMirror m : e.getAnnotationMirrors()) {
+            if (((TypeElement) m.getAnnotationType().asElement()).getQualifiedName().contentEquals(JSON_ATTRIBUTE)) {
+                return m;
+            }
+        }
+        return null;
+    }
+
+    private String nameOf(AnnotationMirror m) {
+        final Object name = valueOf(m, "name");
+        return name == null ? "" : (String) name;
+    }
+
+    private Object valueOf(AnnotationMirror m, String element) {
+        for (ExecutableElement k : m.getElementValues().keySet()) {
+            if (k.getSimpleName().contentEquals(element)) {
+                return m.getElementValues().get(k).getValue();
+            }
+        }
+        return null;
+    }
+
+    private boolean isSubtype(TypeMirror type, String name) {
+        final TypeElement e = elements.getTypeElement(name);
+        return e != null && types.isAssignable(types.erasure(type), types.erasure(e.asType()));
+    }
+
+    private boolean isSame(TypeMirror type, String name) {
+        final TypeElement e = elements.getTypeElement(name);
+        return e != null && types.isSameType(types.erasure(type), types.erasure(e.asType()));
+    }
+
+    private boolean isPrimitiveWrapper(TypeMirror type) {
+        for (String name : new String[]{"java.lang.Integer", "java.lang.Long", "java.lang.Float",
+            "java.lang.Double", "java.lang.Boolean"}) {
+            if (isSubtype(type, name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private void note(TypeElement entity, String reason) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+                String.format("no codec generated for %s: %s", entity.getQualifiedName(), reason));
+    }
+}
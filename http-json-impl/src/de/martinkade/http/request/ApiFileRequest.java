@@ -28,18 +28,13 @@ import de.martinkade.http.ApiService;
 import de.martinkade.http.entity.EntityBuilder;
 import de.martinkade.http.entity.FileUpload;
 
-import java.io.BufferedReader;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.json.simple.parser.ParseException;
-
 /**
  * ...
  * <p/>
@@ -64,7 +59,7 @@ public class ApiFileRequest<T extends ApiService.Entity> extends ApiRequest<T> {
     public ApiFileRequest(String url, Class<T> responseClass) {
         super(url, responseClass);
         contentType = "multipart/form-data;boundary=---------------------------4664151417711";
-        responseBuilder = new EntityBuilder<>();
+        responseBuilder = EntityBuilder.getInstance();
     }
 
     @Override
@@ -86,43 +81,36 @@ public class ApiFileRequest<T extends ApiService.Entity> extends ApiRequest<T> {
         fileData = new FileUpload(file, mimeType);
     }
 
+    @Override
+    protected void send() throws IOException, ApiException {
+        final DataOutputStream out = new DataOutputStream(connection.getOutputStream());
+        out.write(fileData.getStartMessage().getBytes());
+        int index = 0, size = 1024, length = fileData.getBytes().length;
+        do {
+            if ((index + size) > length) {
+                size = length - index;
+            }
+            out.write(fileData.getBytes(), index, size);
+            index += size;
+        } while (index < length);
+        out.write(fileData.getEndMessage().getBytes());
+        out.flush();
+    }
+
     @Override
     protected T run(String urlParams) throws ApiException {
         try {
 
             // send request
-            final DataOutputStream out = new DataOutputStream(connection.getOutputStream());
-            out.write(fileData.getStartMessage().getBytes());
-            int index = 0, size = 1024, length = fileData.getBytes().length;
-            do {
-                if ((index + size) > length) {
-                    size = length - index;
-                }
-                out.write(fileData.getBytes(), index, size);
-                index += size;
-            } while (index < length);
-            out.write(fileData.getEndMessage().getBytes());
-            out.flush();
+            send();
 
             // receive response
-            final StringBuilder response;
-            try (InputStream in = connection.getInputStream()) {
-                final BufferedReader reader = new BufferedReader(new InputStreamReader(in));
-                response = new StringBuilder();
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    response.append(line);
-                    response.append('\r');
-                }
-            }
-
-            rawResponse = response.toString();
-            return responseBuilder.decode(rawResponse, responseClass);
-        } catch (ParseException | IOException ex) {
+            return receive();
+        } catch (IOException ex) {
             Logger.getLogger(TAG).log(Level.SEVERE, null, ex);
             throw new ApiException(ex.getMessage(), ApiException.APIError.IO_ERROR);
         } finally {
-            connection.disconnect();
+            release();
         }
     }
 }
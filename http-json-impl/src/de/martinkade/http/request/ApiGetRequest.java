@@ -27,16 +27,11 @@ import de.martinkade.http.ApiException;
 import de.martinkade.http.ApiService;
 import de.martinkade.http.entity.EntityBuilder;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.json.simple.parser.ParseException;
-
 /**
  * ...
  * <p/>
@@ -55,7 +50,7 @@ public class ApiGetRequest<T extends ApiService.Entity> extends ApiRequest<T> {
      */
     public ApiGetRequest(String url, Class<T> responseClass) {
         super(url, responseClass);
-        responseBuilder = new EntityBuilder<>();
+        responseBuilder = EntityBuilder.getInstance();
     }
 
     @Override
@@ -72,23 +67,12 @@ public class ApiGetRequest<T extends ApiService.Entity> extends ApiRequest<T> {
         try {
 
             // receive response
-            final StringBuilder response;
-            final InputStream in = connection.getInputStream();
-            final BufferedReader reader = new BufferedReader(new InputStreamReader(in));
-            response = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                response.append(line);
-                response.append('\r');
-            }
-
-            rawResponse = response.toString();
-            return responseBuilder.decode(rawResponse, responseClass);
-        } catch (ParseException | IOException ex) {
+            return receive();
+        } catch (IOException ex) {
             Logger.getLogger(TAG).log(Level.SEVERE, null, ex);
             throw new ApiException(ex.getMessage(), ApiException.APIError.IO_ERROR);
         } finally {
-            connection.disconnect();
+            release();
         }
     }
 
@@ -27,11 +27,9 @@ import de.martinkade.http.ApiException;
 import de.martinkade.http.ApiService;
 import de.martinkade.http.entity.EntityBuilder;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 
@@ -42,8 +40,6 @@ import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.json.simple.parser.ParseException;
-
 /**
  * ...
  * <p/>
@@ -59,6 +55,11 @@ public class ApiPostRequest<T extends ApiService.Entity> extends ApiRequest<T> {
      */
     private Map<String, String> params;
 
+    /**
+     * Encoded form parameters, compressed if requested.
+     */
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
     /**
      * Constructor.
      *
@@ -67,7 +68,7 @@ public class ApiPostRequest<T extends ApiService.Entity> extends ApiRequest<T> {
      */
     public ApiPostRequest(String url, Class<T> responseClass) {
         super(url, responseClass);
-        responseBuilder = new EntityBuilder<>();
+        responseBuilder = EntityBuilder.getInstance();
         contentType = "application/x-www-form-urlencoded";
     }
 
@@ -76,11 +77,12 @@ public class ApiPostRequest<T extends ApiService.Entity> extends ApiRequest<T> {
         super.config(urlParams);
         connection.setRequestMethod("POST");
         connection.setRequestProperty("Content-Type", contentType);
-        connection.setRequestProperty("Content-Length",
-                Integer.toString(params == null
-                        ? 0
-                        : getPostDataString().length)
-        );
+        body.reset();
+        if (params != null) {
+            body.write(getPostDataString());
+        }
+        compressBody(body);
+        connection.setFixedLengthStreamingMode(body.size());
         connection.connect();
     }
 
@@ -116,36 +118,27 @@ public class ApiPostRequest<T extends ApiService.Entity> extends ApiRequest<T> {
         return result.toString().getBytes(Charset.forName(charset));
     }
 
+    @Override
+    protected void send() throws IOException, ApiException {
+        final DataOutputStream out = new DataOutputStream(connection.getOutputStream());
+        body.writeTo(out);
+        out.flush();
+    }
+
     @Override
     protected T run(String urlParams) throws ApiException {
         try {
 
             // send request
-            final DataOutputStream out = new DataOutputStream(connection.getOutputStream());
-            out.write(params == null
-                    ? "".getBytes(Charset.forName(charset))
-                    : getPostDataString());
-            out.flush();
+            send();
 
             // receive response
-            final StringBuilder response;
-            try (InputStream in = connection.getInputStream()) {
-                final BufferedReader reader = new BufferedReader(new InputStreamReader(in));
-                response = new StringBuilder();
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    response.append(line);
-                    response.append('\r');
-                }
-            }
-
-            rawResponse = response.toString();
-            return responseBuilder.decode(rawResponse, responseClass);
-        } catch (ParseException | IOException ex) {
+            return receive();
+        } catch (IOException ex) {
             Logger.getLogger(TAG).log(Level.SEVERE, null, ex);
             throw new ApiException(ex.getMessage(), ApiException.APIError.IO_ERROR);
         } finally {
-            connection.disconnect();
+            release();
         }
     }
 }
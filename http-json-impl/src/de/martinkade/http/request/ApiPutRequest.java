@@ -26,21 +26,22 @@ package de.martinkade.http.request;
 import de.martinkade.http.ApiException;
 import de.martinkade.http.ApiService;
 import de.martinkade.http.entity.EntityBuilder;
+import de.martinkade.http.entity.EntitySnapshot;
+import de.martinkade.http.entity.WireFormat;
 
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
 
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
 
 import org.json.simple.JSONObject;
-import org.json.simple.parser.ParseException;
 
 /**
  * ...
@@ -68,6 +69,27 @@ public class ApiPutRequest<T extends ApiService.Entity, E extends ApiService.Ent
      */
     private EntityBuilder<E> requestBuilder;
 
+    /**
+     * Format of the request body.
+     */
+    private WireFormat requestFormat = WireFormat.JSON;
+
+    /**
+     * Flag if the raw request data is a json merge patch.
+     */
+    private boolean mergePatch;
+
+    /**
+     * Chunk length for chunked streaming of the request body, 0 sends the
+     * body with a fixed length.
+     */
+    private int chunkSize;
+
+    /**
+     * Reusable buffer of the encoded request body in fixed length mode.
+     */
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
     /**
      * Constructor.
      *
@@ -76,8 +98,8 @@ public class ApiPutRequest<T extends ApiService.Entity, E extends ApiService.Ent
      */
     public ApiPutRequest(String url, Class<T> responseClass) {
         super(url, responseClass);
-        responseBuilder = new EntityBuilder<>();
-        requestBuilder = new EntityBuilder<>();
+        responseBuilder = EntityBuilder.getInstance();
+        requestBuilder = EntityBuilder.getInstance();
     }
 
     @Override
@@ -85,22 +107,101 @@ public class ApiPutRequest<T extends ApiService.Entity, E extends ApiService.Ent
         super.config(urlParams);
         connection.setRequestMethod("PUT");
         connection.setRequestProperty("Content-Type", contentType);
-        connection.setRequestProperty("Content-Length",
-                Integer.toString(requestData == null
-                        ? rawRequestData.toJSONString().getBytes(Charset.forName(charset)).length
-                        : requestBuilder.encode(requestData).getBytes(Charset.forName(charset)).length)
-        );
+        if (chunkSize > 0) {
+            connection.setChunkedStreamingMode(chunkSize);
+            if (compressionThreshold >= 0) {
+                connection.setRequestProperty("Content-Encoding", "gzip");
+            }
+        } else {
+            body.reset();
+            writeBody(body);
+            compressBody(body);
+            connection.setFixedLengthStreamingMode(body.size());
+        }
         connection.connect();
     }
 
+    /**
+     * Stream the request body in chunks of the given length instead of
+     * encoding it up front to determine its length. The body is then
+     * encoded straight into the connection.
+     *
+     * @param chunkSize The chunk length, 0 to send a fixed length body
+     */
+    public void setChunkedStreaming(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Send the request body in the given format, setting the
+     * <code>Content-Type</code> accordingly.
+     *
+     * @param format The body format
+     */
+    public void setRequestFormat(WireFormat format) {
+        this.requestFormat = format;
+        updateContentType();
+    }
+
     public final void setRequestData(E requestData) {
         this.requestData = requestData;
         this.rawRequestData = null;
+        setMergePatch(false);
     }
 
     public void setRawRequestData(Map rawRequestData) {
         this.rawRequestData = new JSONObject(rawRequestData);
         this.requestData = null;
+        setMergePatch(false);
+    }
+
+    /**
+     * Send only the attributes changed since the snapshot was taken instead
+     * of the whole entity. Attributes set to <code>null</code> are sent as
+     * <code>null</code>.
+     *
+     * @param snapshot The snapshot of the entity to update
+     * @param mergePatch Flag to declare the body a json merge patch
+     * (RFC 7386) by its <code>Content-Type</code>, otherwise it is sent as
+     * partial object
+     * @throws ApiException
+     */
+    public void setRequestChanges(EntitySnapshot<E> snapshot, boolean mergePatch) throws ApiException {
+        this.rawRequestData = snapshot.changes();
+        this.requestData = null;
+        setMergePatch(mergePatch);
+    }
+
+    private void setMergePatch(boolean mergePatch) {
+        if (this.mergePatch != mergePatch) {
+            this.mergePatch = mergePatch;
+            updateContentType();
+        }
+    }
+
+    private void updateContentType() {
+        if (requestFormat != WireFormat.JSON) {
+            contentType = requestFormat.getMediaType();
+        } else if (mergePatch) {
+            contentType = "application/merge-patch+json;charset=utf-8";
+        } else {
+            contentType = "application/json;charset=utf-8";
+        }
+    }
+
+    @Override
+    protected void send() throws IOException, ApiException {
+        final OutputStream out = connection.getOutputStream();
+        if (chunkSize == 0) {
+            body.writeTo(out);
+        } else if (compressionThreshold >= 0) {
+            final GZIPOutputStream gzip = new GZIPOutputStream(transferStats.counting(out, true), 8192);
+            writeBody(transferStats.counting(gzip, false));
+            gzip.finish();
+        } else {
+            writeBody(transferStats.counting(transferStats.counting(out, true), false));
+        }
+        out.flush();
     }
 
     @Override
@@ -108,31 +209,36 @@ public class ApiPutRequest<T extends ApiService.Entity, E extends ApiService.Ent
         try {
 
             // send request
-            final DataOutputStream out = new DataOutputStream(connection.getOutputStream());
-            out.write(requestData == null
-                    ? rawRequestData.toJSONString().getBytes(Charset.forName(charset))
-                    : requestBuilder.encode(requestData).getBytes(Charset.forName(charset)));
-            out.flush();
+            send();
 
             // receive response
-            final StringBuilder response;
-            try (InputStream in = connection.getInputStream()) {
-                final BufferedReader reader = new BufferedReader(new InputStreamReader(in));
-                response = new StringBuilder();
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    response.append(line);
-                    response.append('\r');
-                }
-            }
-
-            rawResponse = response.toString();
-            return responseBuilder.decode(rawResponse, responseClass);
-        } catch (ParseException | IOException ex) {
+            return receive();
+        } catch (IOException ex) {
             Logger.getLogger(TAG).log(Level.SEVERE, null, ex);
             throw new ApiException(ex.getMessage(), ApiException.APIError.IO_ERROR);
         } finally {
-            connection.disconnect();
+            release();
+        }
+    }
+
+    /**
+     * Encode the request data into the given stream. Binary and UTF-8
+     * bodies are written without an intermediate string.
+     *
+     * @param out
+     * @throws IOException
+     * @throws ApiException
+     */
+    private void writeBody(OutputStream out) throws IOException, ApiException {
+        final Charset cs = Charset.forName(charset);
+        if (requestFormat == WireFormat.JSON && !StandardCharsets.UTF_8.equals(cs)) {
+            out.write((requestData == null
+                    ? rawRequestData.toJSONString()
+                    : requestBuilder.encode(requestData)).getBytes(cs));
+        } else if (requestData == null) {
+            EntityBuilder.encode(rawRequestData, out, requestFormat);
+        } else {
+            requestBuilder.encode(requestData, out, requestFormat);
         }
     }
 }
@@ -25,19 +25,37 @@ package de.martinkade.http.request;
 
 import de.martinkade.http.ApiException;
 import de.martinkade.http.ApiService;
+import de.martinkade.http.entity.DecodeStats;
 import de.martinkade.http.entity.EntityBuilder;
+import de.martinkade.http.entity.EntityIterator;
+import de.martinkade.http.entity.WireFormat;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
 
 import java.net.HttpURLConnection;
 import java.net.ProtocolException;
 import java.net.URL;
 
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 /**
  * ...
@@ -70,10 +88,38 @@ public abstract class ApiRequest<T extends ApiService.Entity> implements Callabl
     protected Class<T> responseClass;
 
     /**
-     * Raw json response string.
+     * Raw json response string, only kept if {@link #retainRawResponse} is
+     * set.
      */
     protected String rawResponse;
 
+    /**
+     * Flag if the raw response string should be kept. Default is false,
+     * decoding the response straight from the connection stream.
+     */
+    protected boolean retainRawResponse;
+
+    /**
+     * Counters of the streaming response decode.
+     */
+    protected final DecodeStats decodeStats = new DecodeStats();
+
+    /**
+     * Counters of the transferred body bytes.
+     */
+    protected final TransferStats transferStats = new TransferStats();
+
+    /**
+     * Minimum length of a request body to send it gzip compressed, -1 to
+     * send it as is. Only honored by requests with a body.
+     */
+    protected int compressionThreshold = -1;
+
+    /**
+     * Flag if compressed responses are accepted.
+     */
+    private boolean acceptCompression = true;
+
     /**
      * The url string.
      */
@@ -99,11 +145,33 @@ public abstract class ApiRequest<T extends ApiService.Entity> implements Callabl
      */
     protected String contentType, charset;
 
+    /**
+     * Response formats in order of preference, sent in the
+     * <code>Accept</code> header.
+     */
+    private WireFormat[] acceptedFormats = {WireFormat.JSON};
+
     /**
      * The entity builder for the response.
      */
     protected EntityBuilder<T> responseBuilder;
 
+    /**
+     * Limiter bounding the connections in use per host.
+     */
+    private HostLimiter hostLimiter = HostLimiter.getDefault();
+
+    /**
+     * Slot of {@link #connection} in the limiter, <code>null</code> if not
+     * connected.
+     */
+    private HostLimiter.Lease lease;
+
+    /**
+     * Transport opening the {@link #connection}.
+     */
+    private Transport transport = Transport.DEFAULT;
+
     /**
      * Constructor.
      *
@@ -127,10 +195,112 @@ public abstract class ApiRequest<T extends ApiService.Entity> implements Callabl
         } catch (IOException ex) {
             Logger.getLogger(TAG).log(Level.SEVERE, null, ex);
             throw new ApiException(ex.getMessage(), ApiException.APIError.CONNECTION_TIMEOUT);
+        } finally {
+            release();
         }
         return this;
     }
 
+    /**
+     * Execute the request without waiting for the response. The request is
+     * encoded and handed to the transport on the calling thread, which may
+     * wait for a slot of the host limiter. A {@link NioTransport}
+     * receives the response on its event loop, so no thread waits for it;
+     * other transports receive it on the given executor. The response is
+     * decoded on the executor.
+     *
+     * @param executor The executor decoding the response
+     * @return The response entity, completed exceptionally with an
+     * {@link ApiException} if the request failed
+     */
+    public CompletableFuture<T> callAsync(Executor executor) {
+        final CompletableFuture<Void> received;
+        try {
+            tryConnect();
+            send();
+            received = connection instanceof BufferedConnection
+                    ? ((BufferedConnection) connection).receiveAsync()
+                    : CompletableFuture.<Void>completedFuture(null);
+        } catch (IOException | RuntimeException ex) {
+            release();
+            final CompletableFuture<T> failed = new CompletableFuture<>();
+            failed.completeExceptionally(ex instanceof ApiException
+                    ? ex
+                    : new ApiException(ex.getMessage(), ApiException.APIError.IO_ERROR));
+            return failed;
+        }
+        return received.handleAsync((ignored, error) -> {
+            try {
+                if (error != null) {
+                    final Throwable cause = error instanceof CompletionException && error.getCause() != null
+                            ? error.getCause()
+                            : error;
+                    Logger.getLogger(TAG).log(Level.SEVERE, null, cause);
+                    throw new ApiException(cause.getMessage(), ApiException.APIError.IO_ERROR);
+                }
+                responseData = receive();
+                responseCode = connection.getResponseCode();
+                return responseData;
+            } catch (IOException ex) {
+                Logger.getLogger(TAG).log(Level.SEVERE, null, ex);
+                throw new ApiException(ex.getMessage(), ApiException.APIError.IO_ERROR);
+            } finally {
+                release();
+            }
+        }, executor);
+    }
+
+    /**
+     * Execute the request and decode the response lazily as a json array of
+     * entities, read from the connection one element at a time. The
+     * connection is released when the iterator is closed or read to the end.
+     *
+     * @return The response entities
+     * @throws ApiException
+     */
+    public EntityIterator<T> iterate() throws ApiException {
+        return iterate(null);
+    }
+
+    /**
+     * Execute the request and decode the response lazily as a json array of
+     * entities, read from the connection one element at a time. The
+     * connection is released when the iterator is closed or read to the end.
+     *
+     * @param attribute The top level attribute holding the array or
+     * <code>null</code> if the response is a bare array
+     * @return The response entities
+     * @throws ApiException
+     */
+    public EntityIterator<T> iterate(String attribute) throws ApiException {
+        try {
+            tryConnect();
+            send();
+            final HttpURLConnection c = connection;
+            final InputStream in = new FilterInputStream(openResponse()) {
+
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        release();
+                    }
+                }
+            };
+            responseCode = c.getResponseCode();
+            return responseBuilder.decodeAll(in, responseClass, attribute,
+                    WireFormat.forContentType(c.getContentType()), decodeStats);
+        } catch (IOException ex) {
+            Logger.getLogger(TAG).log(Level.SEVERE, null, ex);
+            release();
+            throw new ApiException(ex.getMessage(), ApiException.APIError.IO_ERROR);
+        } catch (RuntimeException ex) {
+            release();
+            throw ex;
+        }
+    }
+
     /**
      * Try to establish the {@link #connection} to the given url string.
      *
@@ -141,19 +311,117 @@ public abstract class ApiRequest<T extends ApiService.Entity> implements Callabl
     private String tryConnect() throws ApiException, IOException {
         final String params = encodeUrlParams();
         final URL address = new URL(url + "?" + params);
-        connection = (HttpURLConnection) address.openConnection();
+        if (transport != Transport.HTTP2) {
+            lease = hostLimiter.acquire(address, timeoutSeconds * 1000L);
+        }
+        connection = transport.open(address);
         config(params);
         return params;
     }
 
+    /**
+     * Hand the slot of the connection back to the host limiter, leaving the
+     * connection to the keep-alive cache of the transport for the next
+     * request to the same host. An unread error response is drained first,
+     * since only fully read connections are reused. Safe to call more than
+     * once.
+     */
+    protected void release() {
+        final HostLimiter.Lease l = lease;
+        if (l == null) {
+            return;
+        }
+        lease = null;
+        if (connection == null) {
+            l.release();
+            return;
+        }
+        try (InputStream error = connection.getErrorStream()) {
+            if (error != null) {
+                final byte[] buf = new byte[1024];
+                while (error.read(buf) != -1) {
+                    // drain
+                }
+            }
+        } catch (IOException ex) {
+            connection.disconnect();
+        } finally {
+            l.release();
+        }
+    }
+
     public void setCharset(String charset) {
         this.charset = charset;
     }
 
+    /**
+     * Use the given limiter instead of the default one.
+     *
+     * @param hostLimiter
+     */
+    public void setHostLimiter(HostLimiter hostLimiter) {
+        this.hostLimiter = hostLimiter;
+    }
+
+    /**
+     * Send the request by the given transport instead of the platform
+     * <code>HttpURLConnection</code>. The host limiter still bounds the
+     * requests in flight per host, except for {@link Transport#HTTP2}, which
+     * multiplexes them over one connection and is bounded by the concurrent
+     * streams the server allows.
+     *
+     * @param transport The transport, e.g. {@link Transport#HTTP2}
+     */
+    public void setTransport(Transport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Ask for gzip or deflate compressed responses, which are decompressed
+     * while decoding. Default is true.
+     *
+     * @param acceptCompression
+     */
+    public void setAcceptCompression(boolean acceptCompression) {
+        this.acceptCompression = acceptCompression;
+    }
+
+    /**
+     * Send request bodies of at least the given length gzip compressed.
+     * Only put and post requests have a body; chunked put bodies are always
+     * compressed, since their length is not known up front. The server must
+     * accept the <code>Content-Encoding</code>.
+     *
+     * @param minBytes The minimum length, -1 to never compress
+     */
+    public void setRequestCompression(int minBytes) {
+        this.compressionThreshold = minBytes;
+    }
+
     public void setTimeoutSeconds(int timeoutSeconds) {
         this.timeoutSeconds = timeoutSeconds;
     }
 
+    /**
+     * Keep the raw response string. Binary responses are never retained.
+     *
+     * @param retainRawResponse
+     */
+    public void setRetainRawResponse(boolean retainRawResponse) {
+        this.retainRawResponse = retainRawResponse;
+    }
+
+    /**
+     * Set the response formats the server may choose from, in order of
+     * preference. The response is decoded according to its
+     * <code>Content-Type</code>.
+     *
+     * @param formats The accepted formats
+     */
+    public void setAcceptedFormats(WireFormat... formats) {
+        this.acceptedFormats = formats.clone();
+    }
+
     public final void addUrlParam(String key, String value) {
         if (urlParams == null) {
             urlParams = new HashMap<>();
@@ -173,6 +441,26 @@ public abstract class ApiRequest<T extends ApiService.Entity> implements Callabl
         return rawResponse;
     }
 
+    /**
+     * Counters of the streaming response decode, including the bytes of
+     * attributes skipped because the response class does not map them.
+     *
+     * @return The counters
+     */
+    public final DecodeStats getDecodeStats() {
+        return decodeStats;
+    }
+
+    /**
+     * Counters of the body bytes sent and received, compressed and
+     * uncompressed.
+     *
+     * @return The counters
+     */
+    public final TransferStats getTransferStats() {
+        return transferStats;
+    }
+
     /**
      * Specific implementation for each subclass being called in
      * {@link #call()}.
@@ -183,6 +471,140 @@ public abstract class ApiRequest<T extends ApiService.Entity> implements Callabl
      */
     protected abstract T run(String urlParams) throws ApiException;
 
+    /**
+     * Write the request body, if any. Called after {@link #config(String)}.
+     *
+     * @throws IOException
+     * @throws ApiException
+     */
+    protected void send() throws IOException, ApiException {
+    }
+
+    /**
+     * Receive and decode the response straight from the connection stream
+     * in the format given by its <code>Content-Type</code>. A retained raw
+     * json response is decoded from its bytes instead, re-encoded as UTF-8
+     * for other charsets. Either way only mapped attributes are
+     * materialized.
+     *
+     * @return The response entity
+     * @throws IOException
+     * @throws ApiException
+     */
+    protected T receive() throws IOException, ApiException {
+        try (InputStream in = openResponse()) {
+            final WireFormat format = WireFormat.forContentType(connection.getContentType());
+            if (format != WireFormat.JSON) {
+                return decode(in, format);
+            }
+            final Charset cs = Charset.forName(charset);
+            if (!retainRawResponse && StandardCharsets.UTF_8.equals(cs)) {
+                return decode(in, format);
+            }
+
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                bytes.write(buf, 0, n);
+            }
+            rawResponse = bytes.toString(cs.name());
+            return decode(new ByteArrayInputStream(StandardCharsets.UTF_8.equals(cs)
+                    ? bytes.toByteArray()
+                    : rawResponse.getBytes(StandardCharsets.UTF_8)), format);
+        }
+    }
+
+    /**
+     * The response body stream of the connection, decompressed according
+     * to its <code>Content-Encoding</code>.
+     *
+     * @return The stream
+     * @throws IOException
+     */
+    private InputStream openResponse() throws IOException {
+        final InputStream wire = transferStats.counting(connection.getInputStream(), true);
+        final String encoding = connection.getContentEncoding();
+        final InputStream in;
+        if (encoding == null || encoding.equalsIgnoreCase("identity")) {
+            in = wire;
+        } else if (encoding.equalsIgnoreCase("gzip") || encoding.equalsIgnoreCase("x-gzip")) {
+            in = new GZIPInputStream(wire, 8192);
+        } else if (encoding.equalsIgnoreCase("deflate")) {
+            in = inflate(wire);
+        } else {
+            wire.close();
+            throw new IOException("unsupported Content-Encoding " + encoding);
+        }
+        return transferStats.counting(in, false);
+    }
+
+    /**
+     * Decompress a deflate body, which should be zlib wrapped but is sent
+     * raw by some servers.
+     *
+     * @param in The compressed body
+     * @return The decompressed body
+     * @throws IOException
+     */
+    private static InputStream inflate(InputStream in) throws IOException {
+        final PushbackInputStream pushback = new PushbackInputStream(in, 2);
+        final int cmf = pushback.read(), flg = pushback.read();
+        if (flg >= 0) {
+            pushback.unread(flg);
+        }
+        if (cmf >= 0) {
+            pushback.unread(cmf);
+        }
+        final boolean zlib = (cmf & 0x0f) == 8 && flg >= 0 && ((cmf << 8) | flg) % 31 == 0;
+        return new InflaterInputStream(pushback, new Inflater(!zlib), 8192) {
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inf.end();
+                }
+            }
+        };
+    }
+
+    /**
+     * Gzip the given request body if it reaches the
+     * {@link #compressionThreshold}, declaring it by the
+     * <code>Content-Encoding</code>, and count it.
+     *
+     * @param body The body, replaced by the compressed one
+     * @throws IOException
+     */
+    protected final void compressBody(ByteArrayOutputStream body) throws IOException {
+        final int length = body.size();
+        if (compressionThreshold >= 0 && length >= compressionThreshold) {
+            final byte[] plain = body.toByteArray();
+            body.reset();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(body, 8192)) {
+                gzip.write(plain);
+            }
+            connection.setRequestProperty("Content-Encoding", "gzip");
+        }
+        transferStats.sent(length, body.size());
+    }
+
+    /**
+     *
+     * @param in
+     * @param format
+     * @return
+     * @throws IOException
+     * @throws ApiException
+     */
+    private T decode(InputStream in, WireFormat format) throws IOException, ApiException {
+        final T response = responseBuilder.decode(in, responseClass, format, decodeStats);
+        Logger.getLogger(TAG).log(Level.FINE, String.format("%s: %s", url, decodeStats));
+        return response;
+    }
+
     /**
      * Configure the HTTP connection.
      *
@@ -194,6 +616,10 @@ public abstract class ApiRequest<T extends ApiService.Entity> implements Callabl
     protected void config(String urlParams) throws IOException, ApiException {
         connection.setRequestProperty("User-Agent", "User-Agent: Mozilla/5.0 (Windows NT 6.1; WOW64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/29.0.1547.57 Safari/537.36");
         connection.setRequestProperty("Accept-Charset", charset);
+        connection.setRequestProperty("Accept", accept());
+        if (acceptCompression) {
+            connection.setRequestProperty("Accept-Encoding", "gzip, deflate");
+        }
         connection.setUseCaches(false);
         connection.setAllowUserInteraction(false);
         connection.setConnectTimeout(timeoutSeconds * 1000);
@@ -202,6 +628,26 @@ public abstract class ApiRequest<T extends ApiService.Entity> implements Callabl
         connection.setDoOutput(true);
     }
 
+    /**
+     * The <code>Accept</code> header value of {@link #acceptedFormats},
+     * quality decreasing with the preference.
+     *
+     * @return The header value
+     */
+    private String accept() {
+        final StringBuilder accept = new StringBuilder();
+        for (int i = 0; i < acceptedFormats.length; i++) {
+            if (i > 0) {
+                accept.append(", ");
+            }
+            accept.append(acceptedFormats[i].getMediaType());
+            if (i > 0) {
+                accept.append(";q=").append(Math.max(1, 10 - i) / 10.0);
+            }
+        }
+        return accept.toString();
+    }
+
     /**
      * Enocde the url paramaters to a string.
      *
@@ -0,0 +1,263 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Martin Kade.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.martinkade.http.request;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.net.URL;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * {@link HttpURLConnection} exchanging the whole request at once, for
+ * transports not speaking HTTP/1.1 on a socket of their own. The request
+ * body is buffered and sent together with the headers once the response is
+ * asked for; streaming modes only check the state as in the base class.
+ * Response headers are looked up case-insensitively.
+ * <p/>
+ * @author Martin Kade
+ * @version Tue, 5 January 2016
+ */
+abstract class BufferedConnection extends HttpURLConnection {
+
+    /**
+     * Request headers, taken on {@link #connect()}.
+     */
+    private Map<String, List<String>> requestHeaders;
+
+    /**
+     * Buffered request body, <code>null</code> if nothing was written.
+     */
+    private ByteArrayOutputStream requestBody;
+
+    private Map<String, List<String>> responseHeaders;
+
+    private InputStream responseBody;
+
+    BufferedConnection(URL url) {
+        super(url);
+    }
+
+    /**
+     * Send the request and wait for the response, which is handed over by
+     * {@link #setResponse(int, Map, InputStream)}. Called once.
+     *
+     * @param headers The request headers
+     * @param body The request body, <code>null</code> if there is none
+     * @throws IOException
+     */
+    protected abstract void exchange(Map<String, List<String>> headers, byte[] body) throws IOException;
+
+    /**
+     * Send the request without waiting for the response where the
+     * implementation allows. The response must be handed over by
+     * {@link #setResponse(int, Map, InputStream)} before the result
+     * completes. By default the blocking {@link #exchange(Map, byte[])} is
+     * run. Called once, instead of {@link #exchange(Map, byte[])}.
+     *
+     * @param headers The request headers
+     * @param body The request body, <code>null</code> if there is none
+     * @return Completed once the response is taken, exceptionally with an
+     * {@link IOException} if the exchange failed
+     */
+    protected CompletableFuture<Void> exchangeAsync(Map<String, List<String>> headers, byte[] body) {
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        try {
+            exchange(headers, body);
+            done.complete(null);
+        } catch (IOException ex) {
+            done.completeExceptionally(ex);
+        }
+        return done;
+    }
+
+    /**
+     * Take the response of {@link #exchange(Map, byte[])}.
+     *
+     * @param code The status code
+     * @param headers The response headers
+     * @param body The response body
+     */
+    protected final void setResponse(int code, Map<String, List<String>> headers, InputStream body) {
+        responseCode = code;
+        responseHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        responseHeaders.putAll(headers);
+        responseBody = body;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        if (!connected) {
+            requestHeaders = getRequestProperties();
+            connected = true;
+        }
+    }
+
+    @Override
+    public void disconnect() {
+        if (responseBody != null) {
+            try {
+                responseBody.close();
+            } catch (IOException ex) {
+                // closed anyway
+            }
+        }
+    }
+
+    @Override
+    public boolean usingProxy() {
+        return false;
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        if (!doOutput) {
+            throw new ProtocolException("cannot write to a URLConnection if doOutput=false - call setDoOutput(true)");
+        }
+        if (responseBody != null) {
+            throw new ProtocolException("Cannot write output after reading input.");
+        }
+        connect();
+        if (requestBody == null) {
+            requestBody = new ByteArrayOutputStream();
+        }
+        return requestBody;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        receive();
+        if (responseCode == HTTP_NOT_FOUND || responseCode == HTTP_GONE) {
+            throw new FileNotFoundException(url.toString());
+        }
+        if (responseCode >= HTTP_BAD_REQUEST) {
+            throw new IOException("Server returned HTTP response code: " + responseCode + " for URL: " + url);
+        }
+        return responseBody;
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        return responseBody != null && responseCode >= HTTP_BAD_REQUEST ? responseBody : null;
+    }
+
+    @Override
+    public int getResponseCode() throws IOException {
+        receive();
+        return responseCode;
+    }
+
+    @Override
+    public String getHeaderField(String name) {
+        if (!tryReceive()) {
+            return null;
+        }
+        final List<String> values = responseHeaders.get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaderFields() {
+        if (!tryReceive()) {
+            return Collections.emptyMap();
+        }
+        return Collections.unmodifiableMap(responseHeaders);
+    }
+
+    @Override
+    public String getHeaderFieldKey(int n) {
+        final String[] field = headerField(n);
+        return field == null ? null : field[0];
+    }
+
+    @Override
+    public String getHeaderField(int n) {
+        final String[] field = headerField(n);
+        return field == null ? null : field[1];
+    }
+
+    private String[] headerField(int n) {
+        if (!tryReceive()) {
+            return null;
+        }
+        final List<String[]> fields = new ArrayList<>();
+        for (Map.Entry<String, List<String>> e : responseHeaders.entrySet()) {
+            for (String value : e.getValue()) {
+                fields.add(new String[]{e.getKey(), value});
+            }
+        }
+        return n >= 0 && n < fields.size() ? fields.get(n) : null;
+    }
+
+    private boolean tryReceive() {
+        try {
+            receive();
+            return true;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Start the exchange by {@link #exchangeAsync(Map, byte[])} unless the
+     * response was already received.
+     *
+     * @return Completed once the response is taken
+     */
+    final CompletableFuture<Void> receiveAsync() {
+        if (responseBody != null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        try {
+            connect();
+        } catch (IOException ex) {
+            final CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(ex);
+            return failed;
+        }
+        return exchangeAsync(requestHeaders, requestBody == null ? null : requestBody.toByteArray());
+    }
+
+    private void receive() throws IOException {
+        if (responseBody != null) {
+            return;
+        }
+        connect();
+        exchange(requestHeaders, requestBody == null ? null : requestBody.toByteArray());
+        if (responseBody == null) {
+            throw new ProtocolException("no response");
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Martin Kade.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.martinkade.http.request;
+
+import de.martinkade.http.ApiException;
+
+import java.net.URL;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per host bound of the connections in use by {@link ApiRequest}s, keyed by
+ * scheme, host and port. Requests lease a slot before connecting, waiting
+ * if all slots of the host are taken, and hand it back once the response
+ * is read. Occupancy and wait times are counted per host.
+ * <p/>
+ * The limiter holds slots, not connections. Keeping released connections
+ * alive, evicting idle ones and replacing broken ones is left to the
+ * {@link Transport}: for the platform {@link java.net.HttpURLConnection}
+ * that is its keep-alive cache, sized by the
+ * <code>http.maxConnections</code> system property, while
+ * {@link NioTransport} bounds and evicts its idle connections per host
+ * itself.
+ * <p/>
+ * @author Martin Kade
+ * @version Tue, 5 January 2016
+ */
+public final class HostLimiter {
+
+    /**
+     * Default number of connections in use per host.
+     */
+    public static final int DEFAULT_MAX_TOTAL_PER_HOST = 64;
+
+    private static final HostLimiter DEFAULT = new HostLimiter(DEFAULT_MAX_TOTAL_PER_HOST);
+
+    /**
+     * Counters of one host.
+     */
+    public static final class HostStats {
+
+        private final Semaphore slots;
+
+        private final int maxTotal;
+
+        private final AtomicInteger leased = new AtomicInteger(), waiting = new AtomicInteger();
+
+        private final AtomicLong leases = new AtomicLong(), timeouts = new AtomicLong(),
+                waitNanos = new AtomicLong(), maxWaitNanos = new AtomicLong();
+
+        HostStats(int maxTotal) {
+            this.maxTotal = maxTotal;
+            this.slots = new Semaphore(maxTotal, true);
+        }
+
+        public int getMaxTotal() {
+            return maxTotal;
+        }
+
+        /**
+         * @return The number of connections currently in use
+         */
+        public int getLeased() {
+            return leased.get();
+        }
+
+        /**
+         * @return The number of requests currently waiting for a connection
+         */
+        public int getWaiting() {
+            return waiting.get();
+        }
+
+        /**
+         * @return The number of connections handed out so far
+         */
+        public long getLeases() {
+            return leases.get();
+        }
+
+        /**
+         * @return The number of requests that gave up waiting
+         */
+        public long getTimeouts() {
+            return timeouts.get();
+        }
+
+        /**
+         * @return The total time requests waited for a connection
+         */
+        public long getWaitNanos() {
+            return waitNanos.get();
+        }
+
+        public long getMaxWaitNanos() {
+            return maxWaitNanos.get();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("leased %d/%d, waiting %d, leases %d, timeouts %d, wait %d ms (max %d ms)",
+                    getLeased(), maxTotal, getWaiting(), getLeases(), getTimeouts(),
+                    TimeUnit.NANOSECONDS.toMillis(getWaitNanos()), TimeUnit.NANOSECONDS.toMillis(getMaxWaitNanos()));
+        }
+    }
+
+    /**
+     * A connection slot of a host, released exactly once.
+     */
+    final class Lease {
+
+        private final HostStats host;
+
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        Lease(HostStats host) {
+            this.host = host;
+        }
+
+        void release() {
+            if (released.compareAndSet(false, true)) {
+                host.leased.decrementAndGet();
+                host.slots.release();
+            }
+        }
+    }
+
+    private final ConcurrentMap<String, HostStats> hosts = new ConcurrentHashMap<>();
+
+    private final int maxTotalPerHost;
+
+    /**
+     * Constructor.
+     *
+     * @param maxTotalPerHost The number of connections in use per host
+     */
+    public HostLimiter(int maxTotalPerHost) {
+        this.maxTotalPerHost = maxTotalPerHost;
+    }
+
+    /**
+     * Get the limiter shared by all requests unless set otherwise through
+     * {@link ApiRequest#setHostLimiter(HostLimiter)}.
+     *
+     * @return The default limiter
+     */
+    public static HostLimiter getDefault() {
+        return DEFAULT;
+    }
+
+    public int getMaxTotalPerHost() {
+        return maxTotalPerHost;
+    }
+
+    /**
+     * Get the counters of each host used so far.
+     *
+     * @return The counters by <code>scheme://host:port</code>
+     */
+    public Map<String, HostStats> getStats() {
+        return Collections.unmodifiableMap(new TreeMap<>(hosts));
+    }
+
+    /**
+     * Lease a connection slot of the host of an url, waiting until one is
+     * released if necessary.
+     *
+     * @param url
+     * @param timeoutMillis The maximum time to wait
+     * @return The lease
+     * @throws ApiException If no slot was released in time
+     */
+    Lease acquire(URL url, long timeoutMillis) throws ApiException {
+        final String key = key(url);
+        final HostStats host = hosts.computeIfAbsent(key, k -> new HostStats(maxTotalPerHost));
+        final long start = System.nanoTime();
+        host.waiting.incrementAndGet();
+        final boolean acquired;
+        try {
+            acquired = host.slots.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ApiException(ex.getMessage(), ApiException.APIError.CONNECTION_TIMEOUT);
+        } finally {
+            host.waiting.decrementAndGet();
+        }
+        final long wait = System.nanoTime() - start;
+        host.waitNanos.addAndGet(wait);
+        host.maxWaitNanos.accumulateAndGet(wait, Math::max);
+        if (!acquired) {
+            host.timeouts.incrementAndGet();
+            throw new ApiException(String.format("no connection to %s within %d ms", key, timeoutMillis),
+                    ApiException.APIError.CONNECTION_TIMEOUT);
+        }
+        host.leased.incrementAndGet();
+        host.leases.incrementAndGet();
+        return new Lease(host);
+    }
+
+    /**
+     * @param url
+     * @return <code>scheme://host:port</code> of the url
+     */
+    static String key(URL url) {
+        final int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+        return String.format("%s://%s:%d", url.getProtocol(), url.getHost().toLowerCase(), port);
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Martin Kade.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.martinkade.http.request;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+
+import java.time.Duration;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Connection running the exchange on a shared
+ * <code>java.net.http.HttpClient</code> preferring HTTP/2, so concurrent
+ * requests to one host are multiplexed as streams of a single connection
+ * instead of holding a connection each. Plain <code>http</code> servers are
+ * asked for an h2c upgrade, servers without HTTP/2 are served HTTP/1.1.
+ * Headers managed by the client, such as <code>Content-Length</code>, are
+ * dropped.
+ * <p/>
+ * The module targets Java 8, so the client API, which requires Java 11, is
+ * bound reflectively on first use of {@link Transport#HTTP2}. Opening a
+ * connection fails on older runtimes.
+ * <p/>
+ * @author Martin Kade
+ * @version Tue, 5 January 2016
+ */
+final class HttpClientConnection extends BufferedConnection {
+
+    /**
+     * Request headers set by the client itself.
+     */
+    private static final Set<String> RESTRICTED = new HashSet<>(Arrays.asList(
+            "connection", "content-length", "expect", "host", "upgrade"));
+
+    /**
+     * The bound client API, resolved when the class is first used.
+     */
+    private static final class Api {
+
+        static final Method REQUEST_BUILDER, HEADER, TIMEOUT, METHOD, BUILD, NO_BODY, OF_BYTE_ARRAY,
+                SEND, STATUS_CODE, HEADERS, HEADERS_MAP, BODY;
+
+        static final Object CLIENT, OF_INPUT_STREAM;
+
+        static final IOException UNAVAILABLE;
+
+        static {
+            Method requestBuilder = null, header = null, timeout = null, method = null, build = null, noBody = null,
+                    ofByteArray = null, send = null, statusCode = null, headers = null, headersMap = null,
+                    body = null;
+            Object client = null, ofInputStream = null;
+            IOException unavailable = null;
+            try {
+                final Class<?> httpClient = Class.forName("java.net.http.HttpClient");
+                final Class<?> clientBuilder = Class.forName("java.net.http.HttpClient$Builder");
+                final Class<?> version = Class.forName("java.net.http.HttpClient$Version");
+                final Class<?> redirect = Class.forName("java.net.http.HttpClient$Redirect");
+                final Class<?> httpRequest = Class.forName("java.net.http.HttpRequest");
+                final Class<?> builder = Class.forName("java.net.http.HttpRequest$Builder");
+                final Class<?> publisher = Class.forName("java.net.http.HttpRequest$BodyPublisher");
+                final Class<?> publishers = Class.forName("java.net.http.HttpRequest$BodyPublishers");
+                final Class<?> handler = Class.forName("java.net.http.HttpResponse$BodyHandler");
+                final Class<?> handlers = Class.forName("java.net.http.HttpResponse$BodyHandlers");
+                final Class<?> httpResponse = Class.forName("java.net.http.HttpResponse");
+                final Class<?> httpHeaders = Class.forName("java.net.http.HttpHeaders");
+
+                Object b = httpClient.getMethod("newBuilder").invoke(null);
+                b = clientBuilder.getMethod("version", version).invoke(b, version.getField("HTTP_2").get(null));
+                b = clientBuilder.getMethod("followRedirects", redirect)
+                        .invoke(b, redirect.getField("NORMAL").get(null));
+                client = clientBuilder.getMethod("build").invoke(b);
+
+                requestBuilder = httpRequest.getMethod("newBuilder", URI.class);
+                header = builder.getMethod("header", String.class, String.class);
+                timeout = builder.getMethod("timeout", Duration.class);
+                method = builder.getMethod("method", String.class, publisher);
+                build = builder.getMethod("build");
+                noBody = publishers.getMethod("noBody");
+                ofByteArray = publishers.getMethod("ofByteArray", byte[].class);
+                ofInputStream = handlers.getMethod("ofInputStream").invoke(null);
+                send = httpClient.getMethod("send", httpRequest, handler);
+                statusCode = httpResponse.getMethod("statusCode");
+                headers = httpResponse.getMethod("headers");
+                headersMap = httpHeaders.getMethod("map");
+                body = httpResponse.getMethod("body");
+            } catch (ReflectiveOperationException ex) {
+                unavailable = new IOException("HTTP/2 transport requires java.net.http of Java 11", ex);
+            }
+            REQUEST_BUILDER = requestBuilder;
+            HEADER = header;
+            TIMEOUT = timeout;
+            METHOD = method;
+            BUILD = build;
+            NO_BODY = noBody;
+            OF_BYTE_ARRAY = ofByteArray;
+            SEND = send;
+            STATUS_CODE = statusCode;
+            HEADERS = headers;
+            HEADERS_MAP = headersMap;
+            BODY = body;
+            CLIENT = client;
+            OF_INPUT_STREAM = ofInputStream;
+            UNAVAILABLE = unavailable;
+        }
+
+        private Api() {
+        }
+    }
+
+    private HttpClientConnection(URL url) {
+        super(url);
+    }
+
+    /**
+     * Open a connection to the given url.
+     *
+     * @param url The url
+     * @return The unconnected connection
+     * @throws IOException If the runtime has no <code>java.net.http</code>
+     */
+    static HttpURLConnection open(URL url) throws IOException {
+        if (Api.UNAVAILABLE != null) {
+            throw new IOException(Api.UNAVAILABLE.getMessage(), Api.UNAVAILABLE.getCause());
+        }
+        return new HttpClientConnection(url);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void exchange(Map<String, List<String>> headers, byte[] body) throws IOException {
+        final Object request;
+        try {
+            request = invoke(Api.REQUEST_BUILDER, null, url.toURI());
+        } catch (URISyntaxException ex) {
+            throw new IOException(ex.getMessage(), ex);
+        }
+        for (Map.Entry<String, List<String>> e : headers.entrySet()) {
+            if (e.getKey() == null || RESTRICTED.contains(e.getKey().toLowerCase())) {
+                continue;
+            }
+            for (String value : e.getValue()) {
+                invoke(Api.HEADER, request, e.getKey(), value);
+            }
+        }
+        final long timeout = timeoutMillis();
+        if (timeout > 0) {
+            invoke(Api.TIMEOUT, request, Duration.ofMillis(timeout));
+        }
+        invoke(Api.METHOD, request, method, body == null
+                ? invoke(Api.NO_BODY, null)
+                : invoke(Api.OF_BYTE_ARRAY, null, (Object) body));
+        final Object response = invoke(Api.SEND, Api.CLIENT, invoke(Api.BUILD, request), Api.OF_INPUT_STREAM);
+        setResponse((Integer) invoke(Api.STATUS_CODE, response),
+                (Map<String, List<String>>) invoke(Api.HEADERS_MAP, invoke(Api.HEADERS, response)),
+                (InputStream) invoke(Api.BODY, response));
+    }
+
+    /**
+     * The request timeout of the shared client spans connecting and waiting
+     * for the response head, so it covers the connect and the read timeout
+     * together. Either of them alone bounds the request if the other one is
+     * 0, and neither if both are.
+     *
+     * @return The request timeout in milliseconds, 0 for none
+     */
+    private long timeoutMillis() {
+        final int connect = getConnectTimeout(), read = getReadTimeout();
+        return connect > 0 && read > 0 ? (long) connect + read : Math.max(connect, read);
+    }
+
+    /**
+     * Call a bound method, unwrapping what it threw.
+     *
+     * @param method
+     * @param target
+     * @param args
+     * @return The result
+     * @throws IOException
+     */
+    private static Object invoke(Method method, Object target, Object... args) throws IOException {
+        try {
+            return method.invoke(target, args);
+        } catch (IllegalAccessException ex) {
+            throw new IOException(ex.getMessage(), ex);
+        } catch (InvocationTargetException ex) {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(cause.getMessage());
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Martin Kade.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.martinkade.http.request;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process {@link Transport} answering requests by a {@link Handler}
+ * instead of the network, without sockets or threads. Requests still pass
+ * their whole encode, dispatch and decode path, which makes this transport
+ * suited to benchmark and load test it without network noise, or to test
+ * against canned responses.
+ * <p/>
+ * @author Martin Kade
+ * @version Tue, 5 January 2016
+ */
+public final class LoopbackTransport implements Transport {
+
+    /**
+     * Generator of the responses.
+     */
+    public static interface Handler {
+
+        /**
+         * Answer the request of the given exchange. Called concurrently by
+         * concurrent requests.
+         *
+         * @param exchange The exchange
+         * @throws IOException
+         */
+        void handle(Exchange exchange) throws IOException;
+    }
+
+    /**
+     * One request and its response, 200 without body unless set otherwise.
+     */
+    public static final class Exchange {
+
+        private final String method;
+
+        private final URL url;
+
+        private final Map<String, List<String>> requestHeaders;
+
+        private final byte[] requestBody;
+
+        private int responseCode = HttpURLConnection.HTTP_OK;
+
+        private final Map<String, List<String>> responseHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+        private byte[] responseBody = new byte[0];
+
+        Exchange(String method, URL url, Map<String, List<String>> requestHeaders, byte[] requestBody) {
+            this.method = method;
+            this.url = url;
+            this.requestHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            for (Map.Entry<String, List<String>> e : requestHeaders.entrySet()) {
+                if (e.getKey() != null) {
+                    this.requestHeaders.put(e.getKey(), e.getValue());
+                }
+            }
+            this.requestBody = requestBody;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public URL getUrl() {
+            return url;
+        }
+
+        public Map<String, List<String>> getRequestHeaders() {
+            return Collections.unmodifiableMap(requestHeaders);
+        }
+
+        /**
+         * The first value of the given request header.
+         *
+         * @param name The case-insensitive header name
+         * @return The value or <code>null</code>
+         */
+        public String getRequestHeader(String name) {
+            final List<String> values = requestHeaders.get(name);
+            return values == null || values.isEmpty() ? null : values.get(0);
+        }
+
+        /**
+         * The request body as written by the request.
+         *
+         * @return The body, empty if there is none
+         */
+        public byte[] getRequestBody() {
+            return requestBody;
+        }
+
+        public void setResponseCode(int responseCode) {
+            this.responseCode = responseCode;
+        }
+
+        /**
+         * Add a response header value.
+         *
+         * @param name The header name
+         * @param value The value
+         */
+        public void addResponseHeader(String name, String value) {
+            List<String> values = responseHeaders.get(name);
+            if (values == null) {
+                values = new ArrayList<>(1);
+                responseHeaders.put(name, values);
+            }
+            values.add(value);
+        }
+
+        /**
+         * Set the response body. The array is served as is and must not be
+         * changed while the response is read, but may be shared between
+         * exchanges.
+         *
+         * @param responseBody The body
+         */
+        public void setResponseBody(byte[] responseBody) {
+            this.responseBody = responseBody;
+        }
+    }
+
+    private final Handler handler;
+
+    private final AtomicLong exchanges = new AtomicLong(), requestBytes = new AtomicLong(),
+            responseBytes = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param handler The generator of the responses
+     */
+    public LoopbackTransport(Handler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * Transport answering every request with the same response.
+     *
+     * @param responseCode The status code
+     * @param contentType The <code>Content-Type</code> of the body
+     * @param body The body, shared by all responses
+     * @return The transport
+     */
+    public static LoopbackTransport canned(final int responseCode, final String contentType, final byte[] body) {
+        return new LoopbackTransport(new Handler() {
+
+            @Override
+            public void handle(Exchange exchange) {
+                exchange.setResponseCode(responseCode);
+                exchange.addResponseHeader("Content-Type", contentType);
+                exchange.setResponseBody(body);
+            }
+        });
+    }
+
+    @Override
+    public HttpURLConnection open(URL url) {
+        return new Connection(url);
+    }
+
+    /**
+     * Number of requests answered.
+     *
+     * @return The count
+     */
+    public long getExchanges() {
+        return exchanges.get();
+    }
+
+    /**
+     * Total length of the request bodies.
+     *
+     * @return The bytes
+     */
+    public long getRequestBytes() {
+        return requestBytes.get();
+    }
+
+    /**
+     * Total length of the response bodies.
+     *
+     * @return The bytes
+     */
+    public long getResponseBytes() {
+        return responseBytes.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d exchanges, %d bytes sent, %d bytes received",
+                getExchanges(), getRequestBytes(), getResponseBytes());
+    }
+
+    /**
+     * Connection handing its request to the {@link #handler}.
+     */
+    private final class Connection extends BufferedConnection {
+
+        Connection(URL url) {
+            super(url);
+        }
+
+        @Override
+        protected void exchange(Map<String, List<String>> headers, byte[] body) throws IOException {
+            final Exchange exchange = new Exchange(method, url, headers, body == null ? new byte[0] : body);
+            handler.handle(exchange);
+            exchanges.incrementAndGet();
+            requestBytes.addAndGet(exchange.requestBody.length);
+            responseBytes.addAndGet(exchange.responseBody.length);
+            setResponse(exchange.responseCode, exchange.responseHeaders,
+                    new ByteArrayInputStream(exchange.responseBody));
+        }
+    }
+}
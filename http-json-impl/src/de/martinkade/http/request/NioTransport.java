@@ -0,0 +1,1092 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Martin Kade.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.martinkade.http.request;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.net.URL;
+import java.net.UnknownHostException;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link Transport} speaking HTTP/1.1 over non-blocking
+ * {@link SocketChannel}s, multiplexing the connections of all requests on a
+ * few event loop threads, each running a {@link Selector}. Requests are
+ * spread over the loops; a loop keeps up to
+ * {@link #setMaxIdlePerHost(int)} idle keep-alive connections it opened per
+ * host and reuses them, retrying once on a fresh connection if a reused one
+ * turns out closed. Idle connections are closed after
+ * {@link #setIdleTimeout(long)}. Connections read and write through direct
+ * buffers taken from a bounded pool while an exchange is in progress. The
+ * address of a host is resolved once and cached until a new connection to
+ * it fails.
+ * <p/>
+ * The request thread only waits for its exchange, so it can be cheap,
+ * e.g. one of few threads of an {@link java.util.concurrent.Executor}
+ * handed to {@link de.martinkade.http.ApiService#prepare(java.util.concurrent.ExecutorService)}.
+ * With {@link ApiRequest#callAsync(java.util.concurrent.Executor)} no thread
+ * waits at all. Responses are received completely before they are decoded.
+ * Only plain <code>http</code> without proxies is supported.
+ * <p/>
+ * @author Martin Kade
+ * @version Tue, 5 January 2016
+ */
+public final class NioTransport implements Transport, Closeable {
+
+    /**
+     * Default size of the direct buffers.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * Default number of idle connections kept per host and event loop.
+     */
+    public static final int DEFAULT_MAX_IDLE_PER_HOST = 32;
+
+    /**
+     * Default time idle connections are kept in milliseconds.
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT = 60000L;
+
+    /**
+     * Default maximum size of a response body in bytes.
+     */
+    public static final int DEFAULT_MAX_BODY_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Maximum size of the status line and headers of a response, and of
+     * its trailers, in bytes.
+     */
+    public static final int MAX_HEADER_SIZE = 64 * 1024;
+
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    /**
+     * Interval of the checks for timed out exchanges and idle connections.
+     */
+    private static final long SWEEP_MILLIS = 100L;
+
+    /**
+     * Largest body buffer allocated up front from the
+     * <code>Content-Length</code> header.
+     */
+    private static final int MAX_PRESIZE = 1024 * 1024;
+
+    private final EventLoop[] loops;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    private final int bufferSize;
+
+    private final BlockingQueue<ByteBuffer> buffers;
+
+    private final AtomicLong exchanges = new AtomicLong(), connects = new AtomicLong(),
+            allocations = new AtomicLong();
+
+    /**
+     * Resolved addresses by <code>host[:port]</code>.
+     */
+    private final ConcurrentMap<String, InetSocketAddress> addresses = new ConcurrentHashMap<>();
+
+    private volatile int maxIdlePerHost = DEFAULT_MAX_IDLE_PER_HOST;
+
+    private volatile long idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_IDLE_TIMEOUT);
+
+    private volatile int maxBodySize = DEFAULT_MAX_BODY_SIZE;
+
+    private volatile boolean closed;
+
+    /**
+     * Constructor, starting the event loop threads.
+     *
+     * @param ioThreads Number of event loop threads
+     * @param maxBuffers Number of idle direct buffers kept for reuse
+     * @param bufferSize Size of the direct buffers in bytes
+     * @throws IOException if a selector cannot be opened
+     */
+    public NioTransport(int ioThreads, int maxBuffers, int bufferSize) throws IOException {
+        this.bufferSize = bufferSize;
+        this.buffers = new ArrayBlockingQueue<>(Math.max(1, maxBuffers));
+        this.loops = new EventLoop[ioThreads];
+        for (int i = 0; i < ioThreads; i++) {
+            loops[i] = new EventLoop(Selector.open());
+        }
+        for (int i = 0; i < ioThreads; i++) {
+            final Thread t = new Thread(loops[i], "nio-transport-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    /**
+     * Constructor with the default buffers.
+     *
+     * @param ioThreads Number of event loop threads
+     * @throws IOException if a selector cannot be opened
+     */
+    public NioTransport(int ioThreads) throws IOException {
+        this(ioThreads, 256, DEFAULT_BUFFER_SIZE);
+    }
+
+    @Override
+    public HttpURLConnection open(URL url) throws IOException {
+        if (!"http".equalsIgnoreCase(url.getProtocol())) {
+            throw new IOException(url.getProtocol() + " is not supported");
+        }
+        if (closed) {
+            throw new IOException("transport closed");
+        }
+        return new Connection(url);
+    }
+
+    /**
+     * Stop the event loops, closing all connections. Exchanges in progress
+     * fail.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (EventLoop loop : loops) {
+            loop.selector.wakeup();
+        }
+    }
+
+    /**
+     * Set the number of idle keep-alive connections each event loop keeps
+     * per host. The least recently used are closed beyond that.
+     *
+     * @param maxIdlePerHost The number of connections, 0 to close them
+     */
+    public void setMaxIdlePerHost(int maxIdlePerHost) {
+        this.maxIdlePerHost = maxIdlePerHost;
+    }
+
+    /**
+     * Set the time an idle keep-alive connection is kept before it is
+     * closed.
+     *
+     * @param millis The timeout in milliseconds
+     */
+    public void setIdleTimeout(long millis) {
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * Set the largest response body accepted. Exchanges receiving a larger
+     * one fail with an <code>IOException</code> and their connection is
+     * closed.
+     *
+     * @param bytes The maximum size in bytes
+     */
+    public void setMaxBodySize(int bytes) {
+        this.maxBodySize = bytes;
+    }
+
+    /**
+     * Number of requests sent.
+     *
+     * @return The count
+     */
+    public long getExchanges() {
+        return exchanges.get();
+    }
+
+    /**
+     * Number of connections opened.
+     *
+     * @return The count
+     */
+    public long getConnects() {
+        return connects.get();
+    }
+
+    /**
+     * Number of direct buffers allocated, as the pool was empty.
+     *
+     * @return The count
+     */
+    public long getBufferAllocations() {
+        return allocations.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d exchanges, %d connects, %d buffers allocated",
+                getExchanges(), getConnects(), getBufferAllocations());
+    }
+
+    private ByteBuffer acquireBuffer() {
+        final ByteBuffer buffer = buffers.poll();
+        if (buffer != null) {
+            return buffer;
+        }
+        allocations.incrementAndGet();
+        return ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    private void releaseBuffer(ByteBuffer buffer) {
+        buffer.clear();
+        buffers.offer(buffer);
+    }
+
+    /**
+     * Get the cached address of a host, resolving it on first use.
+     *
+     * @param host The <code>host[:port]</code> key
+     * @param name The host name
+     * @param port The port
+     * @return The resolved address
+     * @throws UnknownHostException
+     */
+    private InetSocketAddress resolve(String host, String name, int port) throws UnknownHostException {
+        InetSocketAddress address = addresses.get(host);
+        if (address == null) {
+            address = new InetSocketAddress(name, port);
+            if (address.isUnresolved()) {
+                throw new UnknownHostException(name);
+            }
+            addresses.put(host, address);
+        }
+        return address;
+    }
+
+    /**
+     * Received response.
+     */
+    private static final class Response {
+
+        private final int code;
+
+        private final Map<String, List<String>> headers;
+
+        private final byte[] body;
+
+        Response(int code, Map<String, List<String>> headers, byte[] body) {
+            this.code = code;
+            this.headers = headers;
+            this.body = body;
+        }
+    }
+
+    /**
+     * One request on its way through an event loop.
+     */
+    private static final class Exchange {
+
+        private final String host;
+
+        private final InetSocketAddress address;
+
+        private final byte[] request;
+
+        private final boolean head;
+
+        /**
+         * Time allowed for the exchange, 0 for no limit.
+         */
+        private final long timeoutNanos;
+
+        private final CompletableFuture<Response> response = new CompletableFuture<>();
+
+        /**
+         * The loop running the exchange and its deadline, set on dispatch.
+         */
+        private EventLoop loop;
+
+        private long deadline;
+
+        /**
+         * Flag if a reused connection failed, so a fresh one is required.
+         */
+        private boolean fresh;
+
+        private Channel channel;
+
+        Exchange(String host, InetSocketAddress address, byte[] request, boolean head, long timeoutNanos) {
+            this.host = host;
+            this.address = address;
+            this.request = request;
+            this.head = head;
+            this.timeoutNanos = timeoutNanos;
+        }
+    }
+
+    /**
+     * Thread running a selector over its connections.
+     */
+    private final class EventLoop implements Runnable {
+
+        private final Selector selector;
+
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        /**
+         * Copy buffer of the response bodies read by this loop.
+         */
+        private final byte[] scratch = new byte[8192];
+
+        /**
+         * Idle keep-alive connections per host, most recently used last.
+         */
+        private final Map<String, ArrayDeque<Channel>> idle = new HashMap<>();
+
+        /**
+         * Flag if the thread of this loop exited, set before the remaining
+         * tasks are drained.
+         */
+        private volatile boolean closed;
+
+        private long lastSweep = System.nanoTime();
+
+        EventLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        /**
+         * Run a task on this loop.
+         *
+         * @param task The task
+         * @return false if the loop is closed and the task will not run
+         */
+        boolean execute(Runnable task) {
+            if (isClosed()) {
+                return false;
+            }
+            tasks.add(task);
+            if (closed && tasks.remove(task)) {
+                // not drained by the exiting loop
+                return false;
+            }
+            selector.wakeup();
+            return true;
+        }
+
+        boolean isClosed() {
+            return closed || NioTransport.this.closed;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!isClosed()) {
+                    selector.select(SWEEP_MILLIS);
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                    final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        final SelectionKey key = keys.next();
+                        keys.remove();
+                        final Channel channel = (Channel) key.attachment();
+                        try {
+                            channel.ready(key);
+                        } catch (IOException ex) {
+                            channel.fail(ex);
+                        } catch (RuntimeException ex) {
+                            channel.fail(new IOException("connection failed: " + ex, ex));
+                        }
+                    }
+                    sweep();
+                }
+            } catch (IOException ex) {
+                // the selector failed, only this loop stops
+            } finally {
+                closed = true;
+                shutdown();
+            }
+        }
+
+        private void shutdown() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+            for (SelectionKey key : new ArrayList<>(selector.keys())) {
+                ((Channel) key.attachment()).fail(new IOException("transport closed"));
+            }
+            try {
+                selector.close();
+            } catch (IOException ex) {
+                // closing anyway
+            }
+        }
+
+        /**
+         * Fail exchanges past their deadline and close connections idle for
+         * longer than the idle timeout.
+         */
+        private void sweep() {
+            final long now = System.nanoTime();
+            if (now - lastSweep < TimeUnit.MILLISECONDS.toNanos(SWEEP_MILLIS)) {
+                return;
+            }
+            lastSweep = now;
+            for (SelectionKey key : new ArrayList<>(selector.keys())) {
+                if (key.isValid()) {
+                    ((Channel) key.attachment()).expire(now);
+                }
+            }
+        }
+
+        /**
+         * Start the exchange on an idle connection to its host or a new one.
+         *
+         * @param exchange The exchange
+         */
+        void dispatch(Exchange exchange) {
+            if (isClosed()) {
+                exchange.response.completeExceptionally(new IOException("transport closed"));
+                return;
+            }
+            if (exchange.deadline == 0 && exchange.timeoutNanos > 0) {
+                exchange.deadline = System.nanoTime() + exchange.timeoutNanos;
+            }
+            final ArrayDeque<Channel> channels = idle.get(exchange.host);
+            if (!exchange.fresh && channels != null) {
+                final long now = System.nanoTime();
+                Channel channel;
+                while ((channel = channels.pollLast()) != null) {
+                    if (channel.socket.isOpen() && now - channel.idleSince <= idleTimeoutNanos) {
+                        channel.start(exchange, true);
+                        return;
+                    }
+                    channel.close();
+                }
+            }
+            SocketChannel socket = null;
+            try {
+                socket = SocketChannel.open();
+                socket.configureBlocking(false);
+                socket.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                final boolean connected = socket.connect(exchange.address);
+                connects.incrementAndGet();
+                final Channel channel = new Channel(this, socket, exchange.host);
+                channel.key = socket.register(selector, 0, channel);
+                channel.connecting = !connected;
+                channel.start(exchange, false);
+            } catch (IOException | RuntimeException ex) {
+                addresses.remove(exchange.host, exchange.address);
+                if (socket != null) {
+                    try {
+                        socket.close();
+                    } catch (IOException e) {
+                        // closed anyway
+                    }
+                }
+                exchange.response.completeExceptionally(ex instanceof IOException
+                        ? ex
+                        : new IOException("connection failed: " + ex, ex));
+            }
+        }
+
+        void idle(Channel channel) {
+            ArrayDeque<Channel> channels = idle.get(channel.host);
+            if (channels == null) {
+                channels = new ArrayDeque<>();
+                idle.put(channel.host, channels);
+            }
+            final int max = maxIdlePerHost;
+            while (!channels.isEmpty() && channels.size() >= max) {
+                channels.pollFirst().close();
+            }
+            if (max <= 0) {
+                channel.close();
+                return;
+            }
+            channel.idleSince = System.nanoTime();
+            channels.addLast(channel);
+        }
+
+        void removeIdle(Channel channel) {
+            final ArrayDeque<Channel> channels = idle.get(channel.host);
+            if (channels != null) {
+                channels.remove(channel);
+            }
+        }
+    }
+
+    /**
+     * Connection of an event loop, running one exchange at a time.
+     */
+    private final class Channel {
+
+        private final EventLoop loop;
+
+        private final SocketChannel socket;
+
+        private final String host;
+
+        private SelectionKey key;
+
+        private boolean connecting, reused;
+
+        private Exchange exchange;
+
+        private ByteBuffer buffer;
+
+        private int written;
+
+        private ResponseParser parser;
+
+        /**
+         * Time the connection became idle.
+         */
+        private long idleSince;
+
+        Channel(EventLoop loop, SocketChannel socket, String host) {
+            this.loop = loop;
+            this.socket = socket;
+            this.host = host;
+        }
+
+        void start(Exchange exchange, boolean reused) {
+            this.exchange = exchange;
+            this.reused = reused;
+            exchange.channel = this;
+            buffer = acquireBuffer();
+            written = 0;
+            parser = new ResponseParser(exchange.head, maxBodySize);
+            key.interestOps(connecting ? SelectionKey.OP_CONNECT : SelectionKey.OP_WRITE);
+        }
+
+        void ready(SelectionKey key) throws IOException {
+            if (exchange == null) {
+                // an idle connection is only readable once the server closed it
+                close();
+                loop.removeIdle(this);
+                return;
+            }
+            if (key.isConnectable()) {
+                socket.finishConnect();
+                connecting = false;
+                key.interestOps(SelectionKey.OP_WRITE);
+            } else if (key.isWritable()) {
+                write();
+            } else if (key.isReadable()) {
+                read();
+            }
+        }
+
+        private void write() throws IOException {
+            final byte[] request = exchange.request;
+            while (written < request.length) {
+                buffer.clear();
+                final int n = Math.min(buffer.capacity(), request.length - written);
+                buffer.put(request, written, n).flip();
+                final int w = socket.write(buffer);
+                written += w;
+                if (w < n) {
+                    return;
+                }
+            }
+            buffer.clear();
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+        private void read() throws IOException {
+            int n;
+            while ((n = socket.read(buffer)) > 0) {
+                buffer.flip();
+                final boolean done = parser.feed(buffer, loop.scratch);
+                buffer.clear();
+                if (done) {
+                    complete(parser.keepAlive);
+                    return;
+                }
+            }
+            if (n < 0) {
+                if (parser.endOfStream()) {
+                    complete(false);
+                } else {
+                    fail(new IOException("Unexpected end of file from server"));
+                }
+            }
+        }
+
+        private void complete(boolean keepAlive) {
+            final Exchange ex = exchange;
+            final Response response = parser.response();
+            exchange = null;
+            parser = null;
+            releaseBuffer(buffer);
+            buffer = null;
+            if (keepAlive && !loop.isClosed()) {
+                key.interestOps(SelectionKey.OP_READ);
+                loop.idle(this);
+            } else {
+                close();
+            }
+            ex.response.complete(response);
+        }
+
+        void fail(IOException error) {
+            final Exchange ex = exchange;
+            final boolean retry = ex != null && reused && !parser.started() && !loop.isClosed();
+            close();
+            if (ex == null) {
+                loop.removeIdle(this);
+                return;
+            }
+            exchange = null;
+            if (!reused) {
+                addresses.remove(host, ex.address);
+            }
+            if (retry) {
+                ex.fresh = true;
+                loop.dispatch(ex);
+            } else {
+                ex.response.completeExceptionally(error);
+            }
+        }
+
+        /**
+         * Fail the exchange if it is past its deadline, close the connection
+         * if it is idle for longer than the idle timeout.
+         *
+         * @param now The current {@link System#nanoTime()}
+         */
+        void expire(long now) {
+            final Exchange ex = exchange;
+            if (ex != null) {
+                if (ex.deadline != 0 && now - ex.deadline > 0) {
+                    exchange = null;
+                    close();
+                    ex.response.completeExceptionally(new SocketTimeoutException("Read timed out"));
+                }
+            } else if (now - idleSince > idleTimeoutNanos) {
+                close();
+                loop.removeIdle(this);
+            }
+        }
+
+        void close() {
+            key.cancel();
+            try {
+                socket.close();
+            } catch (IOException ex) {
+                // closed anyway
+            }
+            if (buffer != null) {
+                releaseBuffer(buffer);
+                buffer = null;
+            }
+        }
+    }
+
+    /**
+     * Body of a response, handed out without a copy if it was sized by the
+     * <code>Content-Length</code> header.
+     */
+    private static final class Body extends ByteArrayOutputStream {
+
+        Body(int size) {
+            super(size);
+        }
+
+        byte[] bytes() {
+            return count == buf.length ? buf : toByteArray();
+        }
+    }
+
+    /**
+     * Incremental parser of an HTTP/1.1 response, skipping interim
+     * <code>1xx</code> responses. The head and trailers are bounded by
+     * {@link #MAX_HEADER_SIZE}, the body by the maximum body size of the
+     * transport.
+     */
+    private static final class ResponseParser {
+
+        private enum State {
+            STATUS, HEADERS, BODY, CHUNK_SIZE, CHUNK, CHUNK_END, TRAILERS, UNTIL_EOF, DONE
+        }
+
+        private final boolean head;
+
+        private final int maxBodySize;
+
+        private State state = State.STATUS;
+
+        private final StringBuilder line = new StringBuilder();
+
+        private Body body = new Body(32);
+
+        /**
+         * Bytes of the head or trailers read so far.
+         */
+        private int headSize;
+
+        private Map<String, List<String>> headers;
+
+        private int code;
+
+        private long remaining;
+
+        private boolean started, keepAlive;
+
+        ResponseParser(boolean head, int maxBodySize) {
+            this.head = head;
+            this.maxBodySize = maxBodySize;
+        }
+
+        boolean started() {
+            return started;
+        }
+
+        Response response() {
+            return new Response(code, headers, body.bytes());
+        }
+
+        /**
+         * Flag if the response is complete once the server closes the
+         * connection.
+         */
+        boolean endOfStream() {
+            if (state == State.UNTIL_EOF) {
+                state = State.DONE;
+            }
+            return state == State.DONE;
+        }
+
+        /**
+         * Consume the received bytes.
+         *
+         * @param in The received bytes
+         * @param scratch Buffer to copy the body through
+         * @return true if the response is complete
+         * @throws IOException if the response is malformed
+         */
+        boolean feed(ByteBuffer in, byte[] scratch) throws IOException {
+            started |= in.hasRemaining();
+            while (in.hasRemaining() && state != State.DONE) {
+                switch (state) {
+                    case BODY:
+                    case CHUNK:
+                    case UNTIL_EOF:
+                        final int n = Math.min(scratch.length, state == State.UNTIL_EOF
+                                ? in.remaining()
+                                : (int) Math.min(in.remaining(), remaining));
+                        if (body.size() > maxBodySize - n) {
+                            throw new IOException("Http response body exceeds " + maxBodySize + " bytes");
+                        }
+                        in.get(scratch, 0, n);
+                        body.write(scratch, 0, n);
+                        remaining -= n;
+                        if (remaining == 0 && state == State.BODY) {
+                            state = State.DONE;
+                        } else if (remaining == 0 && state == State.CHUNK) {
+                            state = State.CHUNK_END;
+                        }
+                        break;
+                    default:
+                        final char c = (char) (in.get() & 0xff);
+                        if (state == State.CHUNK_SIZE || state == State.CHUNK_END
+                                ? line.length() >= MAX_HEADER_SIZE
+                                : ++headSize > MAX_HEADER_SIZE) {
+                            throw new IOException("Http response header exceeds " + MAX_HEADER_SIZE + " bytes");
+                        }
+                        if (c == '\n') {
+                            line(trim(line));
+                            line.setLength(0);
+                        } else {
+                            line.append(c);
+                        }
+                }
+            }
+            return state == State.DONE;
+        }
+
+        private static String trim(StringBuilder line) {
+            final int n = line.length();
+            return n > 0 && line.charAt(n - 1) == '\r' ? line.substring(0, n - 1) : line.toString();
+        }
+
+        private void line(String s) throws IOException {
+            switch (state) {
+                case STATUS:
+                    final String[] status = s.split(" ", 3);
+                    if (status.length < 2 || !status[0].startsWith("HTTP/")) {
+                        throw new IOException("Invalid Http response");
+                    }
+                    code = (int) parse(status[1], 10, 999);
+                    keepAlive = !"HTTP/1.0".equals(status[0]);
+                    headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+                    state = State.HEADERS;
+                    break;
+                case HEADERS:
+                    if (!s.isEmpty()) {
+                        final int colon = s.indexOf(':');
+                        if (colon > 0) {
+                            final String name = s.substring(0, colon).trim();
+                            List<String> values = headers.get(name);
+                            if (values == null) {
+                                values = new ArrayList<>(1);
+                                headers.put(name, values);
+                            }
+                            values.add(s.substring(colon + 1).trim());
+                        }
+                    } else if (code >= 100 && code < 200) {
+                        state = State.STATUS;
+                    } else {
+                        body();
+                    }
+                    break;
+                case CHUNK_SIZE:
+                    final int ext = s.indexOf(';');
+                    remaining = parse((ext < 0 ? s : s.substring(0, ext)).trim(), 16, Long.MAX_VALUE);
+                    if (remaining == 0) {
+                        headSize = 0;
+                        state = State.TRAILERS;
+                    } else {
+                        state = State.CHUNK;
+                    }
+                    break;
+                case CHUNK_END:
+                    state = State.CHUNK_SIZE;
+                    break;
+                case TRAILERS:
+                    if (s.isEmpty()) {
+                        state = State.DONE;
+                    }
+                    break;
+                default:
+                    throw new IOException("Invalid Http response in state " + state);
+            }
+        }
+
+        /**
+         * Parse a number of the response head.
+         *
+         * @param s The number
+         * @param radix The radix
+         * @param max The largest valid value
+         * @return The value
+         * @throws IOException if it is no number or out of range
+         */
+        private static long parse(String s, int radix, long max) throws IOException {
+            try {
+                final long value = Long.parseLong(s, radix);
+                if (value >= 0 && value <= max) {
+                    return value;
+                }
+            } catch (NumberFormatException ex) {
+                throw new IOException("Invalid Http response: " + s, ex);
+            }
+            throw new IOException("Invalid Http response: " + s);
+        }
+
+        private void body() throws IOException {
+            final String connection = header("Connection");
+            if (connection != null) {
+                keepAlive = connection.equalsIgnoreCase("keep-alive")
+                        || keepAlive && !connection.equalsIgnoreCase("close");
+            }
+            final String encoding = header("Transfer-Encoding");
+            final String length = header("Content-Length");
+            if (head || code == HttpURLConnection.HTTP_NO_CONTENT || code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                state = State.DONE;
+            } else if (encoding != null && encoding.toLowerCase().contains("chunked")) {
+                state = State.CHUNK_SIZE;
+            } else if (length != null) {
+                remaining = parse(length.trim(), 10, Long.MAX_VALUE);
+                if (remaining > maxBodySize) {
+                    throw new IOException("Http response body exceeds " + maxBodySize + " bytes");
+                }
+                body = new Body((int) Math.min(remaining, MAX_PRESIZE));
+                state = remaining == 0 ? State.DONE : State.BODY;
+            } else {
+                keepAlive = false;
+                state = State.UNTIL_EOF;
+            }
+        }
+
+        private String header(String name) {
+            final List<String> values = headers.get(name);
+            return values == null || values.isEmpty() ? null : values.get(0);
+        }
+    }
+
+    /**
+     * Connection handing its request to an event loop and waiting for the
+     * response.
+     */
+    private final class Connection extends BufferedConnection {
+
+        Connection(URL url) {
+            super(url);
+        }
+
+        @Override
+        protected void exchange(Map<String, List<String>> headers, byte[] body) throws IOException {
+            final Exchange exchange = submit(headers, body);
+            final Response response;
+            try {
+                response = getReadTimeout() > 0
+                        ? exchange.response.get(getConnectTimeout() + (long) getReadTimeout(), TimeUnit.MILLISECONDS)
+                        : exchange.response.get();
+            } catch (TimeoutException ex) {
+                abort(exchange.loop, exchange);
+                throw new SocketTimeoutException("Read timed out");
+            } catch (InterruptedException ex) {
+                abort(exchange.loop, exchange);
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(ex.getMessage());
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof IOException) {
+                    throw (IOException) ex.getCause();
+                }
+                throw new IOException(ex.getCause());
+            }
+            setResponse(response.code, response.headers, new ByteArrayInputStream(response.body));
+        }
+
+        @Override
+        protected CompletableFuture<Void> exchangeAsync(Map<String, List<String>> headers, byte[] body) {
+            final Exchange exchange;
+            try {
+                exchange = submit(headers, body);
+            } catch (IOException ex) {
+                final CompletableFuture<Void> failed = new CompletableFuture<>();
+                failed.completeExceptionally(ex);
+                return failed;
+            }
+            return exchange.response.thenAccept(response -> setResponse(response.code, response.headers,
+                    new ByteArrayInputStream(response.body)));
+        }
+
+        /**
+         * Hand the request to the next event loop that is not closed.
+         *
+         * @param headers The request headers
+         * @param body The request body or <code>null</code>
+         * @return The submitted exchange
+         * @throws IOException if the host is unknown or all loops are closed
+         */
+        private Exchange submit(Map<String, List<String>> headers, byte[] body) throws IOException {
+            final int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+            final String host = url.getPort() < 0 ? url.getHost() : url.getHost() + ":" + port;
+            final long timeoutNanos = getReadTimeout() > 0
+                    ? TimeUnit.MILLISECONDS.toNanos(getConnectTimeout() + (long) getReadTimeout())
+                    : 0;
+            final Exchange exchange = new Exchange(host, resolve(host, url.getHost(), port),
+                    request(host, headers, body), "HEAD".equals(method), timeoutNanos);
+            for (int i = 0; i < loops.length; i++) {
+                final EventLoop loop = loops[Math.abs(next.getAndIncrement() % loops.length)];
+                exchange.loop = loop;
+                if (loop.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        loop.dispatch(exchange);
+                    }
+                })) {
+                    exchanges.incrementAndGet();
+                    return exchange;
+                }
+            }
+            throw new IOException("transport closed");
+        }
+
+        private void abort(EventLoop loop, final Exchange exchange) {
+            loop.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    final Channel channel = exchange.channel;
+                    if (channel != null && channel.exchange == exchange) {
+                        channel.exchange = null;
+                        channel.close();
+                    }
+                }
+            });
+        }
+
+        /**
+         * Serialize the request head and body.
+         */
+        private byte[] request(String host, Map<String, List<String>> headers, byte[] body) throws IOException {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(256 + (body == null ? 0 : body.length));
+            final String file = url.getFile().isEmpty() ? "/" : url.getFile();
+            out.write((method + " " + file + " HTTP/1.1").getBytes(StandardCharsets.ISO_8859_1));
+            out.write(CRLF);
+            header(out, "Host", host);
+            for (Map.Entry<String, List<String>> e : headers.entrySet()) {
+                final String name = e.getKey();
+                if (name == null || name.equalsIgnoreCase("Host") || name.equalsIgnoreCase("Content-Length")
+                        || name.equalsIgnoreCase("Transfer-Encoding")) {
+                    continue;
+                }
+                for (String value : e.getValue()) {
+                    header(out, name, value);
+                }
+            }
+            if (body != null || "POST".equals(method) || "PUT".equals(method)) {
+                header(out, "Content-Length", Integer.toString(body == null ? 0 : body.length));
+            }
+            out.write(CRLF);
+            if (body != null) {
+                out.write(body);
+            }
+            return out.toByteArray();
+        }
+
+        private void header(ByteArrayOutputStream out, String name, String value) throws IOException {
+            out.write((name + ": " + value).getBytes(StandardCharsets.ISO_8859_1));
+            out.write(CRLF);
+        }
+    }
+}
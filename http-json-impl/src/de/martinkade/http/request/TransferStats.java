@@ -0,0 +1,183 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Martin Kade.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.martinkade.http.request;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Counters of the bytes a request transferred, both as sent over the
+ * connection and uncompressed. Both are equal unless a body was
+ * compressed.
+ * <p/>
+ * @author Martin Kade
+ * @version Tue, 5 January 2016
+ */
+public final class TransferStats {
+
+    /**
+     * Request body bytes as sent and uncompressed.
+     */
+    private long requestBytes, requestBodyBytes;
+
+    /**
+     * Response body bytes as received and uncompressed.
+     */
+    private long responseBytes, responseBodyBytes;
+
+    /**
+     * Count a request body sent at once.
+     *
+     * @param bodyBytes The uncompressed length
+     * @param wireBytes The length sent
+     */
+    void sent(long bodyBytes, long wireBytes) {
+        requestBodyBytes += bodyBytes;
+        requestBytes += wireBytes;
+    }
+
+    /**
+     * Count the request body bytes written to the given stream.
+     *
+     * @param out The stream
+     * @param wire Flag if the stream writes to the connection, otherwise
+     * it takes the uncompressed body
+     * @return The counting stream
+     */
+    OutputStream counting(OutputStream out, final boolean wire) {
+        return new FilterOutputStream(out) {
+
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                count(1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                count(len);
+            }
+
+            private void count(long n) {
+                if (wire) {
+                    requestBytes += n;
+                } else {
+                    requestBodyBytes += n;
+                }
+            }
+        };
+    }
+
+    /**
+     * Count the response body bytes read from the given stream.
+     *
+     * @param in The stream
+     * @param wire Flag if the stream reads from the connection, otherwise
+     * it yields the uncompressed body
+     * @return The counting stream
+     */
+    InputStream counting(InputStream in, final boolean wire) {
+        return new FilterInputStream(in) {
+
+            @Override
+            public int read() throws IOException {
+                final int b = in.read();
+                if (b >= 0) {
+                    count(1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                final int n = in.read(b, off, len);
+                if (n > 0) {
+                    count(n);
+                }
+                return n;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                final long skipped = in.skip(n);
+                count(skipped);
+                return skipped;
+            }
+
+            private void count(long n) {
+                if (wire) {
+                    responseBytes += n;
+                } else {
+                    responseBodyBytes += n;
+                }
+            }
+        };
+    }
+
+    /**
+     * Request body bytes sent over the connection.
+     *
+     * @return The bytes
+     */
+    public long getRequestBytes() {
+        return requestBytes;
+    }
+
+    /**
+     * Request body bytes before compression.
+     *
+     * @return The bytes
+     */
+    public long getRequestBodyBytes() {
+        return requestBodyBytes;
+    }
+
+    /**
+     * Response body bytes received over the connection, as far as read.
+     *
+     * @return The bytes
+     */
+    public long getResponseBytes() {
+        return responseBytes;
+    }
+
+    /**
+     * Response body bytes after decompression, as far as read.
+     *
+     * @return The bytes
+     */
+    public long getResponseBodyBytes() {
+        return responseBodyBytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("sent %d bytes (%d uncompressed), received %d bytes (%d uncompressed)",
+                requestBytes, requestBodyBytes, responseBytes, responseBodyBytes);
+    }
+}
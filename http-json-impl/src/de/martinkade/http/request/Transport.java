@@ -0,0 +1,63 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Martin Kade.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.martinkade.http.request;
+
+import java.io.IOException;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * The network layer below {@link ApiRequest}, opening the connection each
+ * request is configured, written and read through. Implementations must be
+ * thread-safe. Set one per request with
+ * {@link ApiRequest#setTransport(Transport)}.
+ * <p/>
+ * @author Martin Kade
+ * @version Tue, 5 January 2016
+ */
+public interface Transport {
+
+    /**
+     * The platform {@link HttpURLConnection}, speaking HTTP/1.1 with
+     * keep-alive.
+     */
+    Transport DEFAULT = url -> (HttpURLConnection) url.openConnection();
+
+    /**
+     * The JDK <code>HttpClient</code> preferring HTTP/2, which multiplexes
+     * concurrent requests to one host over a single connection. Requests
+     * over it bypass the {@link HostLimiter}. Requires Java 11.
+     */
+    Transport HTTP2 = url -> HttpClientConnection.open(url);
+
+    /**
+     * Open an unconnected connection to the given url.
+     *
+     * @param url The url including the url parameters
+     * @return The connection
+     * @throws IOException
+     */
+    HttpURLConnection open(URL url) throws IOException;
+}
@@ -23,15 +23,45 @@
  */
 package de.martinkade.http.entity;
 
+import de.martinkade.http.ApiException;
 import de.martinkade.http.ApiService;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.Objects;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
+import org.junit.Assume;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -121,6 +151,1092 @@ public class EntityBuilderTest {
         assertEquals(expResult, result);
     }
 
+    @Test
+    public void testDecodeInheritedAttributes() throws Exception {
+        System.out.println("decode inherited attributes");
+        EntityBuilder<DerivedTestEntity> instance = new EntityBuilder<>();
+
+        final String json = "{\"long\":1,\"int\":2,\"name\":\"derived\"}";
+        final DerivedTestEntity result = instance.decode(json, DerivedTestEntity.class);
+
+        assertEquals("derived", result.name);
+        assertEquals(1L, ((SimpleTestEntity) result).longValue);
+        assertEquals(2, ((SimpleTestEntity) result).intValue);
+    }
+
+    @Test
+    public void testBindingIsShared() throws Exception {
+        System.out.println("binding is shared");
+
+        final EntityBinding<DerivedTestEntity> binding = EntityRegistry.binding(DerivedTestEntity.class);
+        assertSame(binding, EntityRegistry.binding(DerivedTestEntity.class));
+        assertEquals(5, binding.getFields().size());
+        assertEquals("name", binding.getFields().get(0).getName());
+    }
+
+    @Test
+    public void testGeneratedCodecMatchesBinding() throws Exception {
+        System.out.println("generated codec matches binding");
+        assertNotNull(EntityRegistry.codec(CodecTestEntity.class));
+
+        final String json = "{\"name\":\"codec\",\"count\":3,\"day\":\"2016-01-05\",\"unit\":\"seconds\","
+                + "\"simple\":{\"long\":1,\"int\":2,\"float\":0.5,\"double\":1.5},"
+                + "\"simples\":[{\"long\":3,\"int\":4,\"float\":1.0,\"double\":2.0}]}";
+        final EntityBuilder<CodecTestEntity> instance = new EntityBuilder<>();
+        final CodecTestEntity generated = instance.decode(
+                new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), CodecTestEntity.class);
+        final CodecTestEntity reflective = instance.decode(json, EntityRegistry.binding(CodecTestEntity.class));
+
+        assertEquals("codec", generated.name);
+        assertEquals(Integer.valueOf(3), generated.count);
+        assertEquals(LocalDate.of(2016, 1, 5), generated.day);
+        assertEquals(TimeUnit.SECONDS, generated.unit);
+        assertEquals(reflective.simple, generated.simple);
+        assertEquals(reflective.simples, generated.simples);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        instance.encode(generated, out);
+        final JSONParser parser = new JSONParser();
+        assertEquals(parser.parse(instance.encode(reflective, EntityRegistry.binding(CodecTestEntity.class))),
+                parser.parse(new String(out.toByteArray(), StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void testDecodeStream() throws Exception {
+        System.out.println("decode stream");
+
+        final String json = "{\"unknown\":{\"a\":[1,2,{\"b\":\"}\"}],\"c\":null},\"name\":\"caf\u00e9 \\u2603 \\\"q\\\"\","
+                + "\"count\":3,\"day\":\"2016-01-05\",\"unit\":\"seconds\","
+                + "\"simple\":{\"long\":-12,\"int\":2,\"float\":0.5,\"double\":1.5e2},"
+                + "\"simples\":[{\"long\":3,\"int\":4,\"float\":1.0,\"double\":2.0}]}";
+        final EntityBuilder<CodecTestEntity> instance = new EntityBuilder<>();
+        final CodecTestEntity result = instance.decode(
+                new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), CodecTestEntity.class);
+        final CodecTestEntity expResult = instance.decode(json, CodecTestEntity.class);
+
+        assertEquals("caf\u00e9 \u2603 \"q\"", result.name);
+        assertEquals(expResult.name, result.name);
+        assertEquals(expResult.count, result.count);
+        assertEquals(expResult.day, result.day);
+        assertEquals(expResult.unit, result.unit);
+        assertEquals(expResult.simple, result.simple);
+        assertEquals(expResult.simples, result.simples);
+    }
+
+    @Test
+    public void testDecodeLargeStream() throws Exception {
+        System.out.println("decode large stream");
+
+        final StringBuilder json = new StringBuilder("{\"longs\":[");
+        for (int i = 0; i < 100000; i++) {
+            json.append(i == 0 ? "" : ",").append(i);
+        }
+        json.append("]}");
+        final EntityBuilder<CollectionTestEntity> instance = new EntityBuilder<>();
+        final CollectionTestEntity result = instance.decode(new ByteArrayInputStream(
+                json.toString().getBytes(StandardCharsets.UTF_8)), CollectionTestEntity.class);
+
+        assertEquals(100000, result.longValues.size());
+        assertTrue(result.longValues.contains(99999L));
+    }
+
+    @Test(expected = ApiException.class)
+    public void testDecodeMalformedStream() throws Exception {
+        System.out.println("decode malformed stream");
+
+        new EntityBuilder<SimpleTestEntity>().decode(new ByteArrayInputStream(
+                "{\"long\":1,}".getBytes(StandardCharsets.UTF_8)), SimpleTestEntity.class);
+    }
+
+    @Test
+    public void testEncodeStream() throws Exception {
+        System.out.println("encode stream");
+
+        final SimpleTestEntity simple = new SimpleTestEntity();
+        simple.setLongValue(-12L);
+        simple.setIntValue(Integer.MIN_VALUE);
+        simple.setFloatValue(0.5f);
+        simple.setDoubleValue(1.5e-7d);
+        final StreamTestEntity entity = new StreamTestEntity();
+        entity.name = "caf\u00e9 \u2603 \ud83d\ude00 \"q\" \\ \n\t\u0001";
+        entity.day = LocalDate.of(2016, 1, 5);
+        entity.unit = TimeUnit.SECONDS;
+        entity.simples = Arrays.asList(simple, simple);
+        entity.longs = new HashSet<>();
+        final EntityBuilder<StreamTestEntity> instance = new EntityBuilder<>();
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        instance.encode(entity, out);
+        final JSONParser parser = new JSONParser();
+        final Object result = parser.parse(new String(out.toByteArray(), StandardCharsets.UTF_8));
+        final Object expResult = parser.parse(instance.encode(entity));
+
+        assertEquals(expResult, result);
+        assertEquals(entity.name, ((JSONObject) result).get("name"));
+        assertTrue(((JSONObject) result).containsKey("longs"));
+        assertNull(((JSONObject) result).get("longs"));
+    }
+
+    @Test
+    public void testEncodeMapStream() throws Exception {
+        System.out.println("encode map stream");
+
+        final Map<String, Object> json = new HashMap<>();
+        json.put("list", Arrays.asList(1L, 2.5d, true, null, "x"));
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EntityBuilder.encode(json, out);
+
+        assertEquals("{\"list\":[1,2.5,true,null,\"x\"]}", new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testCborRoundTrip() throws Exception {
+        System.out.println("cbor round trip");
+
+        final SimpleTestEntity simple = new SimpleTestEntity();
+        simple.setLongValue(-(1L << 40));
+        simple.setIntValue(Integer.MIN_VALUE);
+        simple.setFloatValue(0.5f);
+        simple.setDoubleValue(1.5e-7d);
+        final CodecTestEntity entity = new CodecTestEntity();
+        entity.name = "caf\u00e9 \u2603 \ud83d\ude00";
+        entity.count = 1 << 20;
+        entity.day = LocalDate.of(2016, 1, 5);
+        entity.unit = TimeUnit.SECONDS;
+        entity.simple = simple;
+        entity.simples = Arrays.asList(simple, simple);
+        final EntityBuilder<CodecTestEntity> instance = EntityBuilder.getInstance();
+
+        final ByteArrayOutputStream cbor = new ByteArrayOutputStream();
+        instance.encode(entity, cbor, WireFormat.CBOR);
+        final ByteArrayOutputStream json = new ByteArrayOutputStream();
+        instance.encode(entity, json);
+        assertTrue(cbor.size() < json.size());
+
+        final CodecTestEntity result = instance.decode(new ByteArrayInputStream(cbor.toByteArray()),
+                CodecTestEntity.class, WireFormat.CBOR, null);
+        assertEquals(entity.name, result.name);
+        assertEquals(entity.count, result.count);
+        assertEquals(entity.day, result.day);
+        assertEquals(entity.unit, result.unit);
+        assertEquals(entity.simple, result.simple);
+        assertEquals(entity.simples, result.simples);
+    }
+
+    @Test
+    public void testDecodeCbor() throws Exception {
+        System.out.println("decode cbor");
+
+        // {"long": 1(2^40), "double": 1.5 (half), "skipped": (_ "a", "b"), "int": -2}
+        final byte[] bytes = {
+            (byte) 0xa4,
+            0x64, 'l', 'o', 'n', 'g', (byte) 0xc1, 0x1b, 0, 0, 1, 0, 0, 0, 0, 0,
+            0x66, 'd', 'o', 'u', 'b', 'l', 'e', (byte) 0xf9, 0x3e, 0x00,
+            0x67, 's', 'k', 'i', 'p', 'p', 'e', 'd', 0x7f, 0x61, 'a', 0x61, 'b', (byte) 0xff,
+            0x63, 'i', 'n', 't', 0x21
+        };
+        final DecodeStats stats = new DecodeStats();
+        final SimpleTestEntity result = EntityBuilder.<SimpleTestEntity>getInstance().decode(
+                new ByteArrayInputStream(bytes), SimpleTestEntity.class, WireFormat.CBOR, stats);
+
+        assertEquals(1L << 40, result.longValue);
+        assertEquals(1.5d, result.doubleValue, 0.0d);
+        assertEquals(-2, result.intValue);
+        assertEquals(1L, stats.getValuesSkipped());
+        assertEquals(6L, stats.getBytesSkipped());
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final Map<String, Object> json = new HashMap<>();
+        json.put("a", Arrays.asList(1L, -500L, 2.5d, true, null));
+        EntityBuilder.encode(json, out, WireFormat.CBOR);
+        assertArrayEquals(new byte[]{
+            (byte) 0xbf, 0x61, 'a', (byte) 0x9f, 0x01, 0x39, 0x01, (byte) 0xf3,
+            (byte) 0xfa, 0x40, 0x20, 0, 0, (byte) 0xf5, (byte) 0xf6, (byte) 0xff, (byte) 0xff
+        }, out.toByteArray());
+    }
+
+    @Test
+    public void testWireFormatForContentType() throws Exception {
+        System.out.println("wire format for content type");
+
+        assertEquals(WireFormat.JSON, WireFormat.forContentType(null));
+        assertEquals(WireFormat.JSON, WireFormat.forContentType("application/json;charset=utf-8"));
+        assertEquals(WireFormat.CBOR, WireFormat.forContentType("Application/CBOR"));
+        assertEquals(WireFormat.CBOR, WireFormat.forContentType("application/vnd.example+cbor; v=2"));
+    }
+
+    @Test
+    public void testDecodeAllStream() throws Exception {
+        System.out.println("decode all stream");
+
+        final String json = "[{\"long\":1,\"int\":1},null,{\"long\":3,\"int\":3}]";
+        final EntityBuilder<SimpleTestEntity> instance = new EntityBuilder<>();
+        final EntityIterator<SimpleTestEntity> result = instance.decodeAll(
+                new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), SimpleTestEntity.class);
+
+        assertTrue(result.hasNext());
+        assertEquals(1L, result.next().longValue);
+        assertNull(result.next());
+        assertEquals(3, result.next().intValue);
+        assertFalse(result.hasNext());
+    }
+
+    @Test
+    public void testDecodeAllWrappedStream() throws Exception {
+        System.out.println("decode all wrapped stream");
+
+        final String json = "{\"total\":2,\"meta\":{\"data\":[0]},\"data\":[{\"long\":1},{\"long\":2}],\"next\":null}";
+        final EntityBuilder<SimpleTestEntity> instance = new EntityBuilder<>();
+        try (Stream<SimpleTestEntity> result = instance.decodeAll(new ByteArrayInputStream(
+                json.getBytes(StandardCharsets.UTF_8)), SimpleTestEntity.class, "data").stream()) {
+            assertEquals(Arrays.asList(1L, 2L), result.map(e -> e.longValue).collect(Collectors.toList()));
+        }
+
+        assertFalse(instance.decodeAll(new ByteArrayInputStream(
+                json.getBytes(StandardCharsets.UTF_8)), SimpleTestEntity.class, "missing").hasNext());
+    }
+
+    @Test
+    public void testDecodeAllIsLazy() throws Exception {
+        System.out.println("decode all is lazy");
+
+        // an endless array, only the consumed elements may be read
+        final byte[] element = "{\"long\":7},".getBytes(StandardCharsets.UTF_8);
+        final InputStream in = new InputStream() {
+
+            private long count = -1;
+
+            @Override
+            public int read() {
+                final long i = count++;
+                return i < 0 ? '[' : element[(int) (i % element.length)];
+            }
+        };
+        final EntityBuilder<SimpleTestEntity> instance = new EntityBuilder<>();
+        try (Stream<SimpleTestEntity> result = instance.decodeAll(in, SimpleTestEntity.class).stream()) {
+            assertEquals(1000, result.limit(1000).filter(e -> e.longValue == 7L).count());
+        }
+    }
+
+    @Test
+    public void testDecodePrimitiveArrays() throws Exception {
+        System.out.println("decode primitive arrays");
+
+        final StringBuilder json = new StringBuilder("{\"ints\":[");
+        for (int i = 0; i < 1000; i++) {
+            json.append(i == 0 ? "" : ",").append(i - 500);
+        }
+        json.append("],\"longs\":[").append(Long.MIN_VALUE).append(",0,").append(Long.MAX_VALUE)
+                .append("],\"floats\":[0.5,-1.25],\"doubles\":[],\"count\":7}");
+        final EntityBuilder<ArrayTestEntity> instance = new EntityBuilder<>();
+        final ArrayTestEntity result = instance.decode(new ByteArrayInputStream(
+                json.toString().getBytes(StandardCharsets.UTF_8)), ArrayTestEntity.class);
+
+        assertEquals(1000, result.ints.length);
+        assertEquals(-500, result.ints[0]);
+        assertEquals(499, result.ints[999]);
+        assertArrayEquals(new long[]{Long.MIN_VALUE, 0L, Long.MAX_VALUE}, result.longs);
+        assertArrayEquals(new float[]{0.5f, -1.25f}, result.floats, 0f);
+        assertArrayEquals(new double[0], result.doubles, 0d);
+        assertEquals(7L, result.count);
+
+        for (ArrayTestEntity expResult : Arrays.asList(instance.decode(json.toString(), ArrayTestEntity.class),
+                instance.decode(json.toString(), new EntityBinding<>(ArrayTestEntity.class)))) {
+            assertArrayEquals(expResult.ints, result.ints);
+            assertArrayEquals(expResult.longs, result.longs);
+            assertArrayEquals(expResult.floats, result.floats, 0f);
+            assertArrayEquals(expResult.doubles, result.doubles, 0d);
+            assertEquals(expResult.count, result.count);
+        }
+    }
+
+    @Test
+    public void testEncodePrimitiveArrays() throws Exception {
+        System.out.println("encode primitive arrays");
+
+        final ArrayTestEntity entity = new ArrayTestEntity();
+        entity.ints = new int[]{1, -2};
+        entity.longs = new long[]{Long.MAX_VALUE};
+        entity.floats = new float[]{0.25f};
+        entity.doubles = new double[]{1.5e-9, Double.MAX_VALUE};
+        entity.count = 3L;
+        final EntityBuilder<ArrayTestEntity> instance = new EntityBuilder<>();
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        instance.encode(entity, out);
+        final JSONParser parser = new JSONParser();
+        final Object expResult = parser.parse(instance.encode(entity));
+
+        assertEquals(expResult, parser.parse(new String(out.toByteArray(), StandardCharsets.UTF_8)));
+        assertEquals(expResult, parser.parse(instance.encode(entity, new EntityBinding<>(ArrayTestEntity.class))));
+        assertEquals(Arrays.asList(1L, -2L), ((JSONObject) expResult).get("ints"));
+    }
+
+    @Test
+    public void testDecodeDoubles() throws Exception {
+        System.out.println("decode doubles");
+
+        final String[] literals = {"0", "-0.0", "0.1", "1e-7", "2.5E3", "-3.14159265358979", "123456789012345678",
+            "1.7976931348623157e308", "4.9e-324", "0.30000000000000004", "1e22", "1e23", "9007199254740993"};
+        final String json = "{\"doubles\":[" + String.join(",", literals) + "]}";
+        final ArrayTestEntity result = new EntityBuilder<ArrayTestEntity>().decode(new ByteArrayInputStream(
+                json.getBytes(StandardCharsets.UTF_8)), ArrayTestEntity.class);
+
+        for (int i = 0; i < literals.length; i++) {
+            assertEquals(literals[i], Double.doubleToLongBits(Double.parseDouble(literals[i])),
+                    Double.doubleToLongBits(result.doubles[i]));
+        }
+    }
+
+    @Test
+    public void testDecodeProjectionStats() throws Exception {
+        System.out.println("decode projection stats");
+
+        final StringBuilder unmapped = new StringBuilder("{\"rows\":[");
+        for (int i = 0; i < 10000; i++) {
+            unmapped.append(i == 0 ? "" : ",").append("{\"id\":").append(i).append(",\"tag\":\"t\\\"").append(i).append("\"}");
+        }
+        unmapped.append("]}");
+        final String json = "{\"long\":1, \"payload\": " + unmapped + ",\"int\":2,\"extra\":true}";
+        final DecodeStats stats = new DecodeStats();
+        final SimpleTestEntity result = new EntityBuilder<SimpleTestEntity>().decode(new ByteArrayInputStream(
+                json.getBytes(StandardCharsets.UTF_8)), SimpleTestEntity.class, stats);
+
+        assertEquals(1L, result.longValue);
+        assertEquals(2, result.intValue);
+        assertEquals(json.length(), stats.getBytesRead());
+        assertEquals(unmapped.length() + "true".length(), stats.getBytesSkipped());
+        assertEquals(2L, stats.getValuesSkipped());
+    }
+
+    @Test
+    public void testSharedInstanceAcrossThreads() throws Exception {
+        System.out.println("shared instance across threads");
+
+        final EntityBuilder<SimpleTestEntity> instance = EntityBuilder.getInstance();
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<Boolean>> results = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                final int id = t;
+                results.add(executor.submit(() -> {
+                    for (int i = 0; i < 1000; i++) {
+                        final SimpleTestEntity entity = new SimpleTestEntity();
+                        entity.setLongValue(id * 1000000L + i);
+                        entity.setIntValue(i);
+                        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                        instance.encode(entity, out);
+                        final SimpleTestEntity result = instance.decode(
+                                new ByteArrayInputStream(out.toByteArray()), SimpleTestEntity.class);
+                        if (!entity.equals(result)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testNestedDecodeOnSameThread() throws Exception {
+        System.out.println("nested decode on same thread");
+
+        final EntityBuilder<SimpleTestEntity> instance = EntityBuilder.getInstance();
+        final StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 2000; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"long\":").append(i).append(",\"name\":\"element ").append(i).append("\"}");
+        }
+        json.append("]");
+        try (EntityIterator<SimpleTestEntity> elements = instance.decodeAll(new ByteArrayInputStream(
+                json.toString().getBytes(StandardCharsets.UTF_8)), SimpleTestEntity.class)) {
+            for (long i = 0; elements.hasNext(); i++) {
+                assertEquals(i, elements.next().longValue);
+                final SimpleTestEntity other = instance.decode(new ByteArrayInputStream(
+                        "{\"long\":-1,\"skipped\":\"xxxxxxxxxxxxxxxx\"}".getBytes(StandardCharsets.UTF_8)),
+                        SimpleTestEntity.class);
+                assertEquals(-1L, other.longValue);
+            }
+        }
+    }
+
+    @Test
+    public void testConvertedAttributes() throws Exception {
+        System.out.println("converted attributes");
+        assertNotNull(EntityRegistry.codec(ConverterTestEntity.class));
+
+        final String json = "{\"day\":\"05.01.2016\",\"unit\":\"Seconds\","
+                + "\"amount\":12345678901234567890.123456789,"
+                + "\"id\":\"123e4567-e89b-12d3-a456-426614174000\"}";
+        final EntityBuilder<ConverterTestEntity> instance = EntityBuilder.getInstance();
+        final ConverterTestEntity result = instance.decode(
+                new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), ConverterTestEntity.class);
+        final ConverterTestEntity generated = instance.decode(json, ConverterTestEntity.class);
+        final ConverterTestEntity reflective = instance.decode(json, EntityRegistry.binding(ConverterTestEntity.class));
+
+        assertEquals(LocalDate.of(2016, 1, 5), result.day);
+        assertEquals(TimeUnit.SECONDS, result.unit);
+        assertEquals(new BigDecimal("12345678901234567890.123456789"), result.amount);
+        assertEquals(UUID.fromString("123e4567-e89b-12d3-a456-426614174000"), result.id);
+        assertEquals(result.day, generated.day);
+        assertEquals(result.day, reflective.day);
+        assertEquals(result.unit, generated.unit);
+        assertEquals(result.unit, reflective.unit);
+        assertEquals(result.id, generated.id);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        instance.encode(result, out);
+        final String encoded = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(encoded.contains("\"day\":\"05.01.2016\""));
+        assertTrue(encoded.contains("\"unit\":\"seconds\""));
+        assertTrue(encoded.contains("\"amount\":12345678901234567890.123456789"));
+        assertEquals(instance.encode(generated), instance.encode(reflective,
+                EntityRegistry.binding(ConverterTestEntity.class)));
+    }
+
+    @Test(expected = ApiException.class)
+    public void testDecodeUnknownEnumConstant() throws Exception {
+        System.out.println("decode unknown enum constant");
+
+        EntityBuilder.<ConverterTestEntity>getInstance().decode(new ByteArrayInputStream(
+                "{\"unit\":\"fortnights\"}".getBytes(StandardCharsets.UTF_8)), ConverterTestEntity.class);
+    }
+
+    @Test
+    public void testRegisteredConverter() throws Exception {
+        System.out.println("registered converter");
+        EntityRegistry.registerConverter(Point.class, new ValueConverter<Point>() {
+
+            @Override
+            public void format(Point value, StringBuilder out) {
+                out.append(value.x).append(',').append(value.y);
+            }
+
+            @Override
+            public Point parse(CharSequence text) {
+                final String[] xy = text.toString().split(",");
+                return new Point(Integer.parseInt(xy[0]), Integer.parseInt(xy[1]));
+            }
+        });
+
+        final EntityBuilder<PointTestEntity> instance = EntityBuilder.getInstance();
+        final PointTestEntity result = instance.decode(new ByteArrayInputStream(
+                "{\"point\":\"3,4\"}".getBytes(StandardCharsets.UTF_8)), PointTestEntity.class);
+        assertEquals(new Point(3, 4), result.point);
+        assertEquals(new Point(3, 4), instance.decode("{\"point\":\"3,4\"}", PointTestEntity.class).point);
+        assertEquals("{\"point\":\"3,4\"}", instance.encode(result));
+    }
+
+    @Test
+    public void testNameTable() throws Exception {
+        System.out.println("name table");
+
+        final String[] names = new String[100];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = "vendorAttribute" + i;
+        }
+        final NameTable table = new NameTable(names);
+        assertTrue(table.isPerfect());
+        for (int i = 0; i < names.length; i++) {
+            final byte[] b = ("\"" + names[i] + "\"").getBytes(StandardCharsets.UTF_8);
+            assertEquals(i, table.get(b, 1, b.length - 1, NameTable.hash(b, 1, b.length - 1)));
+            assertEquals(i, table.get(names[i]));
+        }
+        assertEquals(-1, table.get("vendorAttribute100"));
+        assertEquals(-1, table.get(""));
+        assertTrue(EntityRegistry.binding(SimpleTestEntity.class).names.isPerfect());
+    }
+
+    @Test
+    public void testDecodeNamesAcrossBuffers() throws Exception {
+        System.out.println("decode names across buffers");
+
+        final EntityBuilder<SimpleTestEntity> instance = EntityBuilder.getInstance();
+        for (int pad = JsonReader.BUFFER_SIZE - 40; pad < JsonReader.BUFFER_SIZE; pad++) {
+            final StringBuilder json = new StringBuilder("{\"skipped\":\"");
+            for (int i = 0; i < pad; i++) {
+                json.append('x');
+            }
+            json.append("\",\"double\":1.5,\"\\u0069nt\":2,\"long\":3}");
+            final SimpleTestEntity result = instance.decode(new ByteArrayInputStream(
+                    json.toString().getBytes(StandardCharsets.UTF_8)), SimpleTestEntity.class);
+            assertEquals(1.5, result.doubleValue, 0.0);
+            assertEquals(2, result.intValue);
+            assertEquals(3L, result.longValue);
+        }
+    }
+
+    @Test
+    public void testParallelDecode() throws Exception {
+        System.out.println("parallel decode");
+
+        final StringBuilder json = new StringBuilder("{\"name\":\"parallel\",\"simples\":[");
+        for (int i = 0; i < 5000; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"long\":").append(i).append(",\"int\":").append(-i).append('}');
+        }
+        json.append(",null]}");
+        final EntityBuilder<CodecTestEntity> instance = EntityBuilder.getInstance();
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        EntityRegistry.setParallelDecoding(pool, 100);
+        try {
+            final CodecTestEntity streamed = instance.decode(new ByteArrayInputStream(
+                    json.toString().getBytes(StandardCharsets.UTF_8)), CodecTestEntity.class);
+            final CodecTestEntity generated = instance.decode(json.toString(), CodecTestEntity.class);
+            final CodecTestEntity reflective = instance.decode(json.toString(),
+                    EntityRegistry.binding(CodecTestEntity.class));
+            final ByteArrayOutputStream cbor = new ByteArrayOutputStream();
+            instance.encode(streamed, cbor, WireFormat.CBOR);
+            final CodecTestEntity binary = instance.decode(new ByteArrayInputStream(cbor.toByteArray()),
+                    CodecTestEntity.class, WireFormat.CBOR, null);
+            for (CodecTestEntity result : Arrays.asList(streamed, generated, reflective, binary)) {
+                assertEquals(5001, result.simples.size());
+                for (int i = 0; i < 5000; i++) {
+                    assertEquals(i, result.simples.get(i).longValue);
+                    assertEquals(-i, result.simples.get(i).intValue);
+                }
+                assertNull(result.simples.get(5000));
+            }
+        } finally {
+            EntityRegistry.setParallelDecoding(null, EntityRegistry.DEFAULT_PARALLEL_THRESHOLD);
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testLazyAttributes() throws Exception {
+        System.out.println("lazy attributes");
+        assertNull(EntityRegistry.codec(LazyTestEntity.class));
+
+        final StringBuilder json = new StringBuilder("{\"name\":\"lazy\",\"simple\":{\"long\": 7 ,\"int\":8},"
+                + "\"simples\":[");
+        for (int i = 0; i < 2000; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"long\":").append(i).append(",\"skipped\":\"]}\"}");
+        }
+        json.append("],\"other\":{\"a\":[1,2.5,\"x\"]}}");
+        final byte[] bytes = json.toString().getBytes(StandardCharsets.UTF_8);
+        final EntityBuilder<LazyTestEntity> instance = EntityBuilder.getInstance();
+        final DecodeStats stats = new DecodeStats();
+        final LazyTestEntity result = instance.decode(new ByteArrayInputStream(bytes), LazyTestEntity.class, stats);
+
+        assertEquals("lazy", result.name);
+        assertFalse(result.simple.isMaterialized());
+        assertFalse(result.simples.isMaterialized());
+        assertEquals(0L, stats.getValuesSkipped());
+        assertEquals("{\"long\": 7 ,\"int\":8}", result.simple.toString());
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        instance.encode(result, out);
+        assertArrayEquals(bytes, out.toByteArray());
+
+        assertEquals(7L, result.simple.get().longValue);
+        assertEquals(8, result.simple.get().intValue);
+        assertEquals(2000, result.simples.get().size());
+        assertEquals(1999L, result.simples.get().get(1999).longValue);
+        assertEquals(2.5, ((List) ((Map) result.other.get()).get("a")).get(1));
+        assertTrue(result.simples.isMaterialized());
+        assertEquals(instance.encode(result), instance.encode(instance.decode(json.toString(), LazyTestEntity.class)));
+
+        out.reset();
+        instance.encode(result, out, WireFormat.CBOR);
+        final LazyTestEntity cbor = instance.decode(new ByteArrayInputStream(out.toByteArray()),
+                LazyTestEntity.class, WireFormat.CBOR, null);
+        assertEquals(WireFormat.CBOR, cbor.simples.getFormat());
+        assertEquals(1999L, cbor.simples.get().get(1999).longValue);
+        final ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        cbor.simple.writeRaw(copy);
+        assertEquals(7L, EntityBuilder.<SimpleTestEntity>getInstance().decode(new ByteArrayInputStream(
+                copy.toByteArray()), SimpleTestEntity.class, WireFormat.CBOR, null).longValue);
+
+        result.simple = Lazy.of(null);
+        assertTrue(instance.encode(result).contains("\"simple\":null"));
+    }
+
+    @Test
+    public void testEncodeCache() throws Exception {
+        System.out.println("encode cache");
+
+        final ImmutableTestEntity reference = new ImmutableTestEntity();
+        reference.name = "reference";
+        reference.simple = new SimpleTestEntity();
+        reference.simple.setLongValue(42L);
+        final EntityBuilder<ImmutableTestEntity> instance = EntityBuilder.getInstance();
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        instance.encode(reference, expected);
+
+        EntityRegistry.setEncodeCacheSize(1024);
+        try {
+            final EncodeCache cache = EntityRegistry.encodeCache();
+            for (int i = 0; i < 500; i++) {
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                instance.encode(reference, out);
+                assertArrayEquals(expected.toByteArray(), out.toByteArray());
+            }
+            assertEquals(1L, cache.misses());
+            assertEquals(499L, cache.hits());
+
+            // cached by identity, so changes after the first send are not seen
+            reference.name = "changed";
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            instance.encode(reference, out);
+            assertArrayEquals(expected.toByteArray(), out.toByteArray());
+            instance.encode(reference, out, WireFormat.CBOR);
+            assertEquals(2, cache.size());
+
+            for (int i = 0; i < 100; i++) {
+                final ImmutableTestEntity other = new ImmutableTestEntity();
+                other.name = "other" + i;
+                instance.encode(other, new ByteArrayOutputStream());
+            }
+            assertTrue(cache.size() < 100);
+            out.reset();
+            instance.encode(reference, out);
+            assertTrue(new String(out.toByteArray(), StandardCharsets.UTF_8).contains("changed"));
+
+            // the json text is cached per instance as well
+            final ImmutableTestEntity text = new ImmutableTestEntity();
+            text.name = "text";
+            final String expResult = instance.encode(text);
+            text.name = "changed";
+            final long hits = cache.hits();
+            assertEquals(expResult, instance.encode(text));
+            assertEquals(hits + 1, cache.hits());
+        } finally {
+            EntityRegistry.setEncodeCacheSize(0);
+        }
+    }
+
+    @Test
+    public void testSnapshotChanges() throws Exception {
+        System.out.println("snapshot changes");
+
+        final EntityBuilder<CodecTestEntity> instance = EntityBuilder.getInstance();
+        final CodecTestEntity entity = instance.decode("{\"name\":\"before\",\"count\":1,\"day\":\"2016-01-05\","
+                + "\"simple\":{\"long\":1,\"int\":2},\"simples\":[{\"long\":3}]}", CodecTestEntity.class);
+        final EntitySnapshot<CodecTestEntity> snapshot = instance.snapshot(entity);
+        assertFalse(snapshot.isChanged());
+        assertTrue(snapshot.changes().isEmpty());
+
+        entity.count = 2;
+        entity.day = null;
+        entity.simple.setIntValue(5);
+        entity.simples.get(0).setLongValue(4L);
+        assertTrue(snapshot.isChanged());
+        assertEquals(new JSONParser().parse("{\"count\":2,\"day\":null,\"simple\":{\"int\":5},"
+                + "\"simples\":[{\"long\":4,\"int\":0,\"float\":0.0,\"double\":0.0}]}"),
+                new JSONParser().parse(snapshot.changes().toJSONString()));
+    }
+
+    @Test
+    public void testDecodeThroughConstructor() throws Exception {
+        System.out.println("decode through constructor");
+        assertNull(EntityRegistry.codec(CreatorTestEntity.class));
+
+        final String json = "{\"name\":\"created\",\"note\":\"set\",\"skipped\":[1],\"simple\":{\"long\":9}}";
+        final EntityBuilder<CreatorTestEntity> instance = EntityBuilder.getInstance();
+        final CreatorTestEntity streamed = instance.decode(new ByteArrayInputStream(
+                json.getBytes(StandardCharsets.UTF_8)), CreatorTestEntity.class);
+        final CreatorTestEntity tree = instance.decode(json, CreatorTestEntity.class);
+        for (CreatorTestEntity result : Arrays.asList(streamed, tree)) {
+            assertEquals("created", result.name);
+            assertEquals(0, result.count);
+            assertEquals(9L, result.simple.longValue);
+            assertEquals("set", result.note);
+        }
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        instance.encode(streamed, out, WireFormat.CBOR);
+        final CreatorTestEntity cbor = instance.decode(new ByteArrayInputStream(out.toByteArray()),
+                CreatorTestEntity.class, WireFormat.CBOR, null);
+        assertEquals(instance.encode(streamed), instance.encode(cbor));
+    }
+
+    @Test
+    public void testRecycleEntities() throws Exception {
+        System.out.println("recycle entities");
+
+        final byte[] json = ("{\"name\":\"pooled\",\"count\":3,\"simple\":{\"long\":1},"
+                + "\"simples\":[{\"long\":2},{\"int\":3}]}").getBytes(StandardCharsets.UTF_8);
+        final EntityBuilder<CodecTestEntity> instance = EntityBuilder.getInstance();
+        EntityRegistry.setPoolCapacity(4);
+        try {
+            final CodecTestEntity first = instance.decode(new ByteArrayInputStream(json), CodecTestEntity.class);
+            final List<SimpleTestEntity> simples = first.simples;
+            final SimpleTestEntity simple = first.simples.get(0);
+            instance.recycle(first);
+            assertNull(first.name);
+            assertNull(first.simple);
+            assertTrue(simples.isEmpty());
+            assertEquals(0L, simple.longValue);
+
+            final CodecTestEntity second = instance.decode(new ByteArrayInputStream(
+                    "{\"name\":\"again\",\"simples\":[{\"long\":4}]}".getBytes(StandardCharsets.UTF_8)),
+                    CodecTestEntity.class);
+            assertSame(first, second);
+            assertNotSame(simples, second.simples);
+            assertEquals("again", second.name);
+            assertNull(second.count);
+            assertEquals(1, second.simples.size());
+            assertEquals(4L, second.simples.get(0).longValue);
+
+            final EntityPool<CodecTestEntity> pool = EntityRegistry.pool(CodecTestEntity.class);
+            assertEquals(1L, pool.getHits());
+            assertEquals(1L, pool.getMisses());
+            assertEquals(1L, EntityRegistry.pool(SimpleTestEntity.class).getHits());
+            assertEquals(2, EntityRegistry.pool(SimpleTestEntity.class).getSize());
+        } finally {
+            EntityRegistry.setPoolCapacity(0);
+        }
+        assertNull(EntityRegistry.pool(CodecTestEntity.class));
+    }
+
+    @Test
+    public void testRecord() throws Exception {
+        System.out.println("record");
+
+        final String version = System.getProperty("java.specification.version");
+        Assume.assumeTrue(!version.startsWith("1.") && Integer.parseInt(version) >= 16);
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        Assume.assumeNotNull(compiler);
+
+        final Path dir = Files.createTempDirectory("record");
+        final Path source = dir.resolve("PointRecord.java");
+        Files.write(source, Arrays.asList(
+                "public record PointRecord(",
+                "        @de.martinkade.http.entity.JsonAttribute(name = \"x\") int x,",
+                "        @de.martinkade.http.entity.JsonAttribute(name = \"label\") String label)",
+                "        implements de.martinkade.http.ApiService.Entity {",
+                "}"), StandardCharsets.UTF_8);
+        final String classpath = ApiService.class.getProtectionDomain().getCodeSource().getLocation().getPath();
+        assertEquals(0, compiler.run(null, null, null,
+                "-classpath", classpath, "-d", dir.toString(), source.toString()));
+
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{dir.toUri().toURL()},
+                getClass().getClassLoader())) {
+            final Class<ApiService.Entity> type = asEntityClass(loader.loadClass("PointRecord"));
+            final EntityBuilder<ApiService.Entity> instance = EntityBuilder.getInstance();
+            final ApiService.Entity point = instance.decode(new ByteArrayInputStream(
+                    "{\"label\":\"a\",\"x\":4}".getBytes(StandardCharsets.UTF_8)), type);
+            assertEquals(4, type.getMethod("x").invoke(point));
+            assertEquals("a", type.getMethod("label").invoke(point));
+
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            instance.encode(point, out);
+            assertEquals(point, instance.decode(new ByteArrayInputStream(out.toByteArray()), type));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Class<ApiService.Entity> asEntityClass(Class<?> type) {
+        return (Class<ApiService.Entity>) type.asSubclass(ApiService.Entity.class);
+    }
+
+    @Test
+    public void testRecycleRestoresInitializers() throws Exception {
+        System.out.println("recycle restores initializers");
+
+        final EntityBuilder<DefaultsTestEntity> instance = EntityBuilder.getInstance();
+        EntityRegistry.setPoolCapacity(4);
+        try {
+            final DefaultsTestEntity first = instance.decode(new ByteArrayInputStream(
+                    "{\"retries\":5,\"status\":\"ok\",\"ids\":[1,2]}".getBytes(StandardCharsets.UTF_8)),
+                    DefaultsTestEntity.class);
+            final List<Long> ids = first.ids;
+            instance.recycle(first);
+
+            final DefaultsTestEntity second = instance.decode(new ByteArrayInputStream(
+                    "{\"ids\":[3]}".getBytes(StandardCharsets.UTF_8)), DefaultsTestEntity.class);
+            assertSame(first, second);
+            assertEquals(3, second.retries);
+            assertEquals("unknown", second.status);
+            assertSame(ids, second.ids);
+            assertEquals(Arrays.asList(3L), second.ids);
+        } finally {
+            EntityRegistry.setPoolCapacity(0);
+        }
+    }
+
+    @Test
+    public void testRecycleResetsFinalFields() throws Exception {
+        System.out.println("recycle resets final fields");
+
+        final EntityBuilder<FinalTestEntity> instance = EntityBuilder.getInstance();
+        EntityRegistry.setPoolCapacity(4);
+        try {
+            final FinalTestEntity first = instance.decode(new ByteArrayInputStream(
+                    "{\"label\":\"first\",\"ids\":[1,2]}".getBytes(StandardCharsets.UTF_8)),
+                    FinalTestEntity.class);
+            assertEquals("first", first.label);
+            assertEquals(Arrays.asList(1L, 2L), first.ids);
+            instance.recycle(first);
+
+            final FinalTestEntity second = instance.decode(new ByteArrayInputStream(
+                    "{}".getBytes(StandardCharsets.UTF_8)), FinalTestEntity.class);
+            assertSame(first, second);
+            assertEquals("none", second.label);
+            assertTrue(second.ids.isEmpty());
+        } finally {
+            EntityRegistry.setPoolCapacity(0);
+        }
+    }
+
+    @Test
+    public void testInternStrings() throws Exception {
+        System.out.println("intern strings");
+        assertNotNull(EntityRegistry.codec(InternTestEntity.class));
+
+        final String json = "[{\"status\":\"ok\",\"note\":\"ok\"},{\"status\":\"o\\u006b\",\"note\":\"ok\"}]";
+        final EntityBuilder<InternTestEntity> instance = EntityBuilder.getInstance();
+        final List<InternTestEntity> streamed = new ArrayList<>();
+        try (EntityIterator<InternTestEntity> elements = instance.decodeAll(new ByteArrayInputStream(
+                json.getBytes(StandardCharsets.UTF_8)), InternTestEntity.class)) {
+            elements.forEachRemaining(streamed::add);
+        }
+        assertEquals("ok", streamed.get(0).status);
+        assertSame(streamed.get(0).status, streamed.get(1).status);
+        assertNotSame(streamed.get(0).note, streamed.get(1).note);
+        final Object[] extra = ((JSONArray) new JsonReader(new ByteArrayInputStream(
+                "[{\"code\":1},{\"code\":2}]".getBytes(StandardCharsets.UTF_8))).nextValue()).toArray();
+        assertSame(((Map) extra[0]).keySet().iterator().next(), ((Map) extra[1]).keySet().iterator().next());
+
+        final InternTestEntity generated = instance.decode("{\"status\":\"ok\"}", InternTestEntity.class);
+        final InternTestEntity reflective = instance.decode("{\"status\":\"ok\"}",
+                EntityRegistry.binding(InternTestEntity.class));
+        assertSame(streamed.get(0).status, generated.status);
+        assertSame(streamed.get(0).status, reflective.status);
+    }
+
+    @Test
+    public void testRequiredAttributes() throws Exception {
+        System.out.println("required attributes");
+        assertNotNull(EntityRegistry.codec(RequiredTestEntity.class));
+
+        final EntityBuilder<RequiredTestEntity> instance = EntityBuilder.getInstance();
+        final String complete = "{\"id\":1,\"name\":\"required\"}";
+        assertEquals("required", instance.decode(new ByteArrayInputStream(
+                complete.getBytes(StandardCharsets.UTF_8)), RequiredTestEntity.class).name);
+        assertEquals(1L, instance.decode(complete, RequiredTestEntity.class).id);
+        assertEquals(1L, instance.decode(complete, EntityRegistry.binding(RequiredTestEntity.class)).id);
+
+        final String incomplete = "{\"name\":null,\"note\":\"x\"}";
+        final List<Callable<RequiredTestEntity>> decoders = Arrays.asList(
+                () -> instance.decode(new ByteArrayInputStream(incomplete.getBytes(StandardCharsets.UTF_8)),
+                        RequiredTestEntity.class),
+                () -> instance.decode(incomplete, RequiredTestEntity.class),
+                () -> instance.decode(incomplete, EntityRegistry.binding(RequiredTestEntity.class)));
+        for (Callable<RequiredTestEntity> decoder : decoders) {
+            try {
+                decoder.call();
+                fail("missing attributes not detected");
+            } catch (ApiException ex) {
+                assertEquals(ApiException.APIError.JSON_DECODE_ERROR, ex.getError());
+                assertTrue(ex.getMessage(), ex.getMessage().endsWith("id, name"));
+            }
+        }
+    }
+
+    /**
+     * Not accessible from its package, so there is no generated codec.
+     */
+    private static class StreamTestEntity implements ApiService.Entity {
+
+        @JsonAttribute(name = "name")
+        private String name;
+
+        @JsonAttribute(name = "day")
+        private LocalDate day;
+
+        @JsonAttribute(name = "unit")
+        private TimeUnit unit;
+
+        @JsonAttribute(name = "simples")
+        private List<SimpleTestEntity> simples;
+
+        @JsonAttribute(name = "longs")
+        private Set<Long> longs;
+    }
+
+    /**
+     *
+     */
+    public static class ArrayTestEntity implements ApiService.Entity {
+
+        @JsonAttribute(name = "ints")
+        int[] ints;
+
+        @JsonAttribute(name = "longs")
+        long[] longs;
+
+        @JsonAttribute(name = "floats")
+        float[] floats;
+
+        @JsonAttribute(name = "doubles")
+        double[] doubles;
+
+        @JsonAttribute(name = "count")
+        long count;
+
+        /**
+         * Required default constructor.
+         */
+        public ArrayTestEntity() {
+
+        }
+    }
+
+    /**
+     *
+     */
+    public static class ConverterTestEntity implements ApiService.Entity {
+
+        @JsonAttribute(name = "day", pattern = "dd.MM.yyyy")
+        LocalDate day;
+
+        @JsonAttribute(name = "unit")
+        TimeUnit unit;
+
+        @JsonAttribute(name = "amount")
+        BigDecimal amount;
+
+        @JsonAttribute(name = "id")
+        UUID id;
+
+        /**
+         * Required default constructor.
+         */
+        public ConverterTestEntity() {
+
+        }
+    }
+
+    /**
+     *
+     */
+    public static class PointTestEntity implements ApiService.Entity {
+
+        @JsonAttribute(name = "point")
+        Point point;
+
+        /**
+         * Required default constructor.
+         */
+        public PointTestEntity() {
+
+        }
+    }
+
+    /**
+     * Value type without built-in converter.
+     */
+    public static final class Point {
+
+        final int x, y;
+
+        Point(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Point && ((Point) obj).x == x && ((Point) obj).y == y;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * x + y;
+        }
+    }
+
+    /**
+     *
+     */
+    public static class DefaultsTestEntity implements ApiService.Entity {
+
+        @JsonAttribute(name = "retries")
+        int retries = 3;
+
+        @JsonAttribute(name = "status")
+        String status = "unknown";
+
+        @JsonAttribute(name = "ids")
+        List<Long> ids = new ArrayList<>();
+
+        /**
+         * Required default constructor.
+         */
+        public DefaultsTestEntity() {
+
+        }
+    }
+
+    /**
+     *
+     */
+    public static class FinalTestEntity implements ApiService.Entity {
+
+        @JsonAttribute(name = "label")
+        final String label;
+
+        @JsonAttribute(name = "ids")
+        final List<Long> ids = new ArrayList<>();
+
+        /**
+         * Required default constructor.
+         */
+        public FinalTestEntity() {
+            label = "none";
+        }
+    }
+
+    public static class CodecTestEntity implements ApiService.Entity {
+
+        @JsonAttribute(name = "name")
+        String name;
+
+        @JsonAttribute(name = "count")
+        Integer count;
+
+        @JsonAttribute(name = "day")
+        LocalDate day;
+
+        @JsonAttribute(name = "unit")
+        TimeUnit unit;
+
+        @JsonAttribute(name = "simple")
+        SimpleTestEntity simple;
+
+        @JsonAttribute(name = "simples")
+        List<SimpleTestEntity> simples;
+
+        /**
+         * Required default constructor.
+         */
+        public CodecTestEntity() {
+
+        }
+    }
+
+    /**
+     *
+     */
+    public static class DerivedTestEntity extends SimpleTestEntity {
+
+        @JsonAttribute(name = "name")
+        private String name;
+
+        /**
+         * Required default constructor.
+         */
+        public DerivedTestEntity() {
+
+        }
+    }
+
     /**
      *
      */
@@ -157,6 +1273,89 @@ public class EntityBuilderTest {
 
     }
 
+    /**
+     *
+     */
+    public static class LazyTestEntity implements ApiService.Entity {
+
+        @JsonAttribute(name = "name")
+        private String name;
+
+        @JsonAttribute(name = "simple")
+        private Lazy<SimpleTestEntity> simple;
+
+        @JsonAttribute(name = "simples")
+        private Lazy<List<SimpleTestEntity>> simples;
+
+        @JsonAttribute(name = "other")
+        private Lazy<Object> other;
+    }
+
+    /**
+     *
+     */
+    @Immutable
+    public static class ImmutableTestEntity implements ApiService.Entity {
+
+        @JsonAttribute(name = "name")
+        private String name;
+
+        @JsonAttribute(name = "simple")
+        private SimpleTestEntity simple;
+    }
+
+    /**
+     * Immutable apart from the note, decoded through its constructor.
+     */
+    public static class CreatorTestEntity implements ApiService.Entity {
+
+        @JsonAttribute(name = "name")
+        private final String name;
+
+        @JsonAttribute(name = "count")
+        private final int count;
+
+        @JsonAttribute(name = "simple")
+        private final SimpleTestEntity simple;
+
+        @JsonAttribute(name = "note")
+        private String note;
+
+        public CreatorTestEntity(@JsonAttribute(name = "count") int count, @JsonAttribute(name = "name") String name,
+                @JsonAttribute(name = "simple") SimpleTestEntity simple) {
+            this.count = count;
+            this.name = name;
+            this.simple = simple;
+        }
+    }
+
+    /**
+     *
+     */
+    public static class InternTestEntity implements ApiService.Entity {
+
+        @JsonAttribute(name = "status", intern = true)
+        String status;
+
+        @JsonAttribute(name = "note")
+        String note;
+    }
+
+    /**
+     *
+     */
+    public static class RequiredTestEntity implements ApiService.Entity {
+
+        @JsonAttribute(name = "id", optional = false)
+        long id;
+
+        @JsonAttribute(name = "name", optional = false)
+        String name;
+
+        @JsonAttribute(name = "note")
+        String note;
+    }
+
     /**
      *
      */
@@ -0,0 +1,199 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Martin Kade.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.martinkade.http.request;
+
+import de.martinkade.http.ApiService;
+import de.martinkade.http.entity.JsonAttribute;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * ...
+ * <p/>
+ * @author Martin Kade
+ * @version Tue, 5 January 2016
+ */
+public class ApiRequestTest {
+
+    private static final String URL = "http://example.com/items";
+
+    /**
+     * A compressible name.
+     */
+    private static final String NAME = new String(new char[512]).replace('\0', 'n');
+
+    private static final byte[] JSON = ("{\"name\":\"" + NAME + "\"}").getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void testGzipResponse() throws Exception {
+        System.out.println("gzip response");
+
+        final ApiGetRequest<NameEntity> request = new ApiGetRequest<>(URL, NameEntity.class);
+        request.setTransport(new LoopbackTransport(exchange -> {
+            assertEquals("gzip, deflate", exchange.getRequestHeader("Accept-Encoding"));
+            final ByteArrayOutputStream body = new ByteArrayOutputStream();
+            try (OutputStream out = new GZIPOutputStream(body)) {
+                out.write(JSON);
+            }
+            exchange.addResponseHeader("Content-Type", "application/json");
+            exchange.addResponseHeader("Content-Encoding", "gzip");
+            exchange.setResponseBody(body.toByteArray());
+        }));
+        assertEquals(NAME, request.call().getResponseData().name);
+        assertEquals(JSON.length, request.getTransferStats().getResponseBodyBytes());
+        assertTrue(request.getTransferStats().getResponseBytes() < JSON.length);
+    }
+
+    @Test
+    public void testDeflateResponse() throws Exception {
+        System.out.println("deflate response");
+
+        // zlib wrapped as specified and raw as sent by some servers
+        for (final boolean raw : new boolean[]{false, true}) {
+            final ApiGetRequest<NameEntity> request = new ApiGetRequest<>(URL, NameEntity.class);
+            request.setTransport(new LoopbackTransport(exchange -> {
+                final ByteArrayOutputStream body = new ByteArrayOutputStream();
+                try (OutputStream out = new DeflaterOutputStream(body, new Deflater(Deflater.DEFAULT_COMPRESSION, raw))) {
+                    out.write(JSON);
+                }
+                exchange.addResponseHeader("Content-Type", "application/json");
+                exchange.addResponseHeader("Content-Encoding", "deflate");
+                exchange.setResponseBody(body.toByteArray());
+            }));
+            assertEquals(NAME, request.call().getResponseData().name);
+            assertEquals(JSON.length, request.getTransferStats().getResponseBodyBytes());
+        }
+    }
+
+    @Test
+    public void testUncompressedResponse() throws Exception {
+        System.out.println("uncompressed response");
+
+        final ApiGetRequest<NameEntity> request = new ApiGetRequest<>(URL, NameEntity.class);
+        request.setAcceptCompression(false);
+        request.setTransport(new LoopbackTransport(exchange -> {
+            assertNull(exchange.getRequestHeader("Accept-Encoding"));
+            exchange.addResponseHeader("Content-Type", "application/json");
+            exchange.setResponseBody(JSON);
+        }));
+        assertEquals(NAME, request.call().getResponseData().name);
+        assertEquals(JSON.length, request.getTransferStats().getResponseBytes());
+    }
+
+    @Test
+    public void testCompressedPut() throws Exception {
+        System.out.println("compressed put");
+
+        for (final int chunkSize : new int[]{0, 64}) {
+            final ApiPutRequest<NameEntity, NameEntity> request = new ApiPutRequest<>(URL, NameEntity.class);
+            final NameEntity data = new NameEntity();
+            data.name = NAME;
+            request.setRequestData(data);
+            request.setChunkedStreaming(chunkSize);
+            request.setRequestCompression(256);
+            request.setTransport(new LoopbackTransport(ApiRequestTest::gunzipEcho));
+            assertEquals(NAME, request.call().getResponseData().name);
+            assertEquals(JSON.length, request.getTransferStats().getRequestBodyBytes());
+            assertTrue(request.getTransferStats().getRequestBytes() < JSON.length);
+        }
+    }
+
+    @Test
+    public void testCompressedPost() throws Exception {
+        System.out.println("compressed post");
+
+        final ApiPostRequest<NameEntity> request = new ApiPostRequest<>(URL, NameEntity.class);
+        request.addFormParameter("name", NAME);
+        request.setRequestCompression(256);
+        request.setTransport(new LoopbackTransport(exchange -> {
+            assertEquals("gzip", exchange.getRequestHeader("Content-Encoding"));
+            final String form = new String(gunzip(exchange.getRequestBody()), StandardCharsets.UTF_8);
+            assertEquals("name=" + NAME, form);
+            exchange.addResponseHeader("Content-Type", "application/json");
+            exchange.setResponseBody(("{\"name\":\"" + URLDecoder.decode(form.substring(5), "UTF-8") + "\"}")
+                    .getBytes(StandardCharsets.UTF_8));
+        }));
+        assertEquals(NAME, request.call().getResponseData().name);
+        assertEquals(5 + NAME.length(), request.getTransferStats().getRequestBodyBytes());
+    }
+
+    @Test
+    public void testBelowCompressionThreshold() throws Exception {
+        System.out.println("below compression threshold");
+
+        final ApiPutRequest<NameEntity, NameEntity> request = new ApiPutRequest<>(URL, NameEntity.class);
+        final NameEntity data = new NameEntity();
+        data.name = "short";
+        request.setRequestData(data);
+        request.setRequestCompression(256);
+        request.setTransport(new LoopbackTransport(exchange -> {
+            assertNull(exchange.getRequestHeader("Content-Encoding"));
+            exchange.addResponseHeader("Content-Type", "application/json");
+            exchange.setResponseBody(exchange.getRequestBody());
+        }));
+        assertEquals("short", request.call().getResponseData().name);
+        assertEquals(request.getTransferStats().getRequestBodyBytes(), request.getTransferStats().getRequestBytes());
+    }
+
+    private static void gunzipEcho(LoopbackTransport.Exchange exchange) throws IOException {
+        assertEquals("gzip", exchange.getRequestHeader("Content-Encoding"));
+        exchange.addResponseHeader("Content-Type", "application/json");
+        exchange.setResponseBody(gunzip(exchange.getRequestBody()));
+    }
+
+    private static byte[] gunzip(byte[] body) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+            final byte[] buf = new byte[1024];
+            for (int n; (n = in.read(buf)) != -1;) {
+                out.write(buf, 0, n);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    public static class NameEntity implements ApiService.Entity {
+
+        @JsonAttribute(name = "name")
+        String name;
+
+        /**
+         * Required default constructor.
+         */
+        public NameEntity() {
+
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Martin Kade.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.martinkade.http.request;
+
+import de.martinkade.http.ApiException;
+import de.martinkade.http.ApiService;
+import de.martinkade.http.entity.JsonAttribute;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * ...
+ * <p/>
+ * @author Martin Kade
+ * @version Tue, 5 January 2016
+ */
+public class HostLimiterTest {
+
+    private static final String URL = "http://Example.com/items";
+
+    @Test
+    public void testAcquireTimeout() throws Exception {
+        System.out.println("acquire timeout");
+
+        final HostLimiter limiter = new HostLimiter(1);
+        final HostLimiter.Lease lease = limiter.acquire(new URL(URL), 100);
+        try {
+            limiter.acquire(new URL(URL), 50);
+            fail("acquired more than the maximum");
+        } catch (ApiException ex) {
+            assertEquals(ApiException.APIError.CONNECTION_TIMEOUT, ex.getError());
+        }
+        final HostLimiter.HostStats stats = limiter.getStats().get("http://example.com:80");
+        assertEquals(1, stats.getLeased());
+        assertEquals(0, stats.getWaiting());
+        assertEquals(1, stats.getLeases());
+        assertEquals(1, stats.getTimeouts());
+        assertTrue(stats.getMaxWaitNanos() >= 50000000L);
+
+        lease.release();
+        limiter.acquire(new URL(URL), 0).release();
+        assertEquals(0, stats.getLeased());
+        assertEquals(2, stats.getLeases());
+    }
+
+    @Test
+    public void testReleaseOnce() throws Exception {
+        System.out.println("release once");
+
+        final HostLimiter limiter = new HostLimiter(2);
+        final HostLimiter.Lease lease = limiter.acquire(new URL(URL), 0);
+        lease.release();
+        lease.release();
+        final HostLimiter.HostStats stats = limiter.getStats().get("http://example.com:80");
+        assertEquals(0, stats.getLeased());
+
+        // a second release must not have freed an extra slot
+        limiter.acquire(new URL(URL), 0);
+        limiter.acquire(new URL(URL), 0);
+        try {
+            limiter.acquire(new URL(URL), 0);
+            fail("acquired more than the maximum");
+        } catch (ApiException ex) {
+            assertEquals(2, stats.getLeased());
+        }
+    }
+
+    @Test
+    public void testReleaseOnError() throws Exception {
+        System.out.println("release on error");
+
+        final HostLimiter limiter = new HostLimiter(1);
+        final Transport refused = url -> {
+            throw new IOException("connection refused");
+        };
+
+        final ApiGetRequest<ItemEntity> call = new ApiGetRequest<>(URL, ItemEntity.class);
+        call.setHostLimiter(limiter);
+        call.setTransport(refused);
+        try {
+            call.call();
+            fail("no error");
+        } catch (ApiException ex) {
+            assertEquals(0, limiter.getStats().get("http://example.com:80").getLeased());
+        }
+
+        final ApiGetRequest<ItemEntity> iterate = new ApiGetRequest<>(URL, ItemEntity.class);
+        iterate.setHostLimiter(limiter);
+        iterate.setTransport(refused);
+        try {
+            iterate.iterate();
+            fail("no error");
+        } catch (ApiException ex) {
+            assertEquals(0, limiter.getStats().get("http://example.com:80").getLeased());
+        }
+
+        final ApiGetRequest<ItemEntity> malformed = new ApiGetRequest<>(URL, ItemEntity.class);
+        malformed.setHostLimiter(limiter);
+        malformed.setTransport(LoopbackTransport.canned(200, "application/json",
+                "{\"id\":".getBytes(StandardCharsets.UTF_8)));
+        try {
+            malformed.call();
+            fail("no error");
+        } catch (ApiException ex) {
+            assertEquals(0, limiter.getStats().get("http://example.com:80").getLeased());
+        }
+
+        final HostLimiter.HostStats stats = limiter.getStats().get("http://example.com:80");
+        assertEquals(3, stats.getLeases());
+        assertEquals(0, stats.getTimeouts());
+    }
+
+    @Test
+    public void testStats() throws Exception {
+        System.out.println("stats");
+
+        final HostLimiter limiter = new HostLimiter(4);
+        final LoopbackTransport transport = LoopbackTransport.canned(200, "application/json",
+                "{\"id\":7}".getBytes(StandardCharsets.UTF_8));
+        for (int i = 0; i < 3; i++) {
+            final ApiGetRequest<ItemEntity> request = new ApiGetRequest<>(URL, ItemEntity.class);
+            request.setHostLimiter(limiter);
+            request.setTransport(transport);
+            assertEquals(7, request.call().getResponseData().id);
+        }
+        limiter.acquire(new URL("https://example.com/other"), 0);
+
+        assertEquals(2, limiter.getStats().size());
+        final HostLimiter.HostStats http = limiter.getStats().get("http://example.com:80");
+        assertEquals(4, http.getMaxTotal());
+        assertEquals(0, http.getLeased());
+        assertEquals(3, http.getLeases());
+        assertEquals(0, http.getTimeouts());
+        assertTrue(http.getMaxWaitNanos() <= http.getWaitNanos());
+        assertEquals(1, limiter.getStats().get("https://example.com:443").getLeased());
+    }
+
+    public static class ItemEntity implements ApiService.Entity {
+
+        @JsonAttribute(name = "id")
+        int id;
+
+        /**
+         * Required default constructor.
+         */
+        public ItemEntity() {
+
+        }
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Martin Kade.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.martinkade.http.request;
+
+import de.martinkade.http.ApiService;
+import de.martinkade.http.entity.JsonAttribute;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * ...
+ * <p/>
+ * @author Martin Kade
+ * @version Tue, 5 January 2016
+ */
+public class HttpClientConnectionTest {
+
+    private ServerSocket server;
+
+    private ScheduledExecutorService responder;
+
+    private final AtomicInteger accepted = new AtomicInteger(), open = new AtomicInteger(),
+            maxOpen = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+        final String version = System.getProperty("java.specification.version");
+        Assume.assumeTrue(!version.startsWith("1.") && Integer.parseInt(version) >= 11);
+
+        server = new ServerSocket(0, 64, InetAddress.getLoopbackAddress());
+        responder = Executors.newScheduledThreadPool(2);
+        final Thread acceptor = new Thread(() -> {
+            while (!server.isClosed()) {
+                try {
+                    final Socket socket = server.accept();
+                    accepted.incrementAndGet();
+                    final Thread t = new Thread(() -> serve(socket));
+                    t.setDaemon(true);
+                    t.start();
+                } catch (IOException ex) {
+                    return;
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (server != null) {
+            server.close();
+            responder.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testMultiplexing() throws Exception {
+        System.out.println("multiplexing");
+
+        final String url = "http://127.0.0.1:" + server.getLocalPort() + "/items";
+        final ApiGetRequest<StreamEntity> upgrade = new ApiGetRequest<>(url, StreamEntity.class);
+        upgrade.setTransport(Transport.HTTP2);
+        assertEquals(1, upgrade.call().getResponseData().stream);
+
+        // a limiter of one slot would serialize the requests if HTTP/2 used it
+        final HostLimiter limiter = new HostLimiter(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            final List<Future<ApiRequest<StreamEntity>>> futures = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                final ApiGetRequest<StreamEntity> request = new ApiGetRequest<>(url, StreamEntity.class);
+                request.setTransport(Transport.HTTP2);
+                request.setHostLimiter(limiter);
+                futures.add(executor.submit(request));
+            }
+            final Set<Integer> streams = new HashSet<>();
+            for (Future<ApiRequest<StreamEntity>> f : futures) {
+                final ApiRequest<StreamEntity> response = f.get(10, TimeUnit.SECONDS);
+                assertEquals(200, response.getResponseCode());
+                assertEquals("ok", response.getResponseData().status);
+                streams.add(response.getResponseData().stream);
+            }
+            assertEquals(16, streams.size());
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1, accepted.get());
+        assertTrue("streams in parallel: " + maxOpen.get(), maxOpen.get() > 1);
+        assertTrue(limiter.getStats().isEmpty());
+    }
+
+    @Test
+    public void testConnectTimeoutBoundsRequest() throws Exception {
+        System.out.println("connect timeout bounds request");
+
+        try (ServerSocket silent = new ServerSocket(0, 8, InetAddress.getLoopbackAddress())) {
+            final HttpURLConnection connection = Transport.HTTP2.open(
+                    new URL("http://127.0.0.1:" + silent.getLocalPort() + "/items"));
+            connection.setConnectTimeout(200);
+            connection.setReadTimeout(0);
+            final long start = System.nanoTime();
+            try {
+                connection.getResponseCode();
+                fail("no timeout");
+            } catch (IOException ex) {
+                assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 5);
+            }
+        }
+    }
+
+    /**
+     * Answer an h2c upgrade and then each request stream with a json body
+     * naming the stream, after a delay so that streams overlap.
+     *
+     * @param socket
+     */
+    private void serve(Socket socket) {
+        try (Socket s = socket) {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            final OutputStream out = new BufferedOutputStream(s.getOutputStream());
+            final StringBuilder head = new StringBuilder();
+            while (head.indexOf("\r\n\r\n") < 0) {
+                final int c = in.read();
+                if (c < 0) {
+                    return;
+                }
+                head.append((char) c);
+            }
+            if (!head.toString().contains("Upgrade: h2c")) {
+                out.write("HTTP/1.1 505 HTTP Version Not Supported\r\nContent-Length: 0\r\n\r\n"
+                        .getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                return;
+            }
+            out.write("HTTP/1.1 101 Switching Protocols\r\nConnection: Upgrade\r\nUpgrade: h2c\r\n\r\n"
+                    .getBytes(StandardCharsets.US_ASCII));
+            // SETTINGS: 256 concurrent streams
+            frame(out, 4, 0, 0, new byte[]{0, 3, 0, 0, 1, 0});
+            in.readFully(new byte[24]);
+            respond(out, 1);
+            while (true) {
+                final byte[] header = new byte[9];
+                in.readFully(header);
+                final int length = (header[0] & 0xff) << 16 | (header[1] & 0xff) << 8 | header[2] & 0xff;
+                final int type = header[3] & 0xff, flags = header[4] & 0xff;
+                final int stream = (header[5] & 0x7f) << 24 | (header[6] & 0xff) << 16
+                        | (header[7] & 0xff) << 8 | header[8] & 0xff;
+                final byte[] payload = new byte[length];
+                in.readFully(payload);
+                if (type == 4 && (flags & 1) == 0) {
+                    frame(out, 4, 1, 0, new byte[0]);
+                } else if (type == 6 && (flags & 1) == 0) {
+                    frame(out, 6, 1, 0, payload);
+                } else if ((type == 0 || type == 1) && (flags & 1) != 0) {
+                    respond(out, stream);
+                } else if (type == 7) {
+                    return;
+                }
+            }
+        } catch (IOException ex) {
+            // connection closed by the client
+        }
+    }
+
+    private void respond(OutputStream out, int stream) {
+        maxOpen.accumulateAndGet(open.incrementAndGet(), Math::max);
+        responder.schedule(() -> {
+            try {
+                final byte[] type = "application/json".getBytes(StandardCharsets.US_ASCII);
+                final ByteArrayOutputStream headers = new ByteArrayOutputStream();
+                // :status 200, content-type without indexing
+                headers.write(0x88);
+                headers.write(0x0f);
+                headers.write(0x10);
+                headers.write(type.length);
+                headers.write(type, 0, type.length);
+                frame(out, 1, 4, stream, headers.toByteArray());
+                frame(out, 0, 1, stream, ("{\"status\":\"ok\",\"stream\":" + stream + "}")
+                        .getBytes(StandardCharsets.UTF_8));
+            } catch (IOException ex) {
+                // connection closed by the client
+            } finally {
+                open.decrementAndGet();
+            }
+        }, 200, TimeUnit.MILLISECONDS);
+    }
+
+    private static void frame(OutputStream out, int type, int flags, int stream, byte[] payload)
+            throws IOException {
+        synchronized (out) {
+            out.write(new byte[]{(byte) (payload.length >> 16), (byte) (payload.length >> 8),
+                (byte) payload.length, (byte) type, (byte) flags, (byte) (stream >>> 24), (byte) (stream >> 16),
+                (byte) (stream >> 8), (byte) stream});
+            out.write(payload);
+            out.flush();
+        }
+    }
+
+    public static class StreamEntity implements ApiService.Entity {
+
+        @JsonAttribute(name = "status")
+        String status;
+
+        @JsonAttribute(name = "stream")
+        int stream;
+
+        /**
+         * Required default constructor.
+         */
+        public StreamEntity() {
+
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Martin Kade.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.martinkade.http.request;
+
+import de.martinkade.http.ApiException;
+import de.martinkade.http.ApiService;
+import de.martinkade.http.entity.JsonAttribute;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * ...
+ * <p/>
+ * @author Martin Kade
+ * @version Tue, 5 January 2016
+ */
+public class LoopbackTransportTest {
+
+    /**
+     * Handler answering with the method, a request header and the request
+     * body.
+     */
+    private static final LoopbackTransport.Handler ECHO = exchange -> {
+        exchange.setResponseCode(HttpURLConnection.HTTP_CREATED);
+        exchange.addResponseHeader("Content-Type", "application/json");
+        exchange.addResponseHeader("X-Method", exchange.getMethod());
+        exchange.addResponseHeader("X-Trace", exchange.getRequestHeader("x-trace"));
+        exchange.setResponseBody(exchange.getRequestBody());
+    };
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        System.out.println("round trip");
+
+        final LoopbackTransport transport = new LoopbackTransport(ECHO);
+        final byte[] body = "{\"name\":\"loop\"}".getBytes(StandardCharsets.UTF_8);
+        final HttpURLConnection connection = transport.open(new URL("http://example.com/items"));
+        connection.setRequestMethod("PUT");
+        connection.setRequestProperty("X-Trace", "42");
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body);
+        }
+
+        assertEquals(HttpURLConnection.HTTP_CREATED, connection.getResponseCode());
+        assertEquals("application/json", connection.getContentType());
+        assertEquals("PUT", connection.getHeaderField("x-method"));
+        assertEquals("42", connection.getHeaderField("X-Trace"));
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        try (InputStream in = connection.getInputStream()) {
+            final byte[] buf = new byte[64];
+            for (int n; (n = in.read(buf)) != -1;) {
+                received.write(buf, 0, n);
+            }
+        }
+        assertArrayEquals(body, received.toByteArray());
+
+        assertEquals(1, transport.getExchanges());
+        assertEquals(body.length, transport.getRequestBytes());
+        assertEquals(body.length, transport.getResponseBytes());
+    }
+
+    @Test
+    public void testRequestRoundTrip() throws Exception {
+        System.out.println("request round trip");
+
+        final LoopbackTransport transport = new LoopbackTransport(ECHO);
+        final ApiPutRequest<NameEntity, NameEntity> request = new ApiPutRequest<>("http://example.com/items",
+                NameEntity.class);
+        final NameEntity data = new NameEntity();
+        data.name = "loop";
+        request.setRequestData(data);
+        request.setTransport(transport);
+        request.setHostLimiter(new HostLimiter(1));
+        request.call();
+
+        assertEquals(HttpURLConnection.HTTP_CREATED, request.getResponseCode());
+        assertEquals("loop", request.getResponseData().name);
+        assertEquals(1, transport.getExchanges());
+        assertTrue(transport.getRequestBytes() > 0);
+        assertEquals(transport.getRequestBytes(), transport.getResponseBytes());
+        assertEquals(transport.getRequestBytes(), request.getTransferStats().getRequestBytes());
+        assertEquals(transport.getResponseBytes(), request.getTransferStats().getResponseBytes());
+    }
+
+    @Test
+    public void testErrorResponse() throws Exception {
+        System.out.println("error response");
+
+        final LoopbackTransport transport = new LoopbackTransport(
+                exchange -> exchange.setResponseCode(HttpURLConnection.HTTP_NOT_FOUND));
+        final ApiGetRequest<NameEntity> request = new ApiGetRequest<>("http://example.com/missing",
+                NameEntity.class);
+        request.setTransport(transport);
+        try {
+            request.call();
+            fail("no error");
+        } catch (ApiException ex) {
+            assertEquals(1, transport.getExchanges());
+            assertEquals(0, transport.getRequestBytes());
+            assertEquals(0, transport.getResponseBytes());
+        }
+    }
+
+    public static class NameEntity implements ApiService.Entity {
+
+        @JsonAttribute(name = "name")
+        String name;
+
+        /**
+         * Required default constructor.
+         */
+        public NameEntity() {
+
+        }
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Martin Kade.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.martinkade.http.request;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import de.martinkade.http.ApiException;
+import de.martinkade.http.ApiService;
+import de.martinkade.http.entity.JsonAttribute;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * ...
+ * <p/>
+ * @author Martin Kade
+ * @version Tue, 5 January 2016
+ */
+public class NioTransportTest {
+
+    private HttpServer server;
+
+    private NioTransport transport;
+
+    private String url;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 64);
+        server.createContext("/items", exchange -> {
+            final byte[] request = read(exchange.getRequestBody());
+            final String body = request.length == 0
+                    ? "{\"name\":\"" + exchange.getRequestMethod() + "\"}"
+                    : new String(request, StandardCharsets.UTF_8);
+            respond(exchange, 200, body);
+        });
+        server.createContext("/missing", exchange -> respond(exchange, 404, ""));
+        server.setExecutor(Executors.newFixedThreadPool(8));
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort();
+        transport = new NioTransport(1);
+    }
+
+    @After
+    public void tearDown() {
+        transport.close();
+        server.stop(0);
+        ((ExecutorService) server.getExecutor()).shutdownNow();
+    }
+
+    @Test
+    public void testExchange() throws Exception {
+        System.out.println("exchange");
+
+        assertEquals("GET", get("/items").getResponseData().name);
+
+        final ApiPutRequest<NameEntity, NameEntity> put = new ApiPutRequest<>(url + "/items", NameEntity.class);
+        final NameEntity data = new NameEntity();
+        data.name = "nio";
+        put.setRequestData(data);
+        put.setTransport(transport);
+        assertEquals("nio", put.call().getResponseData().name);
+        assertEquals(200, put.getResponseCode());
+
+        try {
+            get("/missing");
+            fail("no error");
+        } catch (ApiException ex) {
+            assertEquals(ApiException.APIError.IO_ERROR, ex.getError());
+        }
+        assertEquals(3, transport.getExchanges());
+        assertEquals(1, transport.getConnects());
+    }
+
+    @Test
+    public void testCallAsync() throws Exception {
+        System.out.println("call async");
+
+        final ExecutorService decoder = Executors.newSingleThreadExecutor();
+        try {
+            final List<CompletableFuture<NameEntity>> futures = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                final ApiGetRequest<NameEntity> request = new ApiGetRequest<>(url + "/items", NameEntity.class);
+                request.setTransport(transport);
+                futures.add(request.callAsync(decoder));
+            }
+            for (CompletableFuture<NameEntity> f : futures) {
+                assertEquals("GET", f.get(10, TimeUnit.SECONDS).name);
+            }
+
+            final ApiGetRequest<NameEntity> missing = new ApiGetRequest<>(url + "/missing", NameEntity.class);
+            missing.setTransport(transport);
+            try {
+                missing.callAsync(decoder).get(10, TimeUnit.SECONDS);
+                fail("no error");
+            } catch (ExecutionException ex) {
+                assertTrue(ex.getCause() instanceof ApiException);
+            }
+        } finally {
+            decoder.shutdown();
+        }
+        assertEquals(33, transport.getExchanges());
+    }
+
+    @Test
+    public void testMalformedResponse() throws Exception {
+        System.out.println("malformed response");
+
+        final String[] responses = {
+            "HTTP/1.1 2x0 OK\r\nContent-Length: 0\r\n\r\n",
+            "HTTP/1.1 200 OK\r\nContent-Length: many\r\n\r\n",
+            "HTTP/1.1 200 OK\r\nContent-Length: -1\r\n\r\n",
+            "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\nzz\r\n",
+            "garbage\r\n\r\n"
+        };
+        try (ServerSocket raw = new ServerSocket(0, 8, InetAddress.getLoopbackAddress())) {
+            final Thread t = new Thread(() -> {
+                for (String response : responses) {
+                    try (Socket s = raw.accept()) {
+                        final InputStream in = s.getInputStream();
+                        final StringBuilder head = new StringBuilder();
+                        while (head.indexOf("\r\n\r\n") < 0) {
+                            head.append((char) in.read());
+                        }
+                        s.getOutputStream().write(response.getBytes(StandardCharsets.US_ASCII));
+                        s.getOutputStream().flush();
+                        s.shutdownOutput();
+                        while (in.read() != -1) {
+                            // until the client closes
+                        }
+                    } catch (IOException ex) {
+                        return;
+                    }
+                }
+            });
+            t.setDaemon(true);
+            t.start();
+
+            for (String response : responses) {
+                final ApiGetRequest<NameEntity> request = new ApiGetRequest<>(
+                        "http://127.0.0.1:" + raw.getLocalPort() + "/", NameEntity.class);
+                request.setTransport(transport);
+                try {
+                    request.call();
+                    fail("no error for " + response);
+                } catch (ApiException ex) {
+                    assertEquals(ApiException.APIError.IO_ERROR, ex.getError());
+                }
+            }
+        }
+
+        // the event loop survived
+        assertEquals("GET", get("/items").getResponseData().name);
+    }
+
+    @Test
+    public void testResponseLimits() throws Exception {
+        System.out.println("response limits");
+
+        final char[] name = new char[4096];
+        Arrays.fill(name, 'x');
+        final String large = "{\"name\":\"" + new String(name) + "\"}";
+        server.createContext("/large", exchange -> respond(exchange, 200, large));
+        server.createContext("/chunked", exchange -> {
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(large.getBytes(StandardCharsets.UTF_8));
+            }
+        });
+        transport.setMaxBodySize(1024);
+        for (String path : new String[]{"/large", "/chunked"}) {
+            try {
+                get(path);
+                fail("no error for " + path);
+            } catch (ApiException ex) {
+                assertEquals(ApiException.APIError.IO_ERROR, ex.getError());
+            }
+        }
+        transport.setMaxBodySize(NioTransport.DEFAULT_MAX_BODY_SIZE);
+        assertEquals(4096, get("/large").getResponseData().name.length());
+
+        try (ServerSocket raw = new ServerSocket(0, 8, InetAddress.getLoopbackAddress())) {
+            final Thread t = new Thread(() -> {
+                try (Socket s = raw.accept()) {
+                    final OutputStream out = s.getOutputStream();
+                    out.write("HTTP/1.1 200 OK\r\nX-Endless: ".getBytes(StandardCharsets.US_ASCII));
+                    final byte[] chunk = new byte[1024];
+                    Arrays.fill(chunk, (byte) 'a');
+                    while (true) {
+                        out.write(chunk);
+                    }
+                } catch (IOException ex) {
+                    // the client gave up
+                }
+            });
+            t.setDaemon(true);
+            t.start();
+
+            final ApiGetRequest<NameEntity> request = new ApiGetRequest<>(
+                    "http://127.0.0.1:" + raw.getLocalPort() + "/", NameEntity.class);
+            request.setTransport(transport);
+            try {
+                request.call();
+                fail("no error for an endless header");
+            } catch (ApiException ex) {
+                assertEquals(ApiException.APIError.IO_ERROR, ex.getError());
+            }
+        }
+
+        // only the failed exchanges were affected
+        assertEquals("GET", get("/items").getResponseData().name);
+    }
+
+    @Test
+    public void testIdleConnections() throws Exception {
+        System.out.println("idle connections");
+
+        transport.setIdleTimeout(50);
+        get("/items");
+        Thread.sleep(300);
+        get("/items");
+        assertEquals(2, transport.getConnects());
+
+        transport.setIdleTimeout(NioTransport.DEFAULT_IDLE_TIMEOUT);
+        transport.setMaxIdlePerHost(0);
+        // the idle connection is used once more, then none is kept
+        get("/items");
+        get("/items");
+        get("/items");
+        assertEquals(4, transport.getConnects());
+    }
+
+    @Test
+    public void testClosed() throws Exception {
+        System.out.println("closed");
+
+        transport.close();
+        try {
+            get("/items");
+            fail("no error");
+        } catch (ApiException ex) {
+            assertEquals(0, transport.getExchanges());
+        }
+    }
+
+    private ApiGetRequest<NameEntity> get(String path) throws ApiException {
+        final ApiGetRequest<NameEntity> request = new ApiGetRequest<>(url + path, NameEntity.class);
+        request.setTransport(transport);
+        request.call();
+        return request;
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buf = new byte[1024];
+        for (int n; (n = in.read(buf)) != -1;) {
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static void respond(HttpExchange exchange, int code, String body) throws IOException {
+        final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json;charset=utf-8");
+        exchange.sendResponseHeaders(code, bytes.length == 0 ? -1 : bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    public static class NameEntity implements ApiService.Entity {
+
+        @JsonAttribute(name = "name")
+        String name;
+
+        /**
+         * Required default constructor.
+         */
+        public NameEntity() {
+
+        }
+    }
+}